@@ -0,0 +1,112 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler;
+
+import com.google.common.util.concurrent.Futures;
+import org.apache.camel.CamelContext;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the overhead of {@link AsyncBatchMessageProcessorRoute} for one exchange with a batch
+ * of messages which do no real work, either completing immediately or on a small thread pool, in
+ * both blocking and non blocking modes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AsyncBatchMessageProcessorRouteBenchmark {
+    @Param({"10", "100", "1000"})
+    int batchSize;
+
+    /** Whether messages complete "immediate"ly or asynchronously on a "pooled" executor. */
+    @Param({"immediate", "pooled"})
+    String completion;
+
+    @Param({"false", "true"})
+    boolean nonBlocking;
+
+    CamelContext camelContext;
+    ProducerTemplate producer;
+    ExecutorService executor;
+    List<Object> batch;
+
+    @Setup(Level.Trial)
+    public void startRoute() throws Exception {
+        executor = Executors.newFixedThreadPool(4);
+
+        MessageFactory messageFactory = "pooled".equals(completion)
+                ? body -> () -> executor.submit(() -> null)
+                : body -> () -> Futures.immediateFuture(null);
+
+        camelContext = new DefaultCamelContext();
+        camelContext.addRoutes(new AsyncBatchMessageProcessorRoute("direct:batch",
+                "direct:failures", Duration.ofMinutes(1), messageFactory, nonBlocking));
+        camelContext.addRoutes(new RouteBuilder() {
+            @Override
+            public void configure() throws Exception {
+                from("direct:failures").stop();
+            }
+        });
+        camelContext.start();
+
+        producer = camelContext.createProducerTemplate();
+
+        batch = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            batch.add(i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stopRoute() throws Exception {
+        producer.stop();
+        camelContext.stop();
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public void processBatch() {
+        producer.sendBody("direct:batch", batch);
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.esbtools.eventhandler.lightblue;
+
+import org.esbtools.eventhandler.DocumentEvent;
+import org.esbtools.eventhandler.KeyedDocumentEvent;
+import org.esbtools.eventhandler.lightblue.LightblueDocumentEventRepository.SharedIdentityEvents;
+import org.esbtools.eventhandler.lightblue.locking.LockedResources;
+import org.esbtools.eventhandler.lightblue.testing.InMemoryLockStrategy;
+import org.esbtools.eventhandler.lightblue.testing.TypeIdentity;
+
+import com.google.common.util.concurrent.Futures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Clock;
+import java.time.ZonedDateTime;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures parsing and optimizing a large batch of document events which all share one identity,
+ * with and without {@link KeyedDocumentEvent optimization keys}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SharedIdentityEventsBenchmark {
+    static final Map<String, DocumentEventFactory> factories = Collections.singletonMap(
+            "Value", (entity, requester) -> entity.getParameterByKey("keyed").equals("true")
+                    ? new KeyedValueDocumentEvent(entity)
+                    : new ValueDocumentEvent(entity));
+
+    @Param({"1000", "10000"})
+    int eventCount;
+
+    @Param({"true", "false"})
+    boolean keyed;
+
+    final Clock clock = Clock.systemUTC();
+    final InMemoryLockStrategy lockStrategy = new InMemoryLockStrategy();
+
+    DocumentEventEntity[] entities;
+
+    @Setup(Level.Invocation)
+    public void createEntities() {
+        entities = new DocumentEventEntity[eventCount];
+
+        // Half of the events are superseded by an earlier event with the same value.
+        for (int i = 0; i < eventCount; i++) {
+            DocumentEventEntity entity = DocumentEventEntity.newlyCreated(null, "Value", 50,
+                    ZonedDateTime.now(clock),
+                    new DocumentEventEntity.KeyAndValue("value", Integer.toString(i % (eventCount / 2))),
+                    new DocumentEventEntity.KeyAndValue("keyed", Boolean.toString(keyed)));
+            entity.set_id(Integer.toString(i));
+            entity.setStatus(DocumentEventEntity.Status.unprocessed);
+            entities[i] = entity;
+        }
+    }
+
+    @Benchmark
+    public int optimize() throws Exception {
+        try (LockedResources<SharedIdentityEvents> locks =
+                SharedIdentityEvents.parseAndOptimizeLockableDocumentEventEntities(
+                        entities.length, entities, null, factories, lockStrategy, clock)) {
+            return locks.getLocks().size();
+        } finally {
+            lockStrategy.releaseAll();
+        }
+    }
+
+    /**
+     * All value events share an identity, but are only superseded by events with the same value.
+     */
+    static class ValueDocumentEvent implements LightblueDocumentEvent {
+        final String value;
+        final DocumentEventEntity entity;
+
+        ValueDocumentEvent(DocumentEventEntity entity) {
+            this.entity = entity;
+            this.value = entity.getParameterByKey("value");
+        }
+
+        @Override
+        public Future<?> lookupDocument() {
+            return Futures.immediateFuture(value);
+        }
+
+        @Override
+        public boolean isSupersededBy(DocumentEvent event) {
+            return event instanceof ValueDocumentEvent &&
+                    Objects.equals(((ValueDocumentEvent) event).value, value);
+        }
+
+        @Override
+        public boolean couldMergeWith(DocumentEvent event) {
+            return false;
+        }
+
+        @Override
+        public LightblueDocumentEvent merge(DocumentEvent event) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Identity identity() {
+            return new TypeIdentity(ValueDocumentEvent.class);
+        }
+
+        @Override
+        public DocumentEventEntity wrappedDocumentEventEntity() {
+            return entity;
+        }
+    }
+
+    static class KeyedValueDocumentEvent extends ValueDocumentEvent implements KeyedDocumentEvent {
+        KeyedValueDocumentEvent(DocumentEventEntity entity) {
+            super(entity);
+        }
+
+        @Override
+        public Object optimizationKey() {
+            return value;
+        }
+    }
+}
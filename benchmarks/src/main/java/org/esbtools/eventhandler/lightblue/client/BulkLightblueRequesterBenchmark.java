@@ -0,0 +1,134 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.esbtools.eventhandler.lightblue.client;
+
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.esbtools.eventhandler.TransformableFuture;
+
+import com.redhat.lightblue.client.request.CRUDRequest;
+import com.redhat.lightblue.client.request.data.DataFindRequest;
+import com.redhat.lightblue.client.response.LightblueBulkDataResponse;
+import com.redhat.lightblue.client.response.LightblueDataResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the client side cost of batching requests with {@link BulkLightblueRequester} against
+ * a {@link FixedResponseLightblueClient}.
+ *
+ * <ul>
+ *     <li>Fan in: many callers each queue one request, all resolved by one bulk request.</li>
+ *     <li>Fan out: one caller queues many requests, and reads each response.</li>
+ *     <li>Chained: each response queues a follow up request, so two rounds of bulk requests are
+ *     made.</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BulkLightblueRequesterBenchmark {
+    @Param({"10", "100", "1000"})
+    int requestCount;
+
+    FixedResponseLightblueClient lightblue;
+    List<DataFindRequest> requests;
+    List<DataFindRequest> followUpRequests;
+
+    @Setup(Level.Trial)
+    public void createClientAndRequests() {
+        LightblueDataResponse response = mock(LightblueDataResponse.class);
+        LightblueBulkDataResponse bulkResponse = mock(LightblueBulkDataResponse.class);
+        when(bulkResponse.getResponse(any(CRUDRequest.class))).thenReturn(response);
+
+        lightblue = new FixedResponseLightblueClient(response, bulkResponse);
+        requests = newFindRequests(requestCount);
+        followUpRequests = newFindRequests(requestCount);
+    }
+
+    @Benchmark
+    public void fanIn(Blackhole blackhole) throws Exception {
+        BulkLightblueRequester requester = new BulkLightblueRequester(lightblue);
+        List<TransformableFuture<LightblueDataResponses>> futures = new ArrayList<>(requestCount);
+
+        for (DataFindRequest request : requests) {
+            futures.add(requester.request(request));
+        }
+
+        for (TransformableFuture<LightblueDataResponses> future : futures) {
+            blackhole.consume(future.get());
+        }
+    }
+
+    @Benchmark
+    public void fanOut(Blackhole blackhole) throws Exception {
+        BulkLightblueRequester requester = new BulkLightblueRequester(lightblue);
+        LightblueDataResponses responses = requester.request(requests).get();
+
+        for (DataFindRequest request : requests) {
+            blackhole.consume(responses.forRequest(request));
+        }
+    }
+
+    @Benchmark
+    public void chained(Blackhole blackhole) throws Exception {
+        BulkLightblueRequester requester = new BulkLightblueRequester(lightblue);
+        List<TransformableFuture<LightblueDataResponse>> futures = new ArrayList<>(requestCount);
+
+        for (int i = 0; i < requestCount; i++) {
+            DataFindRequest request = requests.get(i);
+            DataFindRequest followUp = followUpRequests.get(i);
+
+            futures.add(requester.request(request)
+                    .transformAsync(responses -> requester.request(followUp))
+                    .transformSync(responses -> responses.forRequest(followUp)));
+        }
+
+        for (TransformableFuture<LightblueDataResponse> future : futures) {
+            blackhole.consume(future.get());
+        }
+    }
+
+    static List<DataFindRequest> newFindRequests(int count) {
+        List<DataFindRequest> requests = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            requests.add(new DataFindRequest("benchmarkEntity", "1.0.0"));
+        }
+        return requests;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.esbtools.eventhandler.lightblue.client;
+
+import com.redhat.lightblue.client.LightblueClient;
+import com.redhat.lightblue.client.LightblueException;
+import com.redhat.lightblue.client.Locking;
+import com.redhat.lightblue.client.request.DataBulkRequest;
+import com.redhat.lightblue.client.request.LightblueDataRequest;
+import com.redhat.lightblue.client.request.LightblueMetadataRequest;
+import com.redhat.lightblue.client.response.LightblueBulkDataResponse;
+import com.redhat.lightblue.client.response.LightblueDataResponse;
+import com.redhat.lightblue.client.response.LightblueMetadataResponse;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An in memory stand-in for lightblue which answers every data request with the same response,
+ * so that benchmarks measure client side overhead rather than network or database time.
+ */
+public class FixedResponseLightblueClient implements LightblueClient {
+    private final LightblueDataResponse dataResponse;
+    private final LightblueBulkDataResponse bulkResponse;
+    private final AtomicInteger requestCount = new AtomicInteger(0);
+
+    public FixedResponseLightblueClient(LightblueDataResponse dataResponse,
+            LightblueBulkDataResponse bulkResponse) {
+        this.dataResponse = dataResponse;
+        this.bulkResponse = bulkResponse;
+    }
+
+    /** Number of round trips "made" to lightblue, counting a bulk request as one. */
+    public int requestCount() {
+        return requestCount.get();
+    }
+
+    @Override
+    public Locking getLocking(String domain) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public LightblueMetadataResponse metadata(LightblueMetadataRequest request)
+            throws LightblueException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public LightblueDataResponse data(LightblueDataRequest request) throws LightblueException {
+        requestCount.incrementAndGet();
+        return dataResponse;
+    }
+
+    @Override
+    public LightblueBulkDataResponse bulkData(DataBulkRequest request) throws LightblueException {
+        requestCount.incrementAndGet();
+        return bulkResponse;
+    }
+
+    @Override
+    public <T> T data(LightblueDataRequest request, Class<T> type) throws LightblueException {
+        throw new UnsupportedOperationException();
+    }
+}
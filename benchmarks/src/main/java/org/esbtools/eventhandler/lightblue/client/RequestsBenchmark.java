@@ -0,0 +1,107 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.esbtools.eventhandler.lightblue.client;
+
+import org.esbtools.eventhandler.lightblue.DocumentEventEntity;
+
+import com.redhat.lightblue.client.request.CRUDRequest;
+import com.redhat.lightblue.client.request.data.DataInsertRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building, and serializing, the requests made by
+ * {@link org.esbtools.eventhandler.lightblue.LightblueDocumentEventRepository} to persist new
+ * events and event status updates with {@link InsertRequests} and {@link UpdateRequests}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestsBenchmark {
+    @Param({"10", "100", "1000"})
+    int entityCount;
+
+    List<DocumentEventEntity> newEntities;
+    List<DocumentEventEntity> processedEntities;
+
+    @Setup(Level.Trial)
+    public void createEntities() {
+        ZonedDateTime now = ZonedDateTime.now();
+
+        newEntities = new ArrayList<>(entityCount);
+        processedEntities = new ArrayList<>(entityCount);
+
+        for (int i = 0; i < entityCount; i++) {
+            DocumentEventEntity.KeyAndValue parameter =
+                    new DocumentEventEntity.KeyAndValue("value", Integer.toString(i));
+
+            newEntities.add(DocumentEventEntity.newlyCreated(null, "Benchmark", 50, now,
+                    parameter));
+
+            DocumentEventEntity processed = DocumentEventEntity.newlyCreated(null, "Benchmark", 50,
+                    now.minusMinutes(1), parameter);
+            processed.set_id(Integer.toString(i));
+            processed.setProcessingDate(now);
+            processed.setProcessedDate(now);
+            processed.setStatus(DocumentEventEntity.Status.published);
+            processedEntities.add(processed);
+        }
+    }
+
+    @Benchmark
+    public String insertNewDocumentEvents() {
+        DataInsertRequest insert = InsertRequests.documentEventsReturningOnlyIds(newEntities);
+        return insert.getBody();
+    }
+
+    @Benchmark
+    public void updateDocumentEventStatuses(Blackhole blackhole) {
+        for (CRUDRequest update
+                : UpdateRequests.documentEventsStatusAndProcessedDate(processedEntities)) {
+            blackhole.consume(update.getBody());
+        }
+    }
+
+    @Benchmark
+    public void updateDocumentEventStatusesIfCurrent(Blackhole blackhole) {
+        for (DocumentEventEntity entity : processedEntities) {
+            blackhole.consume(UpdateRequests
+                    .documentEventStatusDatesAndSurvivorOfIfCurrent(entity, entity.getProcessingDate())
+                    .getBody());
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.esbtools.eventhandler.lightblue.client;
+
+import org.esbtools.eventhandler.TransformableFuture;
+import org.esbtools.eventhandler.lightblue.client.BulkLightblueRequester.LazyTransformableFuture;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Measures building and resolving chains of {@link TransformableFuture#transformSync
+ * synchronous} and {@link TransformableFuture#transformAsync asynchronous} transforms, on both
+ * immediate futures and the lazy futures used by {@link BulkLightblueRequester}.
+ *
+ * <p>The {@code completable} variants build the same asynchronous chains on a future from
+ * {@link TransformableFuture#fromCompletionStage}, which flattens each transform in place, for
+ * comparison with the nested futures built by the other implementations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransformableFutureChainBenchmark {
+    @Param({"1", "10"})
+    int depth;
+
+    @Benchmark
+    public Integer immediateSyncChain() throws Exception {
+        TransformableFuture<Integer> future = TransformableFuture.immediate(0);
+
+        for (int i = 0; i < depth; i++) {
+            future = future.transformSync(n -> n + 1);
+        }
+
+        return future.get();
+    }
+
+    @Benchmark
+    public Integer immediateAsyncChain() throws Exception {
+        TransformableFuture<Integer> future = TransformableFuture.immediate(0);
+
+        for (int i = 0; i < depth; i++) {
+            future = future.transformAsync(n -> TransformableFuture.immediate(n + 1));
+        }
+
+        return future.get();
+    }
+
+    @Benchmark
+    public Integer lazySyncChain() throws Exception {
+        TransformableFuture<Integer> future = newLazyFuture(0);
+
+        for (int i = 0; i < depth; i++) {
+            future = future.transformSync(n -> n + 1);
+        }
+
+        return future.get();
+    }
+
+    @Benchmark
+    public Integer lazyAsyncChain() throws Exception {
+        TransformableFuture<Integer> future = newLazyFuture(0);
+
+        for (int i = 0; i < depth; i++) {
+            future = future.transformAsync(n -> TransformableFuture.immediate(n + 1));
+        }
+
+        return future.get();
+    }
+
+    @Benchmark
+    public Integer completableAsyncChain() throws Exception {
+        TransformableFuture<Integer> future =
+                TransformableFuture.fromCompletionStage(CompletableFuture.completedFuture(0));
+
+        for (int i = 0; i < depth; i++) {
+            future = future.transformAsync(n -> TransformableFuture.immediate(n + 1));
+        }
+
+        return future.get();
+    }
+
+    @Benchmark
+    public Integer completableLazyAsyncChain() throws Exception {
+        TransformableFuture<Integer> future =
+                TransformableFuture.fromCompletionStage(CompletableFuture.completedFuture(0));
+
+        for (int i = 0; i < depth; i++) {
+            future = future.transformAsync(n -> newLazyFuture(n + 1));
+        }
+
+        return future.get();
+    }
+
+    /** A lazy future which completes itself with {@code result} the first time it is resolved. */
+    static LazyTransformableFuture<Integer> newLazyFuture(Integer result) {
+        AtomicReference<LazyTransformableFuture<Integer>> future = new AtomicReference<>();
+        future.set(new LazyTransformableFuture<>(() -> future.get().complete(result)));
+        return future.get();
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.esbtools.eventhandler;
+
+import java.time.Duration;
+
+/**
+ * Decides how many items to retrieve per batch, using additive increase and multiplicative
+ * decrease (AIMD) based on how long batches take to process.
+ *
+ * <ul>
+ *     <li>If a full batch was processed within the target processing time, the batch size grows
+ *     by a fixed increment, up to a maximum.</li>
+ *     <li>If a batch took longer than the target, or any of its items' transactions expired
+ *     before they could be processed, the batch size is halved, down to a minimum.</li>
+ *     <li>Otherwise, there was not enough work to tell whether a bigger batch would be processed
+ *     in time, so the batch size is unchanged.</li>
+ * </ul>
+ *
+ * <p>The target should leave plenty of room before a batch's transactions would expire; for
+ * example, half of the repository's processing timeout. The {@link #current() current batch size}
+ * may be exported as a metric. Thread safe.
+ */
+public class AdaptiveBatchSize {
+    private final int minimum;
+    private final int maximum;
+    private final int increment;
+    private final Duration targetProcessingTime;
+
+    private int current;
+
+    /**
+     * @param minimum The initial, and smallest, batch size.
+     * @param maximum The largest batch size.
+     * @param increment How much to grow the batch size by after each full batch processed in time.
+     * @param targetProcessingTime How long processing a batch should take at most.
+     */
+    public AdaptiveBatchSize(int minimum, int maximum, int increment,
+            Duration targetProcessingTime) {
+        if (minimum < 1) {
+            throw new IllegalArgumentException("Minimum batch size must be positive but was: " +
+                    minimum);
+        }
+
+        if (maximum < minimum) {
+            throw new IllegalArgumentException("Maximum batch size must not be less than " +
+                    "minimum (" + minimum + ") but was: " + maximum);
+        }
+
+        if (increment < 1) {
+            throw new IllegalArgumentException("Batch size increment must be positive but was: " +
+                    increment);
+        }
+
+        this.minimum = minimum;
+        this.maximum = maximum;
+        this.increment = increment;
+        this.targetProcessingTime = targetProcessingTime;
+        this.current = minimum;
+    }
+
+    public synchronized int current() {
+        return current;
+    }
+
+    /**
+     * Adjusts the batch size based on a batch which finished processing.
+     *
+     * @param requested The batch size used to retrieve the batch.
+     * @param retrieved How many items were actually retrieved.
+     * @param processingTime How long the batch took from retrieval until it was done processing.
+     * @param anyExpired Whether any items' transactions expired before they could be processed.
+     */
+    public synchronized void processed(int requested, int retrieved, Duration processingTime,
+            boolean anyExpired) {
+        if (anyExpired || processingTime.compareTo(targetProcessingTime) > 0) {
+            current = Math.max(minimum, current / 2);
+        } else if (retrieved >= requested) {
+            current = (int) Math.min(maximum, (long) current + increment);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptiveBatchSize{" +
+                "minimum=" + minimum +
+                ", maximum=" + maximum +
+                ", increment=" + increment +
+                ", targetProcessingTime=" + targetProcessingTime +
+                ", current=" + current() +
+                '}';
+    }
+}
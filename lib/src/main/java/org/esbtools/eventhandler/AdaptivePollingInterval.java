@@ -0,0 +1,116 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.esbtools.eventhandler;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Decides how long to wait between polls based on how much the last poll retrieved.
+ *
+ * <ul>
+ *     <li>If the last poll was full, there is probably more work waiting, so poll again
+ *     immediately.</li>
+ *     <li>If the last poll was empty, double the interval, up to a maximum.</li>
+ *     <li>Otherwise, reset the interval to the minimum.</li>
+ * </ul>
+ *
+ * <p>Meant to be checked from a route polling at the minimum interval, which skips polls which are
+ * not yet {@link #isDue() due}. The {@link #current() current interval} may be exported as a
+ * metric. Thread safe.
+ */
+public class AdaptivePollingInterval {
+    private final Duration minimum;
+    private final Duration maximum;
+    private final Clock clock;
+
+    private Duration current;
+    private Instant nextPoll;
+
+    public AdaptivePollingInterval(Duration minimum, Duration maximum) {
+        this(minimum, maximum, Clock.systemUTC());
+    }
+
+    AdaptivePollingInterval(Duration minimum, Duration maximum, Clock clock) {
+        if (minimum.isNegative() || minimum.isZero()) {
+            throw new IllegalArgumentException("Minimum polling interval must be positive but " +
+                    "was: " + minimum);
+        }
+
+        if (maximum.compareTo(minimum) < 0) {
+            throw new IllegalArgumentException("Maximum polling interval must not be less than " +
+                    "minimum (" + minimum + ") but was: " + maximum);
+        }
+
+        this.minimum = minimum;
+        this.maximum = maximum;
+        this.clock = clock;
+        this.current = minimum;
+        this.nextPoll = clock.instant();
+    }
+
+    public Duration minimum() {
+        return minimum;
+    }
+
+    public Duration maximum() {
+        return maximum;
+    }
+
+    /**
+     * The time to wait after the last poll before polling again. Zero if the last poll was full.
+     */
+    public synchronized Duration current() {
+        return current;
+    }
+
+    public synchronized boolean isDue() {
+        return !clock.instant().isBefore(nextPoll);
+    }
+
+    /**
+     * Adjusts the interval based on the result of a poll which just finished.
+     *
+     * @param retrieved How many items the poll retrieved.
+     * @param maxRetrievable How many items the poll could have retrieved at most.
+     */
+    public synchronized void polled(int retrieved, int maxRetrievable) {
+        if (retrieved >= maxRetrievable) {
+            current = Duration.ZERO;
+        } else if (retrieved == 0) {
+            Duration doubled = current.multipliedBy(2);
+            current = doubled.compareTo(minimum) < 0
+                    ? minimum
+                    : doubled.compareTo(maximum) > 0 ? maximum : doubled;
+        } else {
+            current = minimum;
+        }
+
+        nextPoll = clock.instant().plus(current);
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptivePollingInterval{" +
+                "minimum=" + minimum +
+                ", maximum=" + maximum +
+                ", current=" + current() +
+                '}';
+    }
+}
@@ -18,7 +18,15 @@
 
 package org.esbtools.eventhandler;
 
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.apache.camel.AsyncCallback;
+import org.apache.camel.AsyncProcessor;
+import org.apache.camel.Exchange;
+import org.apache.camel.ThreadPoolRejectedPolicy;
 import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.builder.ThreadPoolProfileBuilder;
+import org.apache.camel.util.AsyncProcessorHelper;
 
 import java.time.Duration;
 import java.util.ArrayList;
@@ -26,10 +34,16 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class AsyncBatchMessageProcessorRoute extends RouteBuilder {
@@ -37,104 +51,338 @@ public class AsyncBatchMessageProcessorRoute extends RouteBuilder {
     private final String failureUri;
     private final Duration processTimeout;
     private final MessageFactory messageFactory;
+    private final boolean nonBlocking;
 
     private final int idCount = idCounter.getAndIncrement();
     private final String routeId = "messageProcessor-" + idCount;
 
     private static final AtomicInteger idCounter = new AtomicInteger(0);
 
+    /**
+     * Bounds the threads which wait on lazy or blocking futures of non-blocking batches. Once
+     * every waiter is busy and its queue is full, the waiting is done by the calling thread
+     * instead.
+     */
+    private static final int MAX_BLOCKING_WAITERS = 10;
+    private static final int MAX_QUEUED_BLOCKING_WAITS = 1000;
+
     /**
      * @param fromUri Endpoint to consume from, expected to create exchanges with bodies instances
      *                of {@link Collection}. The elements of this collection will be provided to
      *                {@code messageFactory} to parse them into {@link Message}s.
      * @param failureUri Endpoint where failures will be sent to as a {@code Collection} of
      *                   {@link FailedMessage}s.
-     * @param processTimeout How to long to wait for a message process before timing out?
+     * @param processTimeout How long to wait for each message in turn to process before timing
+     *                       it out.
      * @param messageFactory Accepts each element in the exchange body {@code Collection} and
      *                       parses them to create message implementations which will be processed.
      */
     public AsyncBatchMessageProcessorRoute(String fromUri, String failureUri,
             Duration processTimeout, MessageFactory messageFactory) {
+        this(fromUri, failureUri, processTimeout, messageFactory, false);
+    }
+
+    /**
+     * @param processTimeout If {@code nonBlocking}, how long to wait for the whole batch to
+     *                       process before timing out any messages which are not yet done.
+     *                       Otherwise, how long to wait for each message in turn.
+     * @param nonBlocking If true, the consuming thread is not blocked while messages process.
+     *                    Instead, the exchange continues asynchronously as soon as every message
+     *                    is done or the batch times out. This relies on messages' futures being
+     *                    {@link TransformableFuture}s or {@link ListenableFuture}s; others are
+     *                    waited on from a separate thread.
+     * @see #AsyncBatchMessageProcessorRoute(String, String, Duration, MessageFactory)
+     */
+    public AsyncBatchMessageProcessorRoute(String fromUri, String failureUri,
+            Duration processTimeout, MessageFactory messageFactory, boolean nonBlocking) {
         this.fromUri = Objects.requireNonNull(fromUri, "fromUri");
         this.failureUri = Objects.requireNonNull(failureUri, "failureUri");
         this.processTimeout = Objects.requireNonNull(processTimeout, "processTimeout");
         this.messageFactory = Objects.requireNonNull(messageFactory, "messageFactory");
+        this.nonBlocking = nonBlocking;
     }
 
     @Override
     public void configure() throws Exception {
+        if (nonBlocking) {
+            ScheduledExecutorService timeoutScheduler = getContext().getExecutorServiceManager()
+                    .newSingleThreadScheduledExecutor(this, routeId + "-timeouts");
+            ExecutorService blockingWaiters = getContext().getExecutorServiceManager()
+                    .newThreadPool(this, routeId + "-waiters",
+                            new ThreadPoolProfileBuilder(routeId + "-waiters")
+                                    .poolSize(MAX_BLOCKING_WAITERS)
+                                    .maxPoolSize(MAX_BLOCKING_WAITERS)
+                                    .maxQueueSize(MAX_QUEUED_BLOCKING_WAITS)
+                                    .allowCoreThreadTimeOut(true)
+                                    .rejectedPolicy(ThreadPoolRejectedPolicy.Abort)
+                                    .build());
+
+            from(fromUri)
+            .routeId(routeId)
+            .process(new NonBlockingBatchProcessor(timeoutScheduler, blockingWaiters))
+            .to(failureUri);
+            return;
+        }
+
         from(fromUri)
         .routeId(routeId)
         .process(exchange -> {
-            Object exchangeBody = exchange.getIn().getBody();
-
-            if (!(exchangeBody instanceof Collection)) {
-                throw new IllegalArgumentException("Expected `fromUri` to deliver exchanges with " +
-                        "Collection bodies so that we may batch process for efficiency. However, " +
-                        "the uri '" + fromUri + "' returned " +
-                        ((exchangeBody == null)
-                                ? "null."
-                                : "the " + exchangeBody.getClass().getName() + ": " + exchangeBody));
+            Batch batch = startProcessing(exchange);
+
+            // Wait for processing to complete.
+            for (ProcessingMessage processingMsg : batch.processingMessages) {
+                try {
+                    processingMsg.future.get(processTimeout.toMillis(), TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    // Stop waiting; messages which are not yet done are failed as timed out.
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (ExecutionException | CancellationException | TimeoutException e) {
+                    // Outcome is examined when the batch finishes.
+                }
+            }
+
+            batch.finish(exchange);
+        })
+        .to(failureUri);
+    }
+
+    /**
+     * Parses the messages in the exchange body and starts processing all of them in parallel.
+     */
+    private Batch startProcessing(Exchange exchange) {
+        Object exchangeBody = exchange.getIn().getBody();
+
+        if (!(exchangeBody instanceof Collection)) {
+            throw new IllegalArgumentException("Expected `fromUri` to deliver exchanges with " +
+                    "Collection bodies so that we may batch process for efficiency. However, " +
+                    "the uri '" + fromUri + "' returned " +
+                    ((exchangeBody == null)
+                            ? "null."
+                            : "the " + exchangeBody.getClass().getName() + ": " + exchangeBody));
+        }
+
+        Collection originalMessages = (Collection) exchangeBody;
+
+        List<ProcessingMessage> processingMessages = new ArrayList<>(originalMessages.size());
+        List<FailedMessage> failures = new ArrayList<>();
+
+        log.debug("Received {} messages on route {}: {}",
+                originalMessages.size(), routeId, originalMessages);
+
+        // Start processing all of the messages in the batch in parallel.
+        for (Object originalMessage : originalMessages) {
+            final Message message;
+
+            try {
+                message = messageFactory.getMessageForBody(originalMessage);
+            } catch (Exception e) {
+                log.error("Failure parsing message. Body was: " + originalMessage, e);
+                failures.add(new FailedMessage(originalMessage, e));
+                continue;
             }
 
-            Collection originalMessages = (Collection) exchangeBody;
+            final Future<Void> processingFuture;
 
-            List<ProcessingMessage> processingMessages = new ArrayList<>(originalMessages.size());
-            List<FailedMessage> failures = new ArrayList<>();
+            try {
+                processingFuture = message.process();
+            } catch (Exception e) {
+                log.error("Failed to process message: " + message, e);
+                FailedMessage failure = new FailedMessage(originalMessage, message, e);
+                failures.add(failure);
+                continue;
+            }
 
-            log.debug("Received {} messages on route {}: {}",
-                    originalMessages.size(), routeId, originalMessages);
+            ProcessingMessage processing = new ProcessingMessage(
+                    originalMessage, message, processingFuture);
+            processingMessages.add(processing);
+        }
 
-            // Start processing all of the messages in the batch in parallel.
-            for (Object originalMessage : originalMessages) {
-                final Message message;
+        return new Batch(originalMessages, processingMessages, failures);
+    }
 
-                try {
-                    message = messageFactory.getMessageForBody(originalMessage);
-                } catch (Exception e) {
-                    log.error("Failure parsing message. Body was: " + originalMessage, e);
-                    failures.add(new FailedMessage(originalMessage, e));
-                    continue;
+    /**
+     * Continues the exchange once every message in its batch is done processing, or the batch
+     * times out, without blocking the consuming thread in the meantime.
+     *
+     * <p>{@link TransformableFuture}s may only complete once something waits on them, like those
+     * from a {@link Requester}, so they are waited on together from a separate thread, as are
+     * futures which can't notify their completion. If the batch times out, the exchange continues
+     * on that separate thread pool too, rather than on the shared timeout scheduler.
+     */
+    private class NonBlockingBatchProcessor implements AsyncProcessor {
+        private final ScheduledExecutorService timeoutScheduler;
+        private final ExecutorService blockingWaiters;
+
+        NonBlockingBatchProcessor(ScheduledExecutorService timeoutScheduler,
+                ExecutorService blockingWaiters) {
+            this.timeoutScheduler = timeoutScheduler;
+            this.blockingWaiters = blockingWaiters;
+        }
+
+        @Override
+        public void process(Exchange exchange) throws Exception {
+            AsyncProcessorHelper.process(this, exchange);
+        }
+
+        @Override
+        public boolean process(Exchange exchange, AsyncCallback callback) {
+            Batch batch;
+
+            try {
+                batch = startProcessing(exchange);
+            } catch (Exception e) {
+                exchange.setException(e);
+                callback.done(true);
+                return true;
+            }
+
+            if (batch.processingMessages.isEmpty()) {
+                batch.finish(exchange);
+                callback.done(true);
+                return true;
+            }
+
+            AtomicInteger remaining = new AtomicInteger(batch.processingMessages.size());
+            AtomicBoolean finished = new AtomicBoolean(false);
+            long deadlineNanos = System.nanoTime() + processTimeout.toNanos();
+            List<Future<Void>> lazyFutures = new ArrayList<>(0);
+            List<ProcessingMessage> blockingMessages = new ArrayList<>(0);
+
+            ScheduledFuture<?> timeout = timeoutScheduler.schedule(() -> {
+                if (finished.compareAndSet(false, true)) {
+                    // Keep the scheduler free for other batches' timeouts.
+                    executeOrRun(() -> {
+                        batch.finish(exchange);
+                        callback.done(false);
+                    });
                 }
+            }, processTimeout.toNanos(), TimeUnit.NANOSECONDS);
 
-                final Future<Void> processingFuture;
+            Runnable onMessageDone = () -> {
+                if (remaining.decrementAndGet() == 0 && finished.compareAndSet(false, true)) {
+                    timeout.cancel(false);
+                    batch.finish(exchange);
+                    callback.done(false);
+                }
+            };
 
-                try {
-                    processingFuture = message.process();
-                } catch (Exception e) {
-                    log.error("Failed to process message: " + message, e);
-                    FailedMessage failure = new FailedMessage(originalMessage, message, e);
-                    failures.add(failure);
-                    continue;
+            for (ProcessingMessage processingMsg : batch.processingMessages) {
+                Future<Void> future = processingMsg.future;
+
+                if (future instanceof TransformableFuture) {
+                    ((TransformableFuture<Void>) future).whenDoneOrCancelled(onMessageDone::run);
+
+                    if (!future.isDone()) {
+                        lazyFutures.add(future);
+                    }
+                } else if (future instanceof ListenableFuture) {
+                    ((ListenableFuture<Void>) future)
+                            .addListener(onMessageDone, MoreExecutors.directExecutor());
+                } else if (future.isDone()) {
+                    onMessageDone.run();
+                } else {
+                    blockingMessages.add(processingMsg);
                 }
+            }
+
+            if (!lazyFutures.isEmpty()) {
+                executeOrRun(() -> {
+                    try {
+                        TransformableFuture.successfulAsList(lazyFutures)
+                                .get(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (ExecutionException | TimeoutException ignored) {
+                        // Outcomes are examined when the batch finishes.
+                    }
+                });
+            }
+
+            if (!blockingMessages.isEmpty()) {
+                executeOrRun(() -> {
+                    for (ProcessingMessage processingMsg : blockingMessages) {
+                        long remainingNanos = deadlineNanos - System.nanoTime();
+
+                        try {
+                            processingMsg.future.get(remainingNanos, TimeUnit.NANOSECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        } catch (ExecutionException | CancellationException |
+                                TimeoutException ignored) {
+                            // Outcome is examined when the batch finishes.
+                        }
+
+                        onMessageDone.run();
+                    }
+                });
+            }
+
+            return false;
+        }
 
-                ProcessingMessage processing = new ProcessingMessage(
-                        originalMessage, message, processingFuture);
-                processingMessages.add(processing);
+        /**
+         * Runs the task on a waiter thread, or on this one if the waiters are saturated or shut
+         * down, so that the batch always finishes and its exchange always continues.
+         */
+        private void executeOrRun(Runnable task) {
+            try {
+                blockingWaiters.execute(task);
+            } catch (RejectedExecutionException e) {
+                task.run();
             }
+        }
+    }
 
+    /**
+     * The messages of one exchange, and the failures so far.
+     */
+    private class Batch {
+        final Collection originalMessages;
+        final List<ProcessingMessage> processingMessages;
+        final List<FailedMessage> failures;
+
+        Batch(Collection originalMessages, List<ProcessingMessage> processingMessages,
+                List<FailedMessage> failures) {
+            this.originalMessages = originalMessages;
+            this.processingMessages = processingMessages;
+            this.failures = failures;
+        }
+
+        /**
+         * Collects the outcome of each message, failing those which are not yet done, and sets the
+         * failures as the exchange body. Does not block.
+         */
+        void finish(Exchange exchange) {
             List<Message> processedSuccessfully = log.isDebugEnabled()
                     ? new ArrayList<>(processingMessages.size())
                     : Collections.emptyList();
 
-            // Wait for processing to complete.
             for (ProcessingMessage processingMsg : processingMessages) {
+                if (!processingMsg.future.isDone()) {
+                    TimeoutException e = new TimeoutException("Message did not finish " +
+                            "processing within " + processTimeout);
+                    log.warn("Timed out processing message: " + processingMsg.parsedMessage, e);
+                    failures.add(new FailedMessage(
+                            processingMsg.originalMessage, processingMsg.parsedMessage, e));
+                    continue;
+                }
+
                 try {
-                    processingMsg.future.get(processTimeout.toMillis(), TimeUnit.MILLISECONDS);
+                    processingMsg.future.get();
 
                     if (log.isDebugEnabled()) {
                         processedSuccessfully.add(processingMsg.parsedMessage);
                     }
                 } catch (ExecutionException e) {
                     log.error("Failed to process message: " + processingMsg.parsedMessage, e);
-                    FailedMessage failure = new FailedMessage(processingMsg.originalMessage,
-                            processingMsg.parsedMessage, e.getCause());
-                    failures.add(failure);
-                } catch (InterruptedException | TimeoutException e) {
-                    log.warn("Timed out processing message: " + processingMsg.parsedMessage, e);
-                    FailedMessage failure = new FailedMessage(
-                            processingMsg.originalMessage, processingMsg.parsedMessage, e);
-                    failures.add(failure);
+                    failures.add(new FailedMessage(processingMsg.originalMessage,
+                            processingMsg.parsedMessage, e.getCause()));
+                } catch (InterruptedException | CancellationException e) {
+                    log.error("Failed to process message: " + processingMsg.parsedMessage, e);
+                    failures.add(new FailedMessage(processingMsg.originalMessage,
+                            processingMsg.parsedMessage, e));
                 }
             }
 
@@ -144,8 +392,7 @@ public class AsyncBatchMessageProcessorRoute extends RouteBuilder {
 
             // Deal with failures...
             exchange.getIn().setBody(failures);
-        })
-        .to(failureUri);
+        }
     }
 
     /**
@@ -0,0 +1,262 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Implementations of the combinators on {@link TransformableFuture}, like
+ * {@link TransformableFuture#allOf(Collection)}.
+ *
+ * <p>Each combined future is a {@link CompletableTransformableFuture} which tracks the completion
+ * of its members with callbacks, so it completes as soon as its outcome is known, regardless of
+ * the order members complete in. Members which may not complete on their own, like lazy futures
+ * from a {@link Requester}, are resolved in order by the combined future's {@code get()}. Any
+ * {@code TransformableFuture} may be lazy, so they are all resolved this way, while
+ * {@link ListenableFuture}s are trusted to complete on their own. Members which can't notify their
+ * completion, that is neither, are only known to complete once they are resolved this way.
+ * {@link #inCompletionOrder(Collection, Executor)} may instead resolve them concurrently on an
+ * executor.
+ */
+final class CombinedTransformableFutures {
+    private CombinedTransformableFutures() {}
+
+    static <T> TransformableFuture<List<T>> allOf(
+            Collection<? extends Future<? extends T>> futures) {
+        return combine(futures, (results, combined) -> new Combiner<T>() {
+            @Override
+            void succeeded(int index, T result) {
+                results[index] = result;
+            }
+
+            @Override
+            void failed(Throwable failure) {
+                combined.completeExceptionally(failure);
+            }
+
+            @Override
+            void allDone() {
+                combined.complete(Collections.unmodifiableList(Arrays.asList(results)));
+            }
+        });
+    }
+
+    static <T> TransformableFuture<List<T>> successfulAsList(
+            Collection<? extends Future<? extends T>> futures) {
+        return combine(futures, (results, combined) -> new Combiner<T>() {
+            @Override
+            void succeeded(int index, T result) {
+                results[index] = result;
+            }
+
+            @Override
+            void failed(Throwable failure) {}
+
+            @Override
+            void allDone() {
+                combined.complete(Collections.unmodifiableList(Arrays.asList(results)));
+            }
+        });
+    }
+
+    static TransformableFuture<Optional<Throwable>> firstFailure(
+            Collection<? extends Future<?>> futures) {
+        return combine(futures, (results, combined) -> new Combiner<Object>() {
+            @Override
+            void succeeded(int index, Object result) {}
+
+            @Override
+            void failed(Throwable failure) {
+                combined.complete(Optional.of(failure));
+            }
+
+            @Override
+            void allDone() {
+                combined.complete(Optional.empty());
+            }
+        });
+    }
+
+    /**
+     * @param resolver If provided, resolves pending members concurrently instead of on
+     *                 {@code get()}.
+     */
+    static <F extends Future<?>> List<TransformableFuture<F>> inCompletionOrder(
+            Collection<F> futures, @Nullable Executor resolver) {
+        CompletableTransformableFuture.PendingFutures pendingFutures =
+                new CompletableTransformableFuture.PendingFutures();
+        List<CompletableFuture<F>> completions = new ArrayList<>(futures.size());
+        AtomicInteger nextCompletion = new AtomicInteger(0);
+
+        for (int i = 0; i < futures.size(); i++) {
+            completions.add(new CompletableFuture<>());
+        }
+
+        for (F future : futures) {
+            completionOf((Future<?>) future, pendingFutures, resolver)
+                    .whenComplete((result, failure) ->
+                            completions.get(nextCompletion.getAndIncrement()).complete(future));
+        }
+
+        List<TransformableFuture<F>> inCompletionOrder = new ArrayList<>(futures.size());
+
+        for (CompletableFuture<F> completion : completions) {
+            inCompletionOrder.add(new CompletableTransformableFuture<>(completion, pendingFutures));
+        }
+
+        return inCompletionOrder;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T, R> TransformableFuture<R> combine(
+            Collection<? extends Future<? extends T>> futures,
+            CombinerFactory<T, R> combinerFactory) {
+        CompletableFuture<R> combined = new CompletableFuture<>();
+        CompletableTransformableFuture.PendingFutures pendingFutures =
+                new CompletableTransformableFuture.PendingFutures();
+        T[] results = (T[]) new Object[futures.size()];
+        Combiner<T> combiner = combinerFactory.newCombiner(results, combined);
+        AtomicInteger remaining = new AtomicInteger(futures.size());
+
+        if (futures.isEmpty()) {
+            combiner.allDone();
+        }
+
+        // Results are indexed by position, so fix the iteration order once.
+        List<Future<? extends T>> members = new ArrayList<>(futures);
+
+        for (int i = 0; i < members.size(); i++) {
+            int index = i;
+
+            completionOf(members.get(i), pendingFutures, null).whenComplete((result, failure) -> {
+                if (failure == null) {
+                    combiner.succeeded(index, result);
+                } else {
+                    combiner.failed(unwrap(failure));
+                }
+
+                // Decrementing publishes the result to whoever sees the last decrement.
+                if (remaining.decrementAndGet() == 0) {
+                    combiner.allDone();
+                }
+            });
+        }
+
+        return new CompletableTransformableFuture<>(combined, pendingFutures);
+    }
+
+    /**
+     * A {@code CompletableFuture} which completes with {@code future}. If {@code future} may need
+     * resolving, it is resolved by a task on {@code resolver} if provided and accepted, or else
+     * remembered in {@code pendingFutures}.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> CompletableFuture<T> completionOf(Future<T> future,
+            CompletableTransformableFuture.PendingFutures pendingFutures,
+            @Nullable Executor resolver) {
+        if (resolver != null && !future.isDone() && !(future instanceof ListenableFuture)) {
+            CompletableFuture<T> completion = future instanceof TransformableFuture
+                    ? ((TransformableFuture<T>) future).toCompletableFuture()
+                    : new CompletableFuture<>();
+
+            try {
+                resolver.execute(() -> completeWith(future, completion));
+                return completion;
+            } catch (RejectedExecutionException e) {
+                // Resolve it on get() instead.
+            }
+        }
+
+        if (future instanceof TransformableFuture) {
+            if (!future.isDone()) {
+                pendingFutures.add(future);
+            }
+
+            return ((TransformableFuture<T>) future).toCompletableFuture();
+        }
+
+        CompletableFuture<T> completion = new CompletableFuture<>();
+
+        if (future instanceof ListenableFuture) {
+            // Listenable futures complete on their own, so needn't be resolved, and waiting on one
+            // would hold up others which complete sooner.
+            ((ListenableFuture<T>) future).addListener(
+                    () -> completeWith(future, completion), MoreExecutors.directExecutor());
+        } else if (future.isDone()) {
+            completeWith(future, completion);
+        } else {
+            pendingFutures.add(future, () -> completeWith(future, completion));
+        }
+
+        return completion;
+    }
+
+    /** Completes {@code completion} with the outcome of {@code future}, which must be done. */
+    private static <T> void completeWith(Future<T> future, CompletableFuture<T> completion) {
+        try {
+            completion.complete(future.get());
+        } catch (CancellationException e) {
+            completion.cancel(false);
+        } catch (ExecutionException e) {
+            completion.completeExceptionally(e.getCause() == null ? e : e.getCause());
+        } catch (InterruptedException e) {
+            // Not expected since the future is done, but don't lose the interrupt.
+            Thread.currentThread().interrupt();
+            completion.completeExceptionally(e);
+        }
+    }
+
+    private static Throwable unwrap(Throwable failure) {
+        if (failure instanceof CompletionException && failure.getCause() != null) {
+            return failure.getCause();
+        }
+
+        return failure;
+    }
+
+    /** Decides how a combined future reacts to its members' outcomes. */
+    private static abstract class Combiner<T> {
+        abstract void succeeded(int index, T result);
+
+        abstract void failed(Throwable failure);
+
+        abstract void allDone();
+    }
+
+    private interface CombinerFactory<T, R> {
+        Combiner<T> newCombiner(T[] results, CompletableFuture<R> combined);
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Deque;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A {@link TransformableFuture} backed by a {@link CompletableFuture}. See
+ * {@link TransformableFuture#fromCompletionStage(CompletionStage)}.
+ *
+ * <p>Unlike {@link NestedTransformableFuture}, asynchronous transforms are flattened in place
+ * rather than wrapped: each transform is composed directly onto the backing
+ * {@code CompletableFuture}. However deep a chain gets, resolving it is a single {@code get()}, and
+ * a done callback is registered once, rather than once per level.
+ *
+ * <p>Transforms may return any {@code TransformableFuture}, including lazy ones which are only
+ * completed once something calls {@code get()} on them, like those from a {@link Requester}. The
+ * chain remembers such futures while they are pending, and {@link #get()} resolves them in the
+ * order they were returned, so lazy requests are still batched as they would be otherwise.
+ */
+final class CompletableTransformableFuture<T> implements TransformableFuture<T> {
+    private final CompletableFuture<T> future;
+
+    /** Shared by every future derived from the same original stage. */
+    private final PendingFutures pendingFutures;
+
+    private static final Logger log = LoggerFactory.getLogger(CompletableTransformableFuture.class);
+
+    CompletableTransformableFuture(CompletionStage<T> stage) {
+        this(stage.toCompletableFuture(), new PendingFutures());
+    }
+
+    CompletableTransformableFuture(CompletableFuture<T> future,
+            PendingFutures pendingFutures) {
+        this.future = future;
+        this.pendingFutures = pendingFutures;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return future.cancel(mayInterruptIfRunning);
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return future.isCancelled();
+    }
+
+    @Override
+    public boolean isDone() {
+        return future.isDone();
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        pendingFutures.resolveUntilDone(future);
+        return future.get();
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
+            TimeoutException {
+        long deadlineNanos = System.nanoTime() + unit.toNanos(timeout);
+        pendingFutures.resolveUntilDone(future, deadlineNanos);
+        return future.get(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public <U> TransformableFuture<U> transformSync(FutureTransform<T, U> futureTransform) {
+        return new CompletableTransformableFuture<>(future.thenApply(result -> {
+            try {
+                return futureTransform.transform(result);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }), pendingFutures);
+    }
+
+    @Override
+    public <U> TransformableFuture<U> transformAsync(
+            FutureTransform<T, TransformableFuture<U>> futureTransform) {
+        return new CompletableTransformableFuture<>(future.thenCompose(result -> {
+            try {
+                return stageOf(futureTransform.transform(result));
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }), pendingFutures);
+    }
+
+    @Override
+    public TransformableFuture<Void> transformAsyncIgnoringReturn(
+            FutureTransform<T, TransformableFuture<?>> futureTransform) {
+        return new CompletableTransformableFuture<>(future.thenCompose(result -> {
+            try {
+                return stageOf(futureTransform.transform(result)).thenApply(ignored -> null);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }), pendingFutures);
+    }
+
+    @Override
+    public TransformableFuture<T> whenDoneOrCancelled(FutureDoneCallback callback) {
+        future.whenComplete((result, exception) -> {
+            try {
+                callback.onDoneOrCancelled();
+            } catch (Exception e) {
+                log.warn("Exception caught and ignored while running future done callback.", e);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * The backing {@code CompletableFuture} itself. Pending lazy futures returned from transforms
+     * are not resolved by it; only {@link #get()} does that.
+     */
+    @Override
+    public CompletableFuture<T> toCompletableFuture() {
+        return future;
+    }
+
+    /**
+     * Flattens a future returned from a transform into a stage which can be composed onto ours,
+     * remembering it if it may need resolving.
+     */
+    private <U> CompletableFuture<U> stageOf(TransformableFuture<U> next) {
+        if (next == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        if (!next.isDone()) {
+            pendingFutures.add(next);
+        }
+
+        return next.toCompletableFuture();
+    }
+
+    /**
+     * Futures which were not done when they became part of a chain, in the order they were added.
+     * These are resolved on {@code get()}, so that lazy futures complete.
+     */
+    static final class PendingFutures {
+        private final Deque<Pending> futures = new ConcurrentLinkedDeque<>();
+
+        void add(Future<?> future) {
+            add(future, () -> {});
+        }
+
+        /**
+         * @param onResolved Called once {@code future} is resolved by {@code get()}, successfully
+         *                   or not. Use for futures which cannot otherwise notify their
+         *                   completion.
+         */
+        void add(Future<?> future, Runnable onResolved) {
+            futures.addLast(new Pending(future, onResolved));
+        }
+
+        void resolveUntilDone(Future<?> target) throws InterruptedException {
+            Pending next;
+
+            while (!target.isDone() && (next = futures.pollFirst()) != null) {
+                try {
+                    next.future.get();
+                } catch (ExecutionException | CancellationException e) {
+                    // Failures propagate to the target through composition.
+                }
+
+                next.onResolved.run();
+            }
+        }
+
+        void resolveUntilDone(Future<?> target, long deadlineNanos)
+                throws InterruptedException, TimeoutException {
+            Pending next;
+
+            while (!target.isDone() && (next = futures.pollFirst()) != null) {
+                try {
+                    next.future.get(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+                } catch (TimeoutException e) {
+                    // Leave it for the next caller to resolve.
+                    futures.addFirst(next);
+                    throw e;
+                } catch (ExecutionException | CancellationException e) {
+                    // Failures propagate to the target through composition.
+                }
+
+                next.onResolved.run();
+            }
+        }
+
+        private static final class Pending {
+            final Future<?> future;
+            final Runnable onResolved;
+
+            Pending(Future<?> future, Runnable onResolved) {
+                this.future = future;
+                this.onResolved = onResolved;
+            }
+        }
+    }
+}
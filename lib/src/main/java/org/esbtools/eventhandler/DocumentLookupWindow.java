@@ -0,0 +1,195 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import javax.annotation.Nullable;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+/**
+ * Decides how many documents of a batch to look up at once, so that only a window of a batch's
+ * documents is held in memory at a time, rather than all of them.
+ *
+ * <p>A window is at most a maximum number of lookups. If a byte budget is provided, windows are
+ * further limited to however many documents are expected to fit in the budget, estimated from the
+ * average size of the documents in the previous window. The first window is only limited by
+ * count, since nothing is known about document sizes yet.
+ *
+ * <p>By default, a window's documents are published once they have all been looked up. A window
+ * may instead publish {@link #inCompletionOrder() in completion order}: each document is published
+ * as soon as its own lookup completes, so one slow lookup does not hold up the rest of the window.
+ * Lookups which only complete once something waits on them, like those from a {@link Requester},
+ * are then each waited on by a separate thread of a lookup executor. Either provide one, or the
+ * window uses its own pool of up to {@code maxLookups} daemon threads, which are reclaimed when
+ * idle.
+ *
+ * <p>The {@link #current() current window size} may be exported as a metric. Thread safe.
+ */
+public class DocumentLookupWindow {
+    private final int maxLookups;
+    private final long maxBytes;
+    private final ToLongFunction<Object> documentBytes;
+    private final boolean inCompletionOrder;
+    @Nullable
+    private final Executor lookupExecutor;
+
+    private int current;
+
+    /**
+     * @param maxLookups The most documents to look up, and hold in memory, at once.
+     */
+    public DocumentLookupWindow(int maxLookups) {
+        this(maxLookups, false);
+    }
+
+    /**
+     * @param maxLookups The most documents to look up, and hold in memory, at once.
+     * @param inCompletionOrder Whether to publish each document as soon as it is looked up.
+     */
+    public DocumentLookupWindow(int maxLookups, boolean inCompletionOrder) {
+        this(maxLookups, Long.MAX_VALUE, document -> 0, inCompletionOrder);
+    }
+
+    /**
+     * @param maxLookups The most documents to look up, and hold in memory, at once.
+     * @param maxBytes Roughly how many bytes of documents to hold in memory at once.
+     * @param documentBytes Estimates the size of a document in bytes. Documents are
+     *                      implementation specific, so this must understand whatever documents
+     *                      the route's events look up.
+     */
+    public DocumentLookupWindow(int maxLookups, long maxBytes,
+            ToLongFunction<Object> documentBytes) {
+        this(maxLookups, maxBytes, documentBytes, false);
+    }
+
+    /**
+     * @param inCompletionOrder Whether to publish each document as soon as it is looked up.
+     * @see #DocumentLookupWindow(int, long, ToLongFunction)
+     */
+    public DocumentLookupWindow(int maxLookups, long maxBytes,
+            ToLongFunction<Object> documentBytes, boolean inCompletionOrder) {
+        this(maxLookups, maxBytes, documentBytes, inCompletionOrder,
+                inCompletionOrder ? newLookupExecutor(maxLookups) : null);
+    }
+
+    /**
+     * Publishes documents in completion order, waiting on lookups with the provided executor.
+     *
+     * @param lookupExecutor Waits on each lookup which may not complete on its own. Tasks block
+     *                       until their lookup completes, so this should allow about
+     *                       {@code maxLookups} tasks at once. The window does not own this
+     *                       executor.
+     * @see #DocumentLookupWindow(int, long, ToLongFunction)
+     */
+    public DocumentLookupWindow(int maxLookups, long maxBytes,
+            ToLongFunction<Object> documentBytes, Executor lookupExecutor) {
+        this(maxLookups, maxBytes, documentBytes, true,
+                Objects.requireNonNull(lookupExecutor, "lookupExecutor"));
+    }
+
+    private DocumentLookupWindow(int maxLookups, long maxBytes,
+            ToLongFunction<Object> documentBytes, boolean inCompletionOrder,
+            @Nullable Executor lookupExecutor) {
+        if (maxLookups < 1) {
+            throw new IllegalArgumentException("maxLookups must be positive but was: " +
+                    maxLookups);
+        }
+
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("maxBytes must be positive but was: " + maxBytes);
+        }
+
+        this.maxLookups = maxLookups;
+        this.maxBytes = maxBytes;
+        this.documentBytes = Objects.requireNonNull(documentBytes, "documentBytes");
+        this.inCompletionOrder = inCompletionOrder;
+        this.lookupExecutor = lookupExecutor;
+        this.current = maxLookups;
+    }
+
+    private static Executor newLookupExecutor(int maxLookups) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxLookups, maxLookups,
+                1, TimeUnit.MINUTES, new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("document-lookup-%d")
+                        .setDaemon(true)
+                        .build());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Whether each document is published as soon as its lookup completes, and its event's
+     * transaction is confirmed active, rather than once the whole window is looked up. Documents
+     * may then be published in a different order than their events were retrieved, including
+     * across priority tiers of {@link PrioritizedDocumentEvent}s, unless the route keeps
+     * {@link PollingDocumentEventProcessorRoute.Builder#lookupWindowsWithinPriorityTiers(boolean)
+     * windows within priority tiers}.
+     */
+    public boolean inCompletionOrder() {
+        return inCompletionOrder;
+    }
+
+    /**
+     * Waits on lookups which may not complete on their own, when publishing in completion order.
+     */
+    @Nullable
+    Executor lookupExecutor() {
+        return lookupExecutor;
+    }
+
+    public synchronized int current() {
+        return current;
+    }
+
+    long bytesOf(Object document) {
+        return document == null ? 0 : documentBytes.applyAsLong(document);
+    }
+
+    /**
+     * Adjusts the window size based on the documents of a window which were looked up.
+     *
+     * @param documents How many documents were successfully looked up.
+     * @param bytes The total estimated size of those documents.
+     */
+    synchronized void lookedUp(int documents, long bytes) {
+        if (documents == 0) {
+            return;
+        }
+
+        long averageBytes = Math.max(1, bytes / documents);
+        current = (int) Math.max(1, Math.min(maxLookups, maxBytes / averageBytes));
+    }
+
+    @Override
+    public String toString() {
+        return "DocumentLookupWindow{" +
+                "maxLookups=" + maxLookups +
+                ", maxBytes=" + maxBytes +
+                ", inCompletionOrder=" + inCompletionOrder +
+                ", current=" + current() +
+                '}';
+    }
+}
@@ -21,6 +21,7 @@ package org.esbtools.eventhandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -99,4 +100,9 @@ final class ImmediateTransformableFuture<T> implements TransformableFuture<T> {
 
         return this;
     }
+
+    @Override
+    public CompletableFuture<T> toCompletableFuture() {
+        return CompletableFuture.completedFuture(result);
+    }
 }
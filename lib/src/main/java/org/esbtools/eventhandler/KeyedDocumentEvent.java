@@ -0,0 +1,40 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler;
+
+/**
+ * An optional extension of {@link DocumentEvent} which lets optimizers avoid comparing events which
+ * could never be optimized together.
+ *
+ * <p>Without a key, an optimizer must check every event against every other event it knows of,
+ * which is quadratic. With a key, it need only check events which share a key.
+ */
+public interface KeyedDocumentEvent extends DocumentEvent {
+    /**
+     * A value, with appropriate {@code equals} and {@code hashCode} implementations, which is equal
+     * to another keyed event's optimization key whenever this event could be
+     * {@link #isSupersededBy(DocumentEvent) superseded by}, could supersede, or could
+     * {@link #couldMergeWith(DocumentEvent) merge with} that other event.
+     *
+     * <p>Events with different keys are assumed to never be superseded by or merged with each
+     * other. The {@link #merge(DocumentEvent) result of a merge} must have the same key as the
+     * events which were merged.
+     */
+    Object optimizationKey();
+}
@@ -19,120 +19,546 @@
 package org.esbtools.eventhandler;
 
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
 import com.google.common.util.concurrent.Futures;
+import org.apache.camel.Exchange;
 import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.model.RouteDefinition;
+import org.apache.camel.support.SynchronizationAdapter;
 
+import javax.annotation.Nullable;
 import java.time.Duration;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Deque;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Periodically retrieves a batch of document events, looks up their documents, and publishes them
+ * to a document endpoint, or sends them to a failure endpoint if their documents could not be
+ * looked up. Published events' statuses are updated in bulk; see {@link PublishedEvents}.
+ *
+ * <p>By default, each batch is published before the next is retrieved. If more than one batch is
+ * allowed in flight, publishing happens on a separate route, so the next batch may be retrieved and
+ * its documents looked up while the previous batch is still publishing. A new batch is only
+ * retrieved once fewer than the maximum number of batches are in flight, that is retrieved but not
+ * yet done publishing.
+ *
+ * <p>Batches are retrieved at a fixed polling interval, unless an {@link AdaptivePollingInterval}
+ * is provided. In that case, a full batch is followed immediately by another poll, and polls back
+ * off while there are no document events. Similarly, batch sizes are fixed unless an
+ * {@link AdaptiveBatchSize} is provided, in which case they adapt to how long batches take to
+ * publish.
+ *
+ * <p>Documents are published in the order their events were retrieved, which is priority order,
+ * followed by any failures.
+ *
+ * <p>By default, every document in a batch is looked up before any are published, and all of them
+ * are held in memory until the batch is done publishing. With a {@link DocumentLookupWindow}, only
+ * a window of documents is looked up and held at a time, bounding memory use for large batches of
+ * large documents.
+ *
+ * <p>These optional behaviors are configured with a {@link #builder(DocumentEventRepository,
+ * String, String) builder}.
+ */
 public class PollingDocumentEventProcessorRoute extends RouteBuilder {
     private final DocumentEventRepository documentEventRepository;
     private final Duration pollingInterval;
+    @Nullable
+    private final AdaptivePollingInterval adaptivePollingInterval;
     private final int batchSize;
+    @Nullable
+    private final AdaptiveBatchSize adaptiveBatchSize;
     private final String documentEndpoint;
     private final String failureEndpoint;
     private final String routeId;
+    private final int maxInFlightBatches;
+    private final Semaphore inFlightBatchPermits;
+    @Nullable
+    private final DocumentLookupWindow lookupWindow;
+    private final boolean lookupWindowsWithinPriorityTiers;
+    private final int maxPublishedEventsPerUpdate;
+    private final Duration maxPublishedEventAge;
+
+    /** Flushes published events which have waited too long; created when configured. */
+    private ScheduledExecutorService publishedEventsFlusher;
 
     private static final AtomicInteger idCounter = new AtomicInteger(1);
 
+    private static final String PUBLISHED_EVENTS = "publishedEvents";
+
     public PollingDocumentEventProcessorRoute(DocumentEventRepository documentEventRepository,
             Duration pollingInterval, int batchSize, String documentEndpoint,
             String failureEndpoint) {
-        this.documentEventRepository = documentEventRepository;
-        this.pollingInterval = pollingInterval;
-        this.batchSize = batchSize;
-        this.documentEndpoint = documentEndpoint;
-        this.failureEndpoint = failureEndpoint;
-        this.routeId = "documentEventProcessor-" + idCounter.getAndIncrement();
+        this(builder(documentEventRepository, documentEndpoint, failureEndpoint)
+                .pollingInterval(pollingInterval)
+                .batchSize(batchSize));
     }
 
     public PollingDocumentEventProcessorRoute(DocumentEventRepository documentEventRepository,
     		Duration pollingInterval, int batchSize, String documentEndpoint,
             String failureEndpoint, String routeId) {
-        this.documentEventRepository = documentEventRepository;
-        this.pollingInterval = pollingInterval;
-        this.batchSize = batchSize;
-        this.documentEndpoint = documentEndpoint;
-        this.failureEndpoint = failureEndpoint;
-        this.routeId = routeId;
-    }
-    
+        this(builder(documentEventRepository, documentEndpoint, failureEndpoint)
+                .pollingInterval(pollingInterval)
+                .batchSize(batchSize)
+                .routeId(routeId));
+    }
+
+    private PollingDocumentEventProcessorRoute(Builder builder) {
+        if (builder.pollingInterval == null) {
+            throw new IllegalStateException("pollingInterval is required");
+        }
+
+        if (builder.batchSize < 1) {
+            throw new IllegalStateException("batchSize must be positive but was: " +
+                    builder.batchSize);
+        }
+
+        this.documentEventRepository = builder.documentEventRepository;
+        this.pollingInterval = builder.pollingInterval;
+        this.adaptivePollingInterval = builder.adaptivePollingInterval;
+        this.batchSize = builder.batchSize;
+        this.adaptiveBatchSize = builder.adaptiveBatchSize;
+        this.documentEndpoint = builder.documentEndpoint;
+        this.failureEndpoint = builder.failureEndpoint;
+        this.routeId = builder.routeId == null
+                ? "documentEventProcessor-" + idCounter.getAndIncrement()
+                : builder.routeId;
+        this.maxInFlightBatches = builder.maxInFlightBatches;
+        this.inFlightBatchPermits = new Semaphore(maxInFlightBatches);
+        this.lookupWindow = builder.lookupWindow;
+        this.lookupWindowsWithinPriorityTiers = builder.lookupWindowsWithinPriorityTiers;
+        this.maxPublishedEventsPerUpdate = builder.maxPublishedEventsPerUpdate;
+        this.maxPublishedEventAge = builder.maxPublishedEventAge == null
+                ? pollingInterval
+                : builder.maxPublishedEventAge;
+    }
+
+    /**
+     * Builds a route with any of its optional behaviors. A polling interval and batch size are
+     * required.
+     */
+    public static Builder builder(DocumentEventRepository documentEventRepository,
+            String documentEndpoint, String failureEndpoint) {
+        return new Builder(documentEventRepository, documentEndpoint, failureEndpoint);
+    }
+
+    public static class Builder {
+        private final DocumentEventRepository documentEventRepository;
+        private final String documentEndpoint;
+        private final String failureEndpoint;
+        private Duration pollingInterval;
+        @Nullable
+        private AdaptivePollingInterval adaptivePollingInterval;
+        private int batchSize;
+        @Nullable
+        private AdaptiveBatchSize adaptiveBatchSize;
+        @Nullable
+        private String routeId;
+        private int maxInFlightBatches = 1;
+        @Nullable
+        private DocumentLookupWindow lookupWindow;
+        private boolean lookupWindowsWithinPriorityTiers = false;
+        private int maxPublishedEventsPerUpdate = 100;
+        @Nullable
+        private Duration maxPublishedEventAge;
+
+        private Builder(DocumentEventRepository documentEventRepository,
+                String documentEndpoint, String failureEndpoint) {
+            this.documentEventRepository =
+                    Objects.requireNonNull(documentEventRepository, "documentEventRepository");
+            this.documentEndpoint = Objects.requireNonNull(documentEndpoint, "documentEndpoint");
+            this.failureEndpoint = Objects.requireNonNull(failureEndpoint, "failureEndpoint");
+        }
+
+        /** Polls at a fixed interval. */
+        public Builder pollingInterval(Duration pollingInterval) {
+            this.pollingInterval = Objects.requireNonNull(pollingInterval, "pollingInterval");
+            this.adaptivePollingInterval = null;
+            return this;
+        }
+
+        /**
+         * Polls as often as the provided interval decides: a full batch is followed immediately
+         * by another poll, and polls back off while there are no document events. Its
+         * {@link AdaptivePollingInterval#current() current interval} may be exported as a metric.
+         */
+        public Builder pollingInterval(AdaptivePollingInterval pollingInterval) {
+            this.adaptivePollingInterval =
+                    Objects.requireNonNull(pollingInterval, "pollingInterval");
+            this.pollingInterval = pollingInterval.minimum();
+            return this;
+        }
+
+        /** Retrieves up to a fixed number of document events per batch. */
+        public Builder batchSize(int batchSize) {
+            this.batchSize = batchSize;
+            this.adaptiveBatchSize = null;
+            return this;
+        }
+
+        /**
+         * Retrieves as many document events per batch as the provided batch size decides. A
+         * batch's processing time is measured from just before it is retrieved until it is done
+         * publishing. Its {@link AdaptiveBatchSize#current() current size} may be exported as a
+         * metric.
+         */
+        public Builder batchSize(AdaptiveBatchSize batchSize) {
+            this.adaptiveBatchSize = Objects.requireNonNull(batchSize, "batchSize");
+            this.batchSize = batchSize.current();
+            return this;
+        }
+
+        public Builder routeId(String routeId) {
+            this.routeId = Objects.requireNonNull(routeId, "routeId");
+            return this;
+        }
+
+        /**
+         * @param maxInFlightBatches The maximum number of batches which may be retrieved but not
+         *                           yet done publishing. With more than one, retrieving and
+         *                           looking up the documents of the next batch overlaps with
+         *                           publishing the previous. Note that the longer a batch waits
+         *                           to publish, the more likely its events' transactions are to
+         *                           expire. Defaults to 1.
+         */
+        public Builder maxInFlightBatches(int maxInFlightBatches) {
+            if (maxInFlightBatches < 1) {
+                throw new IllegalArgumentException("maxInFlightBatches must be at least 1 but " +
+                        "was: " + maxInFlightBatches);
+            }
+
+            this.maxInFlightBatches = maxInFlightBatches;
+            return this;
+        }
+
+        /**
+         * Only holds a window of each batch's documents in memory at a time. Documents are looked
+         * up a window at a time as the batch is published, rather than all up front, and released
+         * once published. With more than one batch in flight, this means retrieving the next
+         * batch overlaps with both looking up and publishing the documents of the previous one.
+         */
+        public Builder lookupWindow(DocumentLookupWindow lookupWindow) {
+            this.lookupWindow = Objects.requireNonNull(lookupWindow, "lookupWindow");
+            return this;
+        }
+
+        /**
+         * Whether to end a {@link #lookupWindow(DocumentLookupWindow) lookup window} early at
+         * every change of priority among {@link PrioritizedDocumentEvent}s, so that a tier is
+         * published before any lookups of the next tier begin. Otherwise, windows fill up
+         * regardless of priority, so a lower tier's lookups may compete with a higher tier's, and
+         * when publishing {@link DocumentLookupWindow#inCompletionOrder() in completion order},
+         * a lower tier's documents may be published first.
+         *
+         * <p>This costs throughput: every window which would span tiers is cut short, and the
+         * next window waits for it to publish. A batch mixing many priorities is then looked up in
+         * many small windows, with as many round trips. Defaults to false.
+         */
+        public Builder lookupWindowsWithinPriorityTiers(boolean lookupWindowsWithinPriorityTiers) {
+            this.lookupWindowsWithinPriorityTiers = lookupWindowsWithinPriorityTiers;
+            return this;
+        }
+
+        /**
+         * @param maxPublishedEventsPerUpdate Published events' statuses are updated in bulk once
+         *                                    this many have accumulated. Defaults to 100.
+         */
+        public Builder maxPublishedEventsPerUpdate(int maxPublishedEventsPerUpdate) {
+            if (maxPublishedEventsPerUpdate < 1) {
+                throw new IllegalArgumentException("maxPublishedEventsPerUpdate must be at least " +
+                        "1 but was: " + maxPublishedEventsPerUpdate);
+            }
+
+            this.maxPublishedEventsPerUpdate = maxPublishedEventsPerUpdate;
+            return this;
+        }
+
+        /**
+         * @param maxPublishedEventAge Published events' statuses are updated in bulk once the
+         *                             oldest has waited this long, even if no more events are
+         *                             published in the meantime. The longer events wait, the more
+         *                             are reprocessed if the route stops before they are updated.
+         *                             Defaults to the polling interval (or its minimum, if
+         *                             adaptive).
+         */
+        public Builder maxPublishedEventAge(Duration maxPublishedEventAge) {
+            this.maxPublishedEventAge =
+                    Objects.requireNonNull(maxPublishedEventAge, "maxPublishedEventAge");
+            return this;
+        }
+
+        public PollingDocumentEventProcessorRoute build() {
+            return new PollingDocumentEventProcessorRoute(this);
+        }
+    }
+
     @Override
     public void configure() throws Exception {
-        from("timer:pollForDocumentEvents" + routeId + "?period=" + pollingInterval.toMillis())
+        publishedEventsFlusher = getContext().getExecutorServiceManager()
+                .newSingleThreadScheduledExecutor(this, routeId + "-publishedEvents");
+
+        // The scheduler polls again immediately after a full batch, when told to be greedy.
+        String pollingEndpoint = adaptivePollingInterval == null
+                ? "timer:pollForDocumentEvents" + routeId + "?period=" + pollingInterval.toMillis()
+                : "scheduler:pollForDocumentEvents" + routeId + "?delay=" +
+                        pollingInterval.toMillis() + "&greedy=true";
+
+        if (maxInFlightBatches == 1) {
+            publish(from(pollingEndpoint)
+                    .routeId(routeId)
+                    .process(exchange -> {
+                        if (isPollDue(exchange)) {
+                            retrieveAndLookUpBatch(exchange);
+                        }
+                    }));
+            return;
+        }
+
+        String publishingEndpoint = "seda:publishDocumentEvents-" + routeId;
+
+        from(pollingEndpoint)
         .routeId(routeId)
         .process(exchange -> {
-            List<? extends DocumentEvent> documentEvents = documentEventRepository
-                    .retrievePriorityDocumentEventsUpTo(batchSize);
-            Map<DocumentEvent, Future<?>> eventsToFutureDocuments =
-                    new HashMap<>(documentEvents.size());
+            if (!isPollDue(exchange)) {
+                return;
+            }
 
-            // Intentionally cache all futures before resolving them.
-            for (DocumentEvent event : documentEvents) {
-                try {
-                    eventsToFutureDocuments.put(event, event.lookupDocument());
-                } catch (Exception e) {
-                    log.error("Failed to get future document for document event: " + event, e);
-                    eventsToFutureDocuments.put(event, Futures.immediateFailedFuture(e));
-                }
+            // Don't block the timer for long; if still full by the next tick, try again then.
+            if (!inFlightBatchPermits.tryAcquire(pollingInterval.toMillis(), TimeUnit.MILLISECONDS)) {
+                exchange.setProperty(Exchange.ROUTE_STOP, true);
+                return;
             }
 
-            Map<DocumentEvent, Object> eventsToDocuments = new HashMap<>(documentEvents.size());
-            List<FailedDocumentEvent> failedEvents = new ArrayList<>();
+            try {
+                retrieveAndLookUpBatch(exchange);
+            } catch (Exception e) {
+                inFlightBatchPermits.release();
+                throw e;
+            }
+        })
+        .to(publishingEndpoint);
 
-            for (Map.Entry<DocumentEvent, Future<?>> eventToFutureDocument
-                    : eventsToFutureDocuments.entrySet()) {
-                DocumentEvent event = eventToFutureDocument.getKey();
-                Future<?> futureDoc = eventToFutureDocument.getValue();
+        publish(from(publishingEndpoint)
+                .routeId(routeId + "-publisher")
+                .process(exchange -> exchange.addOnCompletion(new SynchronizationAdapter() {
+                    @Override
+                    public void onDone(Exchange exchange) {
+                        inFlightBatchPermits.release();
+                    }
+                })));
+    }
 
-                try {
-                    eventsToDocuments.put(event, futureDoc.get());
-                } catch (ExecutionException | InterruptedException e) {
-                    log.error("Failed to get document for document event: " + event, e);
-                    failedEvents.add(new FailedDocumentEvent(event, e));
+    /**
+     * Stops the exchange if using an adaptive polling interval which is not yet due.
+     */
+    private boolean isPollDue(Exchange exchange) {
+        if (adaptivePollingInterval == null) {
+            return true;
+        }
+
+        // Only poll again immediately if a full batch is retrieved; not if skipped or failed.
+        exchange.setProperty(Exchange.SCHEDULER_POLLED_MESSAGES, false);
+
+        if (adaptivePollingInterval.isDue()) {
+            return true;
+        }
+
+        exchange.setProperty(Exchange.ROUTE_STOP, true);
+        return false;
+    }
+
+    /**
+     * Retrieves a batch of document events and resolves their documents, marking any events whose
+     * documents could not be looked up as failed. Sets the exchange body to the resulting
+     * {@link DocumentBatch}.
+     *
+     * <p>With a {@link DocumentLookupWindow}, documents are instead looked up as the batch is
+     * published; see {@link WindowedLookups}.
+     */
+    private void retrieveAndLookUpBatch(Exchange exchange) throws Exception {
+        long startNanos = System.nanoTime();
+        int maxEvents = adaptiveBatchSize == null ? batchSize : adaptiveBatchSize.current();
+        List<? extends DocumentEvent> documentEvents = documentEventRepository
+                .retrievePriorityDocumentEventsUpTo(maxEvents);
+
+        if (adaptivePollingInterval != null) {
+            adaptivePollingInterval.polled(documentEvents.size(), maxEvents);
+            exchange.setProperty(Exchange.SCHEDULER_POLLED_MESSAGES,
+                    documentEvents.size() >= maxEvents);
+        }
+
+        if (lookupWindow != null) {
+            exchange.getIn().setBody(new DocumentBatch(documentEvents, maxEvents,
+                    documentEvents.size(), startNanos));
+            return;
+        }
+
+        Map<DocumentEvent, Object> eventsToDocuments = new LinkedHashMap<>(documentEvents.size());
+        List<FailedDocumentEvent> failedEvents = new ArrayList<>();
+
+        lookUpDocuments(documentEvents, eventsToDocuments, failedEvents);
+        markFailed(failedEvents);
+
+        exchange.getIn().setBody(new DocumentBatch(eventsToDocuments, failedEvents, maxEvents,
+                documentEvents.size(), startNanos));
+    }
+
+    /**
+     * Looks up the documents of all of the provided events at once, adding each event and its
+     * document to {@code eventsToDocuments}, or the event to {@code failedEvents} if its document
+     * could not be looked up.
+     */
+    private void lookUpDocuments(List<? extends DocumentEvent> documentEvents,
+            Map<DocumentEvent, Object> eventsToDocuments, List<FailedDocumentEvent> failedEvents) {
+        Map<DocumentEvent, Future<?>> eventsToFutureDocuments =
+                new LinkedHashMap<>(documentEvents.size());
+
+        // Intentionally cache all futures before resolving them.
+        for (DocumentEvent event : documentEvents) {
+            try {
+                eventsToFutureDocuments.put(event, event.lookupDocument());
+            } catch (Exception e) {
+                log.error("Failed to get future document for document event: " + event, e);
+                eventsToFutureDocuments.put(event, Futures.immediateFailedFuture(e));
+            }
+        }
+
+        // Wait for every lookup at once, as documents arrive in whatever order.
+        boolean interrupted = false;
+        try {
+            TransformableFuture.successfulAsList(eventsToFutureDocuments.values()).get();
+        } catch (InterruptedException e) {
+            // Stop waiting; lookups which are not yet done fail below.
+            Thread.currentThread().interrupt();
+            interrupted = true;
+        } catch (ExecutionException e) {
+            // Failed lookups are recorded one by one below.
+        }
+
+        for (Map.Entry<DocumentEvent, Future<?>> eventToFutureDocument
+                : eventsToFutureDocuments.entrySet()) {
+            DocumentEvent event = eventToFutureDocument.getKey();
+            Future<?> futureDoc = eventToFutureDocument.getValue();
+
+            try {
+                if (interrupted && !futureDoc.isDone()) {
+                    throw new InterruptedException("Interrupted while looking up document");
                 }
+
+                eventsToDocuments.put(event, futureDoc.get());
+            } catch (ExecutionException | InterruptedException e) {
+                log.error("Failed to get document for document event: " + event, e);
+                failedEvents.add(new FailedDocumentEvent(event, e));
             }
+        }
+    }
+
+    private void markFailed(List<FailedDocumentEvent> failedEvents) {
+        if (failedEvents.isEmpty()) {
+            return;
+        }
 
+        try {
+            documentEventRepository.markDocumentEventsPublishedOrFailed(
+                    Collections.emptyList(), failedEvents);
+        } catch (Exception e) {
+            if (log.isErrorEnabled()) {
+                log.error("Failed to update failed events. They will be reprocessed. " +
+                        "Failures were: " + failedEvents, e);
+            }
+        }
+    }
+
+    /**
+     * Removes events whose transactions are no longer active, along with their documents.
+     *
+     * @return Whether any events were removed.
+     */
+    private boolean removeExpired(Map<DocumentEvent, Object> eventsToDocuments) {
+        boolean anyExpired = false;
+        Iterator<Map.Entry<DocumentEvent, Object>> eventsToDocumentsIterator =
+                eventsToDocuments.entrySet().iterator();
+        while (eventsToDocumentsIterator.hasNext()) {
+            Map.Entry<DocumentEvent, Object> eventToDocument = eventsToDocumentsIterator.next();
             try {
-                documentEventRepository.markDocumentEventsPublishedOrFailed(
-                        Collections.emptyList(), failedEvents);
+                documentEventRepository.ensureTransactionActive(eventToDocument.getKey());
             } catch (Exception e) {
-                if (log.isErrorEnabled()) {
-                    log.error("Failed to update failed events. They will be reprocessed. " +
-                            "Failures were: " + failedEvents, e);
+                eventsToDocumentsIterator.remove();
+                anyExpired = true;
+                if (log.isWarnEnabled()) {
+                    log.warn("Event transaction no longer active, not processing: " +
+                            eventToDocument.getKey(), e);
                 }
             }
+        }
+        return anyExpired;
+    }
 
-            Iterator<Map.Entry<DocumentEvent, Object>> eventsToDocumentsIterator =
-                    eventsToDocuments.entrySet().iterator();
-            while (eventsToDocumentsIterator.hasNext()) {
-                Map.Entry<DocumentEvent, Object> eventToDocument = eventsToDocumentsIterator.next();
-                try {
-                    documentEventRepository.ensureTransactionActive(eventToDocument.getKey());
-                } catch (Exception e) {
-                    eventsToDocumentsIterator.remove();
-                    if (log.isWarnEnabled()) {
-                        log.warn("Event transaction no longer active, not processing: " +
-                                eventToDocument.getKey(), e);
-                    }
-                }
+    /**
+     * Appends the steps which publish a {@link DocumentBatch} body: documents whose events'
+     * transactions are still active go to the document endpoint, and failures to the failure
+     * endpoint.
+     */
+    private void publish(RouteDefinition route) {
+        route
+        .process(exchange -> {
+            DocumentBatch batch = exchange.getIn().getBody(DocumentBatch.class);
+            Iterable<Object> documentsAndFailures;
+
+            if (batch.eventsToLookUp != null) {
+                documentsAndFailures = lookupWindow.inCompletionOrder()
+                        ? () -> new CompletionOrderLookups(batch)
+                        : () -> new WindowedLookups(batch);
+            } else {
+                // Checked as late as possible, since a batch may wait to be published.
+                batch.anyExpired = removeExpired(batch.eventsToDocuments);
+
+                log.debug("Publishing {} documents on route {}: {}",
+                        batch.eventsToDocuments.size(), exchange.getFromRouteId(),
+                        batch.eventsToDocuments.values());
+
+                documentsAndFailures =
+                        Iterables.concat(batch.eventsToDocuments.entrySet(), batch.failedEvents);
             }
 
-            log.debug("Publishing {} documents on route {}: {}",
-                    eventsToDocuments.size(), exchange.getFromRouteId(), eventsToDocuments.values());
+            PublishedEvents publishedEvents = new PublishedEvents();
+            exchange.setProperty(PUBLISHED_EVENTS, publishedEvents);
+            exchange.addOnCompletion(new SynchronizationAdapter() {
+                @Override
+                public void onDone(Exchange exchange) {
+                    publishedEvents.markPublished();
 
-            exchange.getIn().setBody(Iterables.concat(eventsToDocuments.entrySet(), failedEvents));
+                    if (adaptiveBatchSize != null) {
+                        adaptiveBatchSize.processed(batch.requested, batch.retrieved,
+                                Duration.ofNanos(System.nanoTime() - batch.startNanos),
+                                batch.anyExpired);
+                    }
+                }
+            });
+
+            exchange.getIn().setBody(documentsAndFailures);
         })
         .split(body())
         .streaming()
+        .filter(body().isNotNull())
         .choice()
             .when(e -> e.getIn().getBody() instanceof FailedDocumentEvent).to(failureEndpoint)
             .otherwise()
@@ -143,11 +569,7 @@ public class PollingDocumentEventProcessorRoute extends RouteBuilder {
                     exchange.getIn().setBody(eventToDocument.getValue());
                 })
                 .to(documentEndpoint)
-                // If producing to documentEndpoint succeeded, update original event status...
-                // TODO(ahenning): This updates event status one at a time. We could consider using
-                // aggregation strategy with splitter to update all in bulk which would take
-                // advantage of repository implementations which can update many statuses in one
-                // call.
+                // If producing to documentEndpoint succeeded, queue original event status update...
                 .process(exchange -> {
                     DocumentEvent event = exchange.getProperty("originalEvent", DocumentEvent.class);
 
@@ -157,8 +579,331 @@ public class PollingDocumentEventProcessorRoute extends RouteBuilder {
                                 exchange);
                     }
 
-                    documentEventRepository.markDocumentEventsPublishedOrFailed(
-                            Collections.singleton(event), Collections.emptyList());
+                    exchange.getProperty(PUBLISHED_EVENTS, PublishedEvents.class).add(event);
                 });
     }
+
+    /**
+     * Buffers events whose documents were published, so their statuses may be updated in bulk.
+     *
+     * <p>Buffered events are marked published once {@link #maxPublishedEventsPerUpdate} have
+     * accumulated, once the oldest has waited {@link #maxPublishedEventAge}, and when the batch is
+     * done. The age is enforced by a flush scheduled when the first event is buffered, so events
+     * are updated on time even if the rest of the batch is slow to publish. If any of these
+     * updates fail, or never happen because the batch was interrupted, those events will be
+     * reprocessed and published again.
+     */
+    private class PublishedEvents {
+        private List<DocumentEvent> events = new ArrayList<>();
+        @Nullable
+        private ScheduledFuture<?> scheduledFlush;
+
+        synchronized void add(DocumentEvent event) {
+            events.add(event);
+
+            if (events.size() >= maxPublishedEventsPerUpdate) {
+                markPublished();
+            } else if (scheduledFlush == null) {
+                try {
+                    scheduledFlush = publishedEventsFlusher.schedule(this::markPublished,
+                            maxPublishedEventAge.toNanos(), TimeUnit.NANOSECONDS);
+                } catch (RejectedExecutionException e) {
+                    // Stopping; events are still marked published when the batch is done.
+                    log.debug("Could not schedule published events flush on route {}", routeId, e);
+                }
+            }
+        }
+
+        synchronized void markPublished() {
+            if (scheduledFlush != null) {
+                scheduledFlush.cancel(false);
+                scheduledFlush = null;
+            }
+
+            if (events.isEmpty()) {
+                return;
+            }
+
+            List<DocumentEvent> published = events;
+            events = new ArrayList<>();
+
+            try {
+                documentEventRepository.markDocumentEventsPublishedOrFailed(
+                        published, Collections.emptyList());
+            } catch (Exception e) {
+                if (log.isErrorEnabled()) {
+                    log.error("Failed to update published events. They will be reprocessed. " +
+                            "Events were: " + published, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Looks up the documents of a batch a {@link DocumentLookupWindow window} at a time, as the
+     * split publishing them iterates. The next window is only looked up once every document in the
+     * previous window has been published, and documents are released as they are published, so at
+     * most one window of documents is held in memory.
+     *
+     * <p>Each window's lookups are started together before any are resolved, so they may still be
+     * batched by a {@link Requester}. Events whose lookups fail are marked failed a window at a
+     * time, and transactions are checked just before each window is published.
+     *
+     * <p>The split calls {@link #hasNext()} before publishing the element it just took, so the
+     * next window is only looked up by {@link #next()}. If none of a window's events are left to
+     * publish, because their transactions expired, {@code next()} returns {@code null}, which is
+     * skipped.
+     */
+    private class WindowedLookups implements Iterator<Object> {
+        private final DocumentBatch batch;
+        private final PeekingIterator<? extends DocumentEvent> events;
+        private final Deque<Object> window = new ArrayDeque<>();
+
+        WindowedLookups(DocumentBatch batch) {
+            this.batch = batch;
+            this.events = Iterators.peekingIterator(batch.eventsToLookUp.iterator());
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !window.isEmpty() || events.hasNext();
+        }
+
+        @Override
+        @Nullable
+        public Object next() {
+            if (window.isEmpty()) {
+                if (!events.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                lookUpNextWindow();
+            }
+
+            return window.poll();
+        }
+
+        private void lookUpNextWindow() {
+            List<DocumentEvent> windowEvents = nextWindow(events);
+            Map<DocumentEvent, Object> eventsToDocuments =
+                    new LinkedHashMap<>(windowEvents.size());
+            List<FailedDocumentEvent> failedEvents = new ArrayList<>();
+
+            lookUpDocuments(windowEvents, eventsToDocuments, failedEvents);
+            markFailed(failedEvents);
+
+            long bytes = 0;
+            for (Object document : eventsToDocuments.values()) {
+                bytes += lookupWindow.bytesOf(document);
+            }
+            lookupWindow.lookedUp(eventsToDocuments.size(), bytes);
+
+            if (removeExpired(eventsToDocuments)) {
+                batch.anyExpired = true;
+            }
+
+            log.debug("Publishing {} documents on route {}: {}",
+                    eventsToDocuments.size(), routeId, eventsToDocuments.values());
+
+            window.addAll(eventsToDocuments.entrySet());
+            window.addAll(failedEvents);
+        }
+    }
+
+    /**
+     * Like {@link WindowedLookups}, except each document in a window is published as soon as its
+     * own lookup completes and its event's transaction is confirmed active, in whatever order
+     * lookups complete. Lookups are waited on with the window's
+     * {@link DocumentLookupWindow#lookupExecutor() lookup executor}, so a slow lookup does not
+     * hold up others, even if they would otherwise only complete once waited on. Events whose
+     * lookups fail are sent to the failure endpoint as soon as they fail, and are marked failed
+     * once the window is done.
+     *
+     * <p>As with {@code WindowedLookups}, only {@link #next()} waits on lookups, and it returns
+     * {@code null} for events whose transactions expired.
+     */
+    private class CompletionOrderLookups implements Iterator<Object> {
+        private final DocumentBatch batch;
+        private final PeekingIterator<? extends DocumentEvent> events;
+        /** Queued in case lookups are shared between events. */
+        private final Map<Future<?>, Deque<DocumentEvent>> lookupsToEvents =
+                new IdentityHashMap<>();
+        private Iterator<TransformableFuture<Future<?>>> completions = Collections.emptyIterator();
+        private List<FailedDocumentEvent> failedEvents = new ArrayList<>();
+        private int documents = 0;
+        private long bytes = 0;
+
+        CompletionOrderLookups(DocumentBatch batch) {
+            this.batch = batch;
+            this.events = Iterators.peekingIterator(batch.eventsToLookUp.iterator());
+        }
+
+        @Override
+        public boolean hasNext() {
+            return completions.hasNext() || events.hasNext();
+        }
+
+        @Override
+        @Nullable
+        public Object next() {
+            if (!completions.hasNext()) {
+                if (!events.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                startNextWindow();
+            }
+
+            Future<?> lookup = nextCompletedLookup();
+            DocumentEvent event = lookupsToEvents.get(lookup).poll();
+            Object documentOrFailure = documentOrFailure(event, lookup);
+
+            if (!completions.hasNext()) {
+                finishWindow();
+            }
+
+            return documentOrFailure;
+        }
+
+        /**
+         * @return The event and its document, the event's failure, or {@code null} if the event's
+         * transaction is no longer active.
+         */
+        @Nullable
+        private Object documentOrFailure(DocumentEvent event, Future<?> lookup) {
+            Object document;
+
+            try {
+                document = lookup.get();
+            } catch (ExecutionException | InterruptedException e) {
+                log.error("Failed to get document for document event: " + event, e);
+                FailedDocumentEvent failedEvent = new FailedDocumentEvent(event, e);
+                failedEvents.add(failedEvent);
+                return failedEvent;
+            }
+
+            documents++;
+            bytes += lookupWindow.bytesOf(document);
+
+            try {
+                documentEventRepository.ensureTransactionActive(event);
+            } catch (Exception e) {
+                batch.anyExpired = true;
+                if (log.isWarnEnabled()) {
+                    log.warn("Event transaction no longer active, not processing: " + event, e);
+                }
+                return null;
+            }
+
+            log.debug("Publishing document on route {}: {}", routeId, document);
+
+            return new AbstractMap.SimpleImmutableEntry<>(event, document);
+        }
+
+        private void startNextWindow() {
+            List<Future<?>> lookups = new ArrayList<>();
+
+            // Intentionally start all lookups before resolving any.
+            for (DocumentEvent event : nextWindow(events)) {
+                Future<?> lookup;
+
+                try {
+                    lookup = event.lookupDocument();
+                } catch (Exception e) {
+                    log.error("Failed to get future document for document event: " + event, e);
+                    lookup = Futures.immediateFailedFuture(e);
+                }
+
+                lookupsToEvents.computeIfAbsent(lookup, l -> new ArrayDeque<>()).add(event);
+                lookups.add(lookup);
+            }
+
+            completions = TransformableFuture.inCompletionOrder(lookups,
+                    lookupWindow.lookupExecutor()).iterator();
+        }
+
+        private Future<?> nextCompletedLookup() {
+            try {
+                // Never fails; completes with the lookup which completed.
+                return completions.next().get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                // Events not yet published or marked failed will be reprocessed.
+                throw new IllegalStateException("Interrupted while looking up documents on " +
+                        "route " + routeId, e);
+            }
+        }
+
+        private void finishWindow() {
+            lookupsToEvents.clear();
+            markFailed(failedEvents);
+            lookupWindow.lookedUp(documents, bytes);
+
+            failedEvents = new ArrayList<>();
+            documents = 0;
+            bytes = 0;
+        }
+    }
+
+    /**
+     * Takes the events of the next window to look up from {@code events}. If
+     * {@link #lookupWindowsWithinPriorityTiers}, a window never spans more than one priority tier
+     * of {@link PrioritizedDocumentEvent}s, so that a tier is published before any lookups of the
+     * next tier begin.
+     */
+    private List<DocumentEvent> nextWindow(PeekingIterator<? extends DocumentEvent> events) {
+        int windowSize = lookupWindow.current();
+        List<DocumentEvent> windowEvents = new ArrayList<>(windowSize);
+        Integer tier = priorityOf(events.peek());
+
+        while (windowEvents.size() < windowSize && events.hasNext() &&
+                (!lookupWindowsWithinPriorityTiers ||
+                        Objects.equals(tier, priorityOf(events.peek())))) {
+            windowEvents.add(events.next());
+        }
+
+        return windowEvents;
+    }
+
+    @Nullable
+    private static Integer priorityOf(DocumentEvent event) {
+        return event instanceof PrioritizedDocumentEvent
+                ? ((PrioritizedDocumentEvent) event).priority()
+                : null;
+    }
+
+    private static class DocumentBatch {
+        final Map<DocumentEvent, Object> eventsToDocuments;
+        final List<FailedDocumentEvent> failedEvents;
+        /** Events whose documents are looked up as the batch is published, if windowed. */
+        @Nullable
+        final List<? extends DocumentEvent> eventsToLookUp;
+        final int requested;
+        final int retrieved;
+        final long startNanos;
+        boolean anyExpired;
+
+        DocumentBatch(Map<DocumentEvent, Object> eventsToDocuments,
+                List<FailedDocumentEvent> failedEvents, int requested, int retrieved,
+                long startNanos) {
+            this.eventsToDocuments = eventsToDocuments;
+            this.failedEvents = failedEvents;
+            this.eventsToLookUp = null;
+            this.requested = requested;
+            this.retrieved = retrieved;
+            this.startNanos = startNanos;
+        }
+
+        DocumentBatch(List<? extends DocumentEvent> eventsToLookUp, int requested, int retrieved,
+                long startNanos) {
+            this.eventsToDocuments = Collections.emptyMap();
+            this.failedEvents = Collections.emptyList();
+            this.eventsToLookUp = eventsToLookUp;
+            this.requested = requested;
+            this.retrieved = retrieved;
+            this.startNanos = startNanos;
+        }
+    }
 }
@@ -19,8 +19,10 @@
 package org.esbtools.eventhandler;
 
 import com.google.common.util.concurrent.Futures;
+import org.apache.camel.Exchange;
 import org.apache.camel.builder.RouteBuilder;
 
+import javax.annotation.Nullable;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -34,11 +36,24 @@ import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
+/**
+ * Periodically retrieves a batch of notifications and persists the document events they produce.
+ *
+ * <p>Batches are retrieved at a fixed polling interval, unless an {@link AdaptivePollingInterval}
+ * is provided. In that case, a full batch is followed immediately by another poll, and polls back
+ * off while there are no notifications. Similarly, batch sizes are fixed unless an
+ * {@link AdaptiveBatchSize} is provided, in which case they adapt to how long batches take to
+ * process.
+ */
 public class PollingNotificationProcessorRoute extends RouteBuilder {
     private final NotificationRepository notificationRepository;
     private final DocumentEventRepository documentEventRepository;
     private final Duration pollingInterval;
+    @Nullable
+    private final AdaptivePollingInterval adaptivePollingInterval;
     private final int batchSize;
+    @Nullable
+    private final AdaptiveBatchSize adaptiveBatchSize;
 
     private static final AtomicInteger idCounter = new AtomicInteger(1);
     private final int id = idCounter.getAndIncrement();
@@ -46,19 +61,80 @@ public class PollingNotificationProcessorRoute extends RouteBuilder {
     public PollingNotificationProcessorRoute(NotificationRepository notificationRepository,
             DocumentEventRepository documentEventRepository, Duration pollingInterval,
             int batchSize) {
+        this(notificationRepository, documentEventRepository, pollingInterval, null, batchSize,
+                null);
+    }
+
+    /**
+     * Like {@link #PollingNotificationProcessorRoute(NotificationRepository,
+     * DocumentEventRepository, Duration, int)}, but polls as often as the provided interval
+     * decides. Its {@link AdaptivePollingInterval#current() current interval} may be exported as a
+     * metric.
+     */
+    public PollingNotificationProcessorRoute(NotificationRepository notificationRepository,
+            DocumentEventRepository documentEventRepository,
+            AdaptivePollingInterval pollingInterval, int batchSize) {
+        this(notificationRepository, documentEventRepository, pollingInterval.minimum(),
+                pollingInterval, batchSize, null);
+    }
+
+    /**
+     * Like {@link #PollingNotificationProcessorRoute(NotificationRepository,
+     * DocumentEventRepository, AdaptivePollingInterval, int)}, but retrieves as many
+     * notifications per batch as the provided batch size decides. Its
+     * {@link AdaptiveBatchSize#current() current size} may be exported as a metric.
+     */
+    public PollingNotificationProcessorRoute(NotificationRepository notificationRepository,
+            DocumentEventRepository documentEventRepository,
+            AdaptivePollingInterval pollingInterval, AdaptiveBatchSize batchSize) {
+        this(notificationRepository, documentEventRepository, pollingInterval.minimum(),
+                pollingInterval, batchSize.current(), batchSize);
+    }
+
+    private PollingNotificationProcessorRoute(NotificationRepository notificationRepository,
+            DocumentEventRepository documentEventRepository, Duration pollingInterval,
+            @Nullable AdaptivePollingInterval adaptivePollingInterval, int batchSize,
+            @Nullable AdaptiveBatchSize adaptiveBatchSize) {
         this.notificationRepository = notificationRepository;
         this.documentEventRepository = documentEventRepository;
         this.pollingInterval = pollingInterval;
+        this.adaptivePollingInterval = adaptivePollingInterval;
         this.batchSize = batchSize;
+        this.adaptiveBatchSize = adaptiveBatchSize;
     }
 
     @Override
     public void configure() throws Exception {
-        from("timer:pollForNotifications" + id + "?period=" + pollingInterval.toMillis())
+        // The scheduler polls again immediately after a full batch, when told to be greedy.
+        String pollingEndpoint = adaptivePollingInterval == null
+                ? "timer:pollForNotifications" + id + "?period=" + pollingInterval.toMillis()
+                : "scheduler:pollForNotifications" + id + "?delay=" + pollingInterval.toMillis() +
+                        "&greedy=true";
+
+        from(pollingEndpoint)
         .routeId("notificationProcessor-" + id)
         .process(exchange -> {
+            if (adaptivePollingInterval != null) {
+                // Only poll again immediately if a full batch is retrieved; not if skipped or
+                // failed.
+                exchange.setProperty(Exchange.SCHEDULER_POLLED_MESSAGES, false);
+
+                if (!adaptivePollingInterval.isDue()) {
+                    return;
+                }
+            }
+
+            long startNanos = System.nanoTime();
+            int maxNotifications =
+                    adaptiveBatchSize == null ? batchSize : adaptiveBatchSize.current();
             List<? extends Notification> notifications =
-                    notificationRepository.retrieveOldestNotificationsUpTo(batchSize);
+                    notificationRepository.retrieveOldestNotificationsUpTo(maxNotifications);
+
+            if (adaptivePollingInterval != null) {
+                adaptivePollingInterval.polled(notifications.size(), maxNotifications);
+                exchange.setProperty(Exchange.SCHEDULER_POLLED_MESSAGES,
+                        notifications.size() >= maxNotifications);
+            }
             Map<Notification, Future<Collection<DocumentEvent>>> notificationsToFutureEvents =
                     new HashMap<>(notifications.size());
 
@@ -74,6 +150,16 @@ public class PollingNotificationProcessorRoute extends RouteBuilder {
                 }
             }
 
+            // Wait for every notification at once, as their events arrive in whatever order.
+            boolean interrupted = false;
+            try {
+                TransformableFuture.successfulAsList(notificationsToFutureEvents.values()).get();
+            } catch (InterruptedException e) {
+                // Stop waiting; notifications which are not yet done fail below.
+                Thread.currentThread().interrupt();
+                interrupted = true;
+            }
+
             Map<Notification, Collection<DocumentEvent>> notificationsToDocumentEvents =
                     new HashMap<>();
             List<FailedNotification> failedNotifications = new ArrayList<>();
@@ -84,6 +170,11 @@ public class PollingNotificationProcessorRoute extends RouteBuilder {
                 Future<Collection<DocumentEvent>> futureEvents =
                         notificationToFutureEvents.getValue();
                 try {
+                    if (interrupted && !futureEvents.isDone()) {
+                        throw new InterruptedException(
+                                "Interrupted while converting notification to document events");
+                    }
+
                     Collection<DocumentEvent> events = futureEvents.get();
                     notificationsToDocumentEvents.put(notification, events);
                 } catch (ExecutionException | InterruptedException e) {
@@ -94,6 +185,7 @@ public class PollingNotificationProcessorRoute extends RouteBuilder {
 
             Iterator<Entry<Notification, Collection<DocumentEvent>>> notificationsToEventsIterator =
                     notificationsToDocumentEvents.entrySet().iterator();
+            boolean anyExpired = false;
             while (notificationsToEventsIterator.hasNext()) {
                 Entry<Notification, Collection<DocumentEvent>> notificationToEvents =
                         notificationsToEventsIterator.next();
@@ -101,6 +193,7 @@ public class PollingNotificationProcessorRoute extends RouteBuilder {
                     notificationRepository.ensureTransactionActive(notificationToEvents.getKey());
                 } catch (Exception e) {
                     notificationsToEventsIterator.remove();
+                    anyExpired = true;
                     if (log.isWarnEnabled()) {
                         log.warn("Notification transaction no longer active, not processing: " +
                                 notificationToEvents.getKey(), e);
@@ -126,6 +219,11 @@ public class PollingNotificationProcessorRoute extends RouteBuilder {
 
             notificationRepository.markNotificationsProcessedOrFailed(
                     notificationsToDocumentEvents.keySet(), failedNotifications);
+
+            if (adaptiveBatchSize != null) {
+                adaptiveBatchSize.processed(maxNotifications, notifications.size(),
+                        Duration.ofNanos(System.nanoTime() - startNanos), anyExpired);
+            }
         });
     }
 }
@@ -0,0 +1,33 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler;
+
+/**
+ * An optional extension of {@link DocumentEvent} which exposes the priority events are retrieved
+ * in, so that they may be published by priority tier.
+ *
+ * @see DocumentEventRepository#retrievePriorityDocumentEventsUpTo(int)
+ */
+public interface PrioritizedDocumentEvent extends DocumentEvent {
+    /**
+     * Events with a higher priority are retrieved, and published, before those with a lower
+     * priority. Events with the same priority are in the same tier.
+     */
+    int priority();
+}
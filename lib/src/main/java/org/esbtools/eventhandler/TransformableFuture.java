@@ -18,7 +18,17 @@
 
 package org.esbtools.eventhandler;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * An extension of {@link Future} which allows chaining {@link FutureTransform} functions onto its
@@ -37,6 +47,91 @@ public interface TransformableFuture<T> extends Future<T> {
         return new FailedTransformableFuture<>(exception);
     }
 
+    /**
+     * Adapts a {@link CompletionStage}, such as a {@link CompletableFuture}, to a
+     * {@code TransformableFuture}. Cancelling the returned future cancels the stage's
+     * {@link CompletionStage#toCompletableFuture() CompletableFuture}.
+     *
+     * <p>Asynchronous transforms of the returned future are composed onto the stage directly,
+     * rather than nesting a new future per transform, so long chains stay cheap to build and
+     * resolve.
+     */
+    static <T> TransformableFuture<T> fromCompletionStage(CompletionStage<T> stage) {
+        return new CompletableTransformableFuture<>(stage);
+    }
+
+    /**
+     * Combines {@code futures} into one future of all of their results, in the same order, which
+     * fails as soon as any of them fails, with that failure.
+     *
+     * <p>The combined future completes as soon as its members do, in whatever order they complete,
+     * without waiting on each in turn. Its {@link #get(long, TimeUnit)} applies one deadline to the
+     * whole batch, rather than one per member. Members which are only completed once something
+     * calls {@code get()} on them, like those from a {@link Requester}, are resolved by the
+     * combined future's {@code get()}, in order.
+     *
+     * <p>Cancelling the combined future does not cancel its members.
+     */
+    static <T> TransformableFuture<List<T>> allOf(
+            Collection<? extends Future<? extends T>> futures) {
+        return CombinedTransformableFutures.allOf(futures);
+    }
+
+    /**
+     * Like {@link #allOf(Collection)}, but waits for every member and never fails. Members which
+     * failed or were cancelled have a {@code null} result.
+     *
+     * <p>Use this to wait for a batch of futures once, up to a deadline, before examining each of
+     * them without blocking.
+     */
+    static <T> TransformableFuture<List<T>> successfulAsList(
+            Collection<? extends Future<? extends T>> futures) {
+        return CombinedTransformableFutures.successfulAsList(futures);
+    }
+
+    /**
+     * Like {@link #allOf(Collection)}, but ignores members' results. Completes with the first
+     * failure among {@code futures} as soon as it happens, or empty once every member succeeds.
+     * Never fails itself.
+     */
+    static TransformableFuture<Optional<Throwable>> firstFailure(
+            Collection<? extends Future<?>> futures) {
+        return CombinedTransformableFutures.firstFailure(futures);
+    }
+
+    /**
+     * Futures which complete with the provided {@code futures}, in the order they complete: the
+     * first completes with whichever of {@code futures} completes first, the second with whichever
+     * completes next, and so on. Each completes with the member future itself, which is then done,
+     * and never fails; examine the member to get its result or failure.
+     *
+     * <p>Use this to react to each of a batch of futures as soon as it completes, rather than in
+     * the order they were started. As with {@link #allOf(Collection)}, members which are only
+     * completed once something calls {@code get()} on them are resolved, in order, by the
+     * {@code get()} of any of the returned futures. This means a slow member may hold up members
+     * after it which would otherwise complete sooner; see
+     * {@link #inCompletionOrder(Collection, Executor)} to avoid that.
+     */
+    static <F extends Future<?>> List<TransformableFuture<F>> inCompletionOrder(
+            Collection<F> futures) {
+        return CombinedTransformableFutures.inCompletionOrder(futures, null);
+    }
+
+    /**
+     * Like {@link #inCompletionOrder(Collection)}, but members which may need resolving are each
+     * resolved right away by a task on the provided {@code resolver}, rather than in order on
+     * {@code get()}, so they complete in whatever order they actually finish. Members rejected by
+     * {@code resolver} are resolved on {@code get()} as usual.
+     *
+     * @param resolver Resolves members. Each task blocks until its member completes, so this
+     *                 should have roughly a thread per member expected to be pending at once.
+     */
+    static <F extends Future<?>> List<TransformableFuture<F>> inCompletionOrder(
+            Collection<F> futures, Executor resolver) {
+        return CombinedTransformableFutures.inCompletionOrder(futures,
+                Objects.requireNonNull(resolver, "resolver"));
+    }
+
     /**
      * Creates a new {@link Future} which is completed immediately when this {@code Future}
      * completes, with a value that is the result of applying the provided {@code futureTransform}
@@ -97,4 +192,29 @@ public interface TransformableFuture<T> extends Future<T> {
      * <p>If the future is already done or cancelled, the callback is called immediately.
      */
     TransformableFuture<T> whenDoneOrCancelled(FutureDoneCallback callback);
+
+    /**
+     * A {@link CompletableFuture} which completes along with this future, with the same result or
+     * failure, and is cancelled if this future is cancelled.
+     *
+     * <p>This does not resolve lazy futures, like those returned from a {@link Requester}. The
+     * returned future will not complete until something calls {@link #get()} on this future (or
+     * another future in the same batch).
+     */
+    default CompletableFuture<T> toCompletableFuture() {
+        CompletableFuture<T> completableFuture = new CompletableFuture<>();
+
+        whenDoneOrCancelled(() -> {
+            try {
+                completableFuture.complete(get());
+            } catch (CancellationException e) {
+                completableFuture.cancel(false);
+            } catch (ExecutionException e) {
+                completableFuture.completeExceptionally(
+                        e.getCause() == null ? e : e.getCause());
+            }
+        });
+
+        return completableFuture;
+    }
 }
@@ -0,0 +1,82 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.esbtools.eventhandler;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.time.Duration;
+
+@RunWith(JUnit4.class)
+public class AdaptiveBatchSizeTest {
+    static final Duration target = Duration.ofSeconds(10);
+    static final Duration inTime = Duration.ofSeconds(5);
+    static final Duration tooSlow = Duration.ofSeconds(11);
+
+    AdaptiveBatchSize batchSize = new AdaptiveBatchSize(10, 35, 10, target);
+
+    @Test
+    public void shouldStartAtMinimum() {
+        assertThat(batchSize.current()).isEqualTo(10);
+    }
+
+    @Test
+    public void shouldGrowAdditivelyAfterFullBatchesProcessedInTimeUpToMaximum() {
+        batchSize.processed(10, 10, inTime, false);
+        assertThat(batchSize.current()).isEqualTo(20);
+
+        batchSize.processed(20, 20, inTime, false);
+        assertThat(batchSize.current()).isEqualTo(30);
+
+        batchSize.processed(30, 30, inTime, false);
+        assertThat(batchSize.current()).isEqualTo(35);
+    }
+
+    @Test
+    public void shouldNotGrowAfterPartialBatches() {
+        batchSize.processed(10, 9, inTime, false);
+
+        assertThat(batchSize.current()).isEqualTo(10);
+    }
+
+    @Test
+    public void shouldHalveAfterBatchesProcessedTooSlowlyDownToMinimum() {
+        batchSize.processed(10, 10, inTime, false);
+        batchSize.processed(20, 20, inTime, false);
+        batchSize.processed(30, 30, inTime, false);
+
+        batchSize.processed(35, 35, tooSlow, false);
+        assertThat(batchSize.current()).isEqualTo(17);
+
+        batchSize.processed(17, 17, tooSlow, false);
+        assertThat(batchSize.current()).isEqualTo(10);
+    }
+
+    @Test
+    public void shouldHalveAfterBatchesWithExpiredTransactions() {
+        batchSize.processed(10, 10, inTime, false);
+        batchSize.processed(20, 20, inTime, false);
+
+        batchSize.processed(30, 30, inTime, true);
+
+        assertThat(batchSize.current()).isEqualTo(15);
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.esbtools.eventhandler;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+@RunWith(JUnit4.class)
+public class AdaptivePollingIntervalTest {
+    MutableClock clock = new MutableClock();
+
+    AdaptivePollingInterval interval = new AdaptivePollingInterval(
+            Duration.ofSeconds(1), Duration.ofSeconds(5), clock);
+
+    @Test
+    public void shouldBeDueInitially() {
+        assertThat(interval.isDue()).isTrue();
+        assertThat(interval.current()).isEqualTo(Duration.ofSeconds(1));
+    }
+
+    @Test
+    public void shouldBeDueImmediatelyAfterAFullPoll() {
+        interval.polled(10, 10);
+
+        assertThat(interval.current()).isEqualTo(Duration.ZERO);
+        assertThat(interval.isDue()).isTrue();
+    }
+
+    @Test
+    public void shouldDoubleIntervalAfterEachEmptyPollUpToMaximum() {
+        interval.polled(0, 10);
+        assertThat(interval.current()).isEqualTo(Duration.ofSeconds(2));
+
+        interval.polled(0, 10);
+        assertThat(interval.current()).isEqualTo(Duration.ofSeconds(4));
+
+        interval.polled(0, 10);
+        assertThat(interval.current()).isEqualTo(Duration.ofSeconds(5));
+    }
+
+    @Test
+    public void shouldBackOffFromMinimumAfterAFullPoll() {
+        interval.polled(10, 10);
+        interval.polled(0, 10);
+
+        assertThat(interval.current()).isEqualTo(Duration.ofSeconds(1));
+    }
+
+    @Test
+    public void shouldResetToMinimumAfterAPartialPoll() {
+        interval.polled(0, 10);
+        interval.polled(0, 10);
+        interval.polled(5, 10);
+
+        assertThat(interval.current()).isEqualTo(Duration.ofSeconds(1));
+    }
+
+    @Test
+    public void shouldNotBeDueUntilCurrentIntervalHasPassed() {
+        interval.polled(0, 10);
+
+        clock.advance(Duration.ofMillis(1999));
+        assertThat(interval.isDue()).isFalse();
+
+        clock.advance(Duration.ofMillis(1));
+        assertThat(interval.isDue()).isTrue();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldNotAllowMaximumLessThanMinimum() {
+        new AdaptivePollingInterval(Duration.ofSeconds(2), Duration.ofSeconds(1));
+    }
+
+    static class MutableClock extends Clock {
+        Instant instant = Instant.parse("2016-05-01T00:00:00Z");
+
+        void advance(Duration duration) {
+            instant = instant.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
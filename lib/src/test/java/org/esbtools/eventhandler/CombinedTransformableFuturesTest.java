@@ -0,0 +1,223 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.esbtools.eventhandler;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+@RunWith(JUnit4.class)
+public class CombinedTransformableFuturesTest {
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void shutdownExecutor() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void shouldCombineResultsInOrderOnceAllComplete() throws Exception {
+        CompletableFuture<Integer> first = new CompletableFuture<>();
+        SettableFuture<Integer> second = SettableFuture.create();
+
+        TransformableFuture<List<Integer>> all = TransformableFuture.allOf(Arrays.asList(
+                TransformableFuture.fromCompletionStage(first), second,
+                TransformableFuture.immediate(3)));
+
+        second.set(2);
+        assertThat(all.isDone()).isFalse();
+
+        first.complete(1);
+        assertThat(all.isDone()).isTrue();
+        assertThat(all.get()).containsExactly(1, 2, 3).inOrder();
+    }
+
+    @Test
+    public void shouldFailAllOfAsSoonAsAnyFutureFails() throws Exception {
+        IllegalStateException failure = new IllegalStateException("oops");
+        CompletableFuture<Integer> neverCompletes = new CompletableFuture<>();
+
+        TransformableFuture<List<Integer>> all = TransformableFuture.allOf(Arrays.asList(
+                TransformableFuture.fromCompletionStage(neverCompletes),
+                TransformableFuture.immediateFailed(failure)));
+
+        assertThat(all.isDone()).isTrue();
+
+        try {
+            all.get();
+            throw new AssertionError("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isSameAs(failure);
+        }
+    }
+
+    @Test
+    public void shouldUseNullResultsForFailedFuturesInSuccessfulAsList() throws Exception {
+        TransformableFuture<List<Integer>> successful = TransformableFuture.successfulAsList(
+                Arrays.asList(
+                        TransformableFuture.immediate(1),
+                        TransformableFuture.<Integer>immediateFailed(new Exception("oops")),
+                        TransformableFuture.immediate(3)));
+
+        assertThat(successful.get()).containsExactly(1, null, 3).inOrder();
+    }
+
+    @Test
+    public void shouldCompleteWithFirstFailure() throws Exception {
+        IllegalStateException failure = new IllegalStateException("oops");
+        CompletableFuture<Integer> neverCompletes = new CompletableFuture<>();
+
+        TransformableFuture<Optional<Throwable>> firstFailure = TransformableFuture.firstFailure(
+                Arrays.asList(
+                        TransformableFuture.fromCompletionStage(neverCompletes),
+                        TransformableFuture.immediateFailed(failure)));
+
+        assertThat(firstFailure.get()).isEqualTo(Optional.of(failure));
+    }
+
+    @Test
+    public void shouldCompleteWithNoFailureIfAllSucceed() throws Exception {
+        TransformableFuture<Optional<Throwable>> firstFailure = TransformableFuture.firstFailure(
+                Arrays.asList(TransformableFuture.immediate(1), TransformableFuture.immediate(2)));
+
+        assertThat(firstFailure.get()).isEqualTo(Optional.empty());
+    }
+
+    @Test
+    public void shouldCompleteImmediatelyForNoFutures() throws Exception {
+        assertThat(TransformableFuture.allOf(Collections.emptyList()).get()).isEmpty();
+    }
+
+    @Test
+    public void shouldResolveLazyAndBlockingFuturesOnGet() throws Exception {
+        TransformableFuture<String> lazy = lazyFuture("lazy");
+        Future<String> blocking = executor.submit(() -> "blocking");
+
+        TransformableFuture<List<String>> all = TransformableFuture.allOf(
+                Arrays.asList(lazy, blocking));
+
+        assertThat(all.get()).containsExactly("lazy", "blocking").inOrder();
+    }
+
+    @Test
+    public void shouldApplyOneDeadlineToTheWholeBatch() throws Exception {
+        expectedException.expect(TimeoutException.class);
+
+        List<Future<Object>> slowFutures = Arrays.asList(
+                executor.submit(() -> sleep(500)),
+                executor.submit(() -> sleep(500)),
+                executor.submit(() -> sleep(500)));
+
+        long startMillis = System.currentTimeMillis();
+
+        try {
+            TransformableFuture.successfulAsList(slowFutures).get(100, TimeUnit.MILLISECONDS);
+        } finally {
+            assertThat(System.currentTimeMillis() - startMillis).isLessThan(400L);
+        }
+    }
+
+    @Test
+    public void shouldProvideFuturesInCompletionOrder() throws Exception {
+        SettableFuture<String> first = SettableFuture.create();
+        SettableFuture<String> second = SettableFuture.create();
+
+        List<TransformableFuture<SettableFuture<String>>> inCompletionOrder =
+                TransformableFuture.inCompletionOrder(Arrays.asList(first, second));
+
+        second.set("second");
+        assertThat(inCompletionOrder.get(0).get()).isSameAs(second);
+        assertThat(inCompletionOrder.get(1).isDone()).isFalse();
+
+        first.setException(new IllegalStateException("oops"));
+        assertThat(inCompletionOrder.get(1).get()).isSameAs(first);
+    }
+
+    @Test(timeout = 5000)
+    public void shouldNotHoldUpLazyFuturesBehindSlowerOnesWhenResolvedConcurrently()
+            throws Exception {
+        CompletableFuture<String> slow = new CompletableFuture<>();
+        Future<String> slowBlocking = blockingFuture(slow);
+        TransformableFuture<String> lazy = lazyFuture("lazy");
+
+        List<TransformableFuture<Future<String>>> inCompletionOrder =
+                TransformableFuture.inCompletionOrder(Arrays.asList(slowBlocking, lazy), executor);
+
+        assertThat(inCompletionOrder.get(0).get()).isSameAs(lazy);
+
+        slow.complete("slow");
+        assertThat(inCompletionOrder.get(1).get()).isSameAs(slowBlocking);
+    }
+
+    private static Object sleep(long millis) throws InterruptedException {
+        Thread.sleep(millis);
+        return null;
+    }
+
+    /**
+     * A future which neither completes on its own nor notifies its completion, whose
+     * {@code get()} blocks until {@code result} completes.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> Future<T> blockingFuture(CompletableFuture<T> result) throws Exception {
+        Future<T> blocking = mock(Future.class);
+        when(blocking.isDone()).then(invocation -> result.isDone());
+        when(blocking.get()).then(invocation -> result.get());
+        return blocking;
+    }
+
+    /**
+     * A future which, like those from a {@link Requester}, is only completed with {@code result}
+     * once something calls {@code get()} on it.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> TransformableFuture<T> lazyFuture(T result) throws Exception {
+        CompletableFuture<T> completableFuture = new CompletableFuture<>();
+        TransformableFuture<T> lazy = mock(TransformableFuture.class);
+        when(lazy.isDone()).then(invocation -> completableFuture.isDone());
+        when(lazy.toCompletableFuture()).thenReturn(completableFuture);
+        when(lazy.get()).then(invocation -> {
+            completableFuture.complete(result);
+            return result;
+        });
+        return lazy;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.esbtools.eventhandler;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+@RunWith(JUnit4.class)
+public class CompletableTransformableFutureTest {
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    CompletableFuture<Integer> stage = new CompletableFuture<>();
+
+    TransformableFuture<Integer> future = TransformableFuture.fromCompletionStage(stage);
+
+    @Test
+    public void shouldApplyTransformsOnceStageCompletes() throws Exception {
+        TransformableFuture<String> transformed = future
+                .transformSync(n -> n + 1)
+                .transformAsync(n -> TransformableFuture.immediate("result" + n));
+
+        assertThat(transformed.isDone()).isFalse();
+
+        stage.complete(1);
+
+        assertThat(transformed.isDone()).isTrue();
+        assertThat(transformed.get()).isEqualTo("result2");
+    }
+
+    @Test
+    public void shouldResolveDeepAsyncChainsWithoutNestingFutures() throws Exception {
+        TransformableFuture<Integer> chain = future;
+
+        for (int i = 0; i < 1000; i++) {
+            chain = chain.transformAsync(n -> TransformableFuture.immediate(n + 1));
+        }
+
+        stage.complete(0);
+
+        assertThat(chain).isInstanceOf(CompletableTransformableFuture.class);
+        assertThat(chain.get()).isEqualTo(1000);
+    }
+
+    @Test
+    public void shouldTreatNullFromAsyncTransformAsNullResult() throws Exception {
+        stage.complete(1);
+
+        assertThat(future.transformAsync(n -> null).get()).isNull();
+    }
+
+    @Test
+    public void shouldFailWithExceptionThrownFromTransform() throws Exception {
+        IllegalStateException failure = new IllegalStateException("oops");
+        TransformableFuture<Integer> transformed = future.transformSync(n -> {
+            throw failure;
+        });
+
+        stage.complete(1);
+
+        try {
+            transformed.get();
+            throw new AssertionError("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isSameAs(failure);
+        }
+    }
+
+    @Test
+    public void shouldResolvePendingLazyFuturesReturnedFromTransformsOnGet() throws Exception {
+        CompletableFuture<String> lazyResult = new CompletableFuture<>();
+        TransformableFuture<String> lazy = lazyFuture(lazyResult, "lazy");
+
+        TransformableFuture<String> transformed = future.transformAsync(n -> lazy);
+
+        stage.complete(1);
+
+        assertThat(transformed.isDone()).isFalse();
+        assertThat(transformed.get()).isEqualTo("lazy");
+    }
+
+    @Test
+    public void shouldRunDoneCallbacksWhenCompleted() throws Exception {
+        List<String> callbacks = new ArrayList<>();
+
+        future.transformSync(n -> n + 1)
+                .whenDoneOrCancelled(() -> callbacks.add("done"));
+
+        assertThat(callbacks).isEmpty();
+
+        stage.complete(1);
+
+        assertThat(callbacks).containsExactly("done");
+    }
+
+    @Test
+    public void shouldCancelBackingStage() {
+        future.cancel(false);
+
+        assertThat(stage.isCancelled()).isTrue();
+    }
+
+    @Test
+    public void shouldTimeOutIfStageDoesNotCompleteInTime() throws Exception {
+        expectedException.expect(TimeoutException.class);
+
+        future.transformSync(n -> n + 1).get(10, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void shouldConvertImmediateFuturesToCompletableFutures() throws Exception {
+        assertThat(TransformableFuture.immediate(1).toCompletableFuture().get()).isEqualTo(1);
+
+        IllegalStateException failure = new IllegalStateException("oops");
+        CompletableFuture<Object> failed =
+                TransformableFuture.immediateFailed(failure).toCompletableFuture();
+
+        assertThat(failed.isCompletedExceptionally()).isTrue();
+        try {
+            failed.get();
+            throw new AssertionError("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isSameAs(failure);
+        }
+    }
+
+    @Test
+    public void shouldCompleteCompletableFutureOfNestedFutureWhenNestedFutureCompletes()
+            throws Exception {
+        CompletableFuture<Integer> completableFuture = new NestedTransformableFuture<>(
+                TransformableFuture.immediate(TransformableFuture.immediate(5)))
+                .toCompletableFuture();
+
+        assertThat(completableFuture.get()).isEqualTo(5);
+    }
+
+    /**
+     * A future which, like those from a {@link Requester}, is only completed with {@code result}
+     * once something calls {@code get()} on it.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> TransformableFuture<T> lazyFuture(CompletableFuture<T> completableFuture,
+            T result) throws Exception {
+        TransformableFuture<T> lazy = mock(TransformableFuture.class);
+        when(lazy.isDone()).then(invocation -> completableFuture.isDone());
+        when(lazy.toCompletableFuture()).thenReturn(completableFuture);
+        when(lazy.get()).then(invocation -> {
+            completableFuture.complete(result);
+            return result;
+        });
+        return lazy;
+    }
+}
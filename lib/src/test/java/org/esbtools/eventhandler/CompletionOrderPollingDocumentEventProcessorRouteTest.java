@@ -0,0 +1,227 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.esbtools.eventhandler;
+
+import static org.esbtools.eventhandler.PollingDocumentEventProcessorRouteTest.randomFailingEvents;
+import static org.esbtools.eventhandler.PollingDocumentEventProcessorRouteTest.randomSuccessfulEvents;
+
+import com.google.common.truth.Truth;
+import com.google.common.util.concurrent.SettableFuture;
+import com.jayway.awaitility.Awaitility;
+import org.apache.camel.EndpointInject;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.mock.MockEndpoint;
+import org.apache.camel.test.junit4.CamelTestSupport;
+import org.esbtools.eventhandler.testing.SimpleInMemoryDocumentEventRepository;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class CompletionOrderPollingDocumentEventProcessorRouteTest extends CamelTestSupport {
+    SimpleInMemoryDocumentEventRepository documentEventRepository = new SimpleInMemoryDocumentEventRepository();
+
+    @EndpointInject(uri = "mock:documents")
+    MockEndpoint documentEndpoint;
+
+    @EndpointInject(uri = "mock:failures")
+    MockEndpoint failureEndpoint;
+
+    @Override
+    protected RouteBuilder createRouteBuilder() throws Exception {
+        return PollingDocumentEventProcessorRoute
+                .builder(documentEventRepository, "mock:documents", "mock:failures")
+                .pollingInterval(Duration.ofMillis(100))
+                .batchSize(10)
+                .routeId("documentEventProcessor-completionOrder")
+                .lookupWindow(new DocumentLookupWindow(10, true))
+                .build();
+    }
+
+    @Test
+    public void shouldPublishDocumentsAndFailuresAndMarkEventsPublished() throws Exception {
+        documentEndpoint.expectedMessageCount(6);
+        failureEndpoint.expectedMessageCount(4);
+
+        List<DocumentEvent> events = new ArrayList<>(10);
+        events.addAll(randomFailingEvents(4));
+        events.addAll(randomSuccessfulEvents(6));
+
+        documentEventRepository.addNewDocumentEvents(events);
+
+        documentEndpoint.assertIsSatisfied();
+        failureEndpoint.assertIsSatisfied();
+
+        Awaitility.await().atMost(5, TimeUnit.SECONDS)
+                .until(documentEventRepository::getPublishedEvents, Matchers.hasSize(6));
+        Truth.assertThat(documentEventRepository.getFailedEvents()).hasSize(4);
+    }
+
+    @Test(timeout = 10000)
+    public void shouldPublishDocumentsWithoutWaitingForSlowerLookups() throws Exception {
+        SlowDocumentEvent slowEvent = new SlowDocumentEvent("slow");
+        List<DocumentEvent> events = new ArrayList<>(6);
+        events.add(slowEvent);
+        events.addAll(randomSuccessfulEvents(5));
+
+        documentEndpoint.expectedMessageCount(5);
+
+        documentEventRepository.addNewDocumentEvents(events);
+
+        documentEndpoint.assertIsSatisfied();
+
+        documentEndpoint.reset();
+        documentEndpoint.expectedBodiesReceived("slow");
+
+        slowEvent.document.set("slow");
+
+        documentEndpoint.assertIsSatisfied();
+    }
+
+    @Test(timeout = 10000)
+    public void shouldNotWaitForSlowerLookupsWhichOnlyCompleteOnceWaitedOn() throws Exception {
+        CompletableFuture<String> slowDocument = new CompletableFuture<>();
+        List<DocumentEvent> events = new ArrayList<>(6);
+        events.add(new WaitedOnDocumentEvent(slowDocument));
+        for (int i = 0; i < 5; i++) {
+            events.add(new WaitedOnDocumentEvent(
+                    CompletableFuture.completedFuture(UUID.randomUUID().toString())));
+        }
+
+        documentEndpoint.expectedMessageCount(5);
+
+        documentEventRepository.addNewDocumentEvents(events);
+
+        documentEndpoint.assertIsSatisfied();
+
+        documentEndpoint.reset();
+        documentEndpoint.expectedBodiesReceived("slow");
+
+        slowDocument.complete("slow");
+
+        documentEndpoint.assertIsSatisfied();
+    }
+
+    /**
+     * Looks up documents with futures which, like those from a {@link Requester}, are not
+     * {@link com.google.common.util.concurrent.ListenableFuture}s and only complete once something
+     * waits on them. Waiting blocks until the provided document is done.
+     */
+    static class WaitedOnDocumentEvent implements DocumentEvent {
+        private final CompletableFuture<String> document;
+
+        WaitedOnDocumentEvent(CompletableFuture<String> document) {
+            this.document = document;
+        }
+
+        @Override
+        public Future<?> lookupDocument() {
+            AtomicBoolean waitedOn = new AtomicBoolean(false);
+
+            return new Future<String>() {
+                @Override
+                public boolean cancel(boolean mayInterruptIfRunning) {
+                    return false;
+                }
+
+                @Override
+                public boolean isCancelled() {
+                    return false;
+                }
+
+                @Override
+                public boolean isDone() {
+                    return waitedOn.get() && document.isDone();
+                }
+
+                @Override
+                public String get() throws InterruptedException, ExecutionException {
+                    waitedOn.set(true);
+                    return document.get();
+                }
+
+                @Override
+                public String get(long timeout, TimeUnit unit) throws InterruptedException,
+                        ExecutionException, TimeoutException {
+                    waitedOn.set(true);
+                    return document.get(timeout, unit);
+                }
+            };
+        }
+
+        @Override
+        public boolean isSupersededBy(DocumentEvent event) {
+            return false;
+        }
+
+        @Override
+        public boolean couldMergeWith(DocumentEvent event) {
+            return false;
+        }
+
+        @Override
+        public DocumentEvent merge(DocumentEvent event) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    static class SlowDocumentEvent implements DocumentEvent {
+        final SettableFuture<String> document = SettableFuture.create();
+        private final String value;
+
+        SlowDocumentEvent(String value) {
+            this.value = value;
+        }
+
+        @Override
+        public Future<?> lookupDocument() {
+            return document;
+        }
+
+        @Override
+        public boolean isSupersededBy(DocumentEvent event) {
+            return false;
+        }
+
+        @Override
+        public boolean couldMergeWith(DocumentEvent event) {
+            return false;
+        }
+
+        @Override
+        public DocumentEvent merge(DocumentEvent event) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String toString() {
+            return "SlowDocumentEvent{" +
+                    "value='" + value + '\'' +
+                    '}';
+        }
+    }
+}
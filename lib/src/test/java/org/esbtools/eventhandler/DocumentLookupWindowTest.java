@@ -0,0 +1,73 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.esbtools.eventhandler;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class DocumentLookupWindowTest {
+    DocumentLookupWindow window = new DocumentLookupWindow(10, 1000,
+            document -> ((String) document).length());
+
+    @Test
+    public void shouldStartAtMaxLookups() {
+        assertThat(window.current()).isEqualTo(10);
+    }
+
+    @Test
+    public void shouldShrinkToFitByteBudgetBasedOnAverageDocumentSize() {
+        window.lookedUp(10, 2500);
+
+        assertThat(window.current()).isEqualTo(4);
+    }
+
+    @Test
+    public void shouldNotGrowBeyondMaxLookups() {
+        window.lookedUp(10, 10);
+
+        assertThat(window.current()).isEqualTo(10);
+    }
+
+    @Test
+    public void shouldAlwaysLookUpAtLeastOneDocument() {
+        window.lookedUp(1, 5000);
+
+        assertThat(window.current()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldNotChangeIfNoDocumentsWereLookedUp() {
+        window.lookedUp(1, 5000);
+        window.lookedUp(0, 0);
+
+        assertThat(window.current()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldOnlyLimitByCountWithoutByteBudget() {
+        DocumentLookupWindow countOnly = new DocumentLookupWindow(10);
+
+        countOnly.lookedUp(10, 0);
+
+        assertThat(countOnly.current()).isEqualTo(10);
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.esbtools.eventhandler;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.truth.Truth;
+import org.apache.camel.EndpointInject;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.builder.RouteBuilder;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.stubbing.Answer;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+/**
+ * Runs all of the {@link AsyncBatchMessageProcessorRouteTest} tests against non blocking routes,
+ * in addition to some specific to non blocking routes.
+ */
+@RunWith(JUnit4.class)
+public class NonBlockingAsyncBatchMessageProcessorRouteTest
+        extends AsyncBatchMessageProcessorRouteTest {
+
+    @EndpointInject(uri = "direct:batch_timeout")
+    ProducerTemplate toBatchTimeout;
+
+    @EndpointInject(uri = "direct:lazy")
+    ProducerTemplate toLazy;
+
+    @Override
+    protected RouteBuilder[] createRouteBuilders() throws Exception {
+        return new RouteBuilder[]{
+                new AsyncBatchMessageProcessorRoute("direct:incoming", "mock:failures",
+                        Duration.ofMinutes(1), messageFactory, true),
+                new AsyncBatchMessageProcessorRoute("direct:short_timeout", "mock:failures",
+                        Duration.ofMillis(1), messageFactory, true),
+                new AsyncBatchMessageProcessorRoute("direct:batch_timeout", "mock:failures",
+                        Duration.ofMillis(500), messageFactory, true),
+                new AsyncBatchMessageProcessorRoute("direct:lazy", "mock:failures",
+                        Duration.ofMinutes(1), body -> new LazyMessage(), true)
+        };
+    }
+
+    @Test(timeout = 1500L)
+    public void shouldTimeOutWholeBatchAtOnceRatherThanEachMessageInTurn() throws Exception {
+        toFailures.expectedMessageCount(1);
+
+        toBatchTimeout.sendBody(Arrays.asList(Duration.ofSeconds(5), Duration.ofSeconds(5),
+                Duration.ofSeconds(5), Duration.ofSeconds(5)));
+
+        toFailures.assertIsSatisfied();
+
+        Collection<?> failures = toFailures.getExchanges().get(0).getIn()
+                .getMandatoryBody(Collection.class);
+
+        Truth.assertThat(failures.stream()
+                .map(FailedMessage.class::cast)
+                .map(FailedMessage::exception)
+                .map(Object::getClass)
+                .collect(Collectors.toList()))
+                .containsExactly(TimeoutException.class, TimeoutException.class,
+                        TimeoutException.class, TimeoutException.class);
+    }
+
+    @Test(timeout = 1500L)
+    public void shouldNotWaitForBatchTimeoutIfAllMessagesFinishFirst() throws Exception {
+        toFailures.expectedMessageCount(1);
+
+        long start = System.nanoTime();
+        toBatchTimeout.sendBody(Arrays.asList(Duration.ofMillis(10), Duration.ofMillis(20)));
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+
+        toFailures.assertIsSatisfied();
+
+        Truth.assertThat(elapsed).isLessThan(Duration.ofMillis(400));
+
+        Truth.assertThat(toFailures.getExchanges().get(0).getIn()
+                .getMandatoryBody(Collection.class)).isEmpty();
+    }
+
+    @Test(timeout = 1500L)
+    public void shouldResolveFuturesWhichOnlyCompleteOnceWaitedOn() throws Exception {
+        toFailures.expectedMessageCount(1);
+
+        toLazy.sendBody(Arrays.asList("lazy", "lazy", "lazy"));
+
+        toFailures.assertIsSatisfied();
+
+        Truth.assertThat(toFailures.getExchanges().get(0).getIn()
+                .getMandatoryBody(Collection.class)).isEmpty();
+    }
+
+    /**
+     * Processes with a future which, like those from a {@link Requester}, is only completed once
+     * something waits on it.
+     */
+    static class LazyMessage implements Message {
+        @Override
+        public Future<Void> process() {
+            try {
+                return lazyFuture();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private static TransformableFuture<Void> lazyFuture() throws Exception {
+            CompletableFuture<Void> result = new CompletableFuture<>();
+            TransformableFuture<Void> lazy = mock(TransformableFuture.class);
+            Answer<Void> complete = invocation -> {
+                result.complete(null);
+                return null;
+            };
+
+            when(lazy.isDone()).then(invocation -> result.isDone());
+            when(lazy.toCompletableFuture()).thenReturn(result);
+            when(lazy.get()).then(complete);
+            when(lazy.get(anyLong(), any(TimeUnit.class))).then(complete);
+            when(lazy.whenDoneOrCancelled(any(FutureDoneCallback.class))).then(invocation -> {
+                FutureDoneCallback callback = (FutureDoneCallback) invocation.getArguments()[0];
+                result.whenComplete((ignored, failure) -> {
+                    try {
+                        callback.onDoneOrCancelled();
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+                return lazy;
+            });
+
+            return lazy;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.esbtools.eventhandler;
+
+import static org.esbtools.eventhandler.PollingDocumentEventProcessorRouteTest.randomFailingEvents;
+import static org.esbtools.eventhandler.PollingDocumentEventProcessorRouteTest.randomSuccessfulEvents;
+
+import com.google.common.truth.Truth;
+import com.jayway.awaitility.Awaitility;
+import org.apache.camel.EndpointInject;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.mock.MockEndpoint;
+import org.apache.camel.test.junit4.CamelTestSupport;
+import org.esbtools.eventhandler.testing.SimpleInMemoryDocumentEventRepository;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class PipelinedPollingDocumentEventProcessorRouteTest extends CamelTestSupport {
+    SimpleInMemoryDocumentEventRepository documentEventRepository = new SimpleInMemoryDocumentEventRepository();
+
+    @EndpointInject(uri = "mock:documents")
+    MockEndpoint documentEndpoint;
+
+    @EndpointInject(uri = "mock:failures")
+    MockEndpoint failureEndpoint;
+
+    @Override
+    protected RouteBuilder createRouteBuilder() throws Exception {
+        return PollingDocumentEventProcessorRoute
+                .builder(documentEventRepository, "mock:documents", "mock:failures")
+                .pollingInterval(Duration.ofMillis(100))
+                .batchSize(10)
+                .routeId("documentEventProcessor-pipelined")
+                .maxInFlightBatches(2)
+                .build();
+    }
+
+    @Test
+    public void shouldPublishDocumentsAndFailuresAndMarkEventsPublished() throws Exception {
+        documentEndpoint.expectedMessageCount(26);
+        failureEndpoint.expectedMessageCount(4);
+
+        documentEventRepository.addNewDocumentEvents(randomSuccessfulEvents(26));
+        documentEventRepository.addNewDocumentEvents(randomFailingEvents(4));
+
+        documentEndpoint.assertIsSatisfied();
+        failureEndpoint.assertIsSatisfied();
+
+        Awaitility.await().atMost(5, TimeUnit.SECONDS)
+                .until(documentEventRepository::getPublishedEvents, Matchers.hasSize(26));
+        Truth.assertThat(documentEventRepository.getFailedEvents()).hasSize(4);
+    }
+
+    @Test(timeout = 10000)
+    public void shouldRetrieveNextBatchWhilePreviousBatchIsPublishing() throws Exception {
+        CountDownLatch publishing = new CountDownLatch(1);
+        CountDownLatch allowPublish = new CountDownLatch(1);
+
+        documentEndpoint.whenAnyExchangeReceived(exchange -> {
+            publishing.countDown();
+            allowPublish.await();
+        });
+
+        documentEventRepository.addNewDocumentEvents(randomSuccessfulEvents(10));
+        publishing.await();
+        documentEventRepository.addNewDocumentEvents(randomSuccessfulEvents(10));
+
+        try {
+            Awaitility.await().atMost(5, TimeUnit.SECONDS)
+                    .until(documentEventRepository::getDocumentEvents, Matchers.empty());
+        } finally {
+            allowPublish.countDown();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void shouldNotRetrieveMoreThanMaxInFlightBatches() throws Exception {
+        CountDownLatch publishing = new CountDownLatch(1);
+        CountDownLatch allowPublish = new CountDownLatch(1);
+
+        documentEndpoint.whenAnyExchangeReceived(exchange -> {
+            publishing.countDown();
+            allowPublish.await();
+        });
+
+        documentEventRepository.addNewDocumentEvents(randomSuccessfulEvents(10));
+        publishing.await();
+        documentEventRepository.addNewDocumentEvents(randomSuccessfulEvents(20));
+
+        try {
+            Awaitility.await().atMost(5, TimeUnit.SECONDS)
+                    .until(documentEventRepository::getDocumentEvents, Matchers.hasSize(10));
+            Thread.sleep(1000);
+            Truth.assertThat(documentEventRepository.getDocumentEvents()).hasSize(10);
+        } finally {
+            allowPublish.countDown();
+        }
+
+        Awaitility.await().atMost(5, TimeUnit.SECONDS)
+                .until(documentEventRepository::getDocumentEvents, Matchers.empty());
+    }
+}
@@ -115,6 +115,54 @@ public class PollingDocumentEventProcessorRouteTest extends CamelTestSupport {
                 .until(documentEventRepository::getPublishedEvents, Matchers.hasSize(5));
     }
 
+    @Test
+    public void shouldMarkEventsAsPublishedInBulk() throws Exception {
+        documentEndpoint.expectedMessageCount(10);
+
+        documentEventRepository.addNewDocumentEvents(randomSuccessfulEvents(10));
+
+        Awaitility.await().atMost(5, TimeUnit.SECONDS)
+                .until(documentEventRepository::getPublishedEvents, Matchers.hasSize(10));
+        Truth.assertThat(documentEventRepository.getPublishedUpdateCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldPublishDocumentsInTheOrderTheirEventsWereRetrieved() throws Exception {
+        List<String> documents = new ArrayList<>(10);
+        List<StringDocumentEvent> events = new ArrayList<>(10);
+        for (int i = 0; i < 10; i++) {
+            String document = UUID.randomUUID().toString();
+            documents.add(document);
+            events.add(new StringDocumentEvent(document));
+        }
+
+        documentEndpoint.expectedBodiesReceived(documents);
+
+        documentEventRepository.addNewDocumentEvents(events);
+
+        documentEndpoint.assertIsSatisfied();
+    }
+
+    @Test(timeout = 10000)
+    public void shouldMarkEventsAsPublishedOnceOldEnoughEvenIfRestOfBatchIsStillPublishing()
+            throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+
+        documentEndpoint.whenExchangeReceived(2, exchange -> release.await());
+
+        documentEventRepository.addNewDocumentEvents(randomSuccessfulEvents(2));
+
+        try {
+            Awaitility.await().atMost(5, TimeUnit.SECONDS)
+                    .until(documentEventRepository::getPublishedEvents, Matchers.hasSize(1));
+        } finally {
+            release.countDown();
+        }
+
+        Awaitility.await().atMost(5, TimeUnit.SECONDS)
+                .until(documentEventRepository::getPublishedEvents, Matchers.hasSize(2));
+    }
+
     @Test(timeout = 10000)
     // Eventually this should be "shouldRollBackEventsWherePublishFailed"
     // See: https://github.com/esbtools/event-handler/issues/18
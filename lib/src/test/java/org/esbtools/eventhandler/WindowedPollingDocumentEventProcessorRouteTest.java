@@ -0,0 +1,204 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.esbtools.eventhandler;
+
+import static org.esbtools.eventhandler.PollingDocumentEventProcessorRouteTest.randomFailingEvents;
+
+import com.google.common.truth.Truth;
+import com.google.common.util.concurrent.Futures;
+import com.jayway.awaitility.Awaitility;
+import org.apache.camel.EndpointInject;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.mock.MockEndpoint;
+import org.apache.camel.test.junit4.CamelTestSupport;
+import org.esbtools.eventhandler.testing.SimpleInMemoryDocumentEventRepository;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class WindowedPollingDocumentEventProcessorRouteTest extends CamelTestSupport {
+    SimpleInMemoryDocumentEventRepository documentEventRepository = new SimpleInMemoryDocumentEventRepository();
+    SimpleInMemoryDocumentEventRepository tieredDocumentEventRepository = new SimpleInMemoryDocumentEventRepository();
+
+    AtomicInteger lookups = new AtomicInteger(0);
+
+    @EndpointInject(uri = "mock:documents")
+    MockEndpoint documentEndpoint;
+
+    @EndpointInject(uri = "mock:tieredDocuments")
+    MockEndpoint tieredDocumentEndpoint;
+
+    @EndpointInject(uri = "mock:failures")
+    MockEndpoint failureEndpoint;
+
+    @Override
+    protected RouteBuilder[] createRouteBuilders() throws Exception {
+        return new RouteBuilder[] {
+                PollingDocumentEventProcessorRoute
+                        .builder(documentEventRepository, "mock:documents", "mock:failures")
+                        .pollingInterval(Duration.ofMillis(100))
+                        .batchSize(10)
+                        .routeId("documentEventProcessor-windowed")
+                        .lookupWindow(new DocumentLookupWindow(3))
+                        .build(),
+                PollingDocumentEventProcessorRoute
+                        .builder(tieredDocumentEventRepository, "mock:tieredDocuments",
+                                "mock:failures")
+                        .pollingInterval(Duration.ofMillis(100))
+                        .batchSize(10)
+                        .routeId("documentEventProcessor-tiered")
+                        .lookupWindow(new DocumentLookupWindow(3))
+                        .lookupWindowsWithinPriorityTiers(true)
+                        .build()
+        };
+    }
+
+    @Test
+    public void shouldPublishDocumentsAndFailuresAndMarkEventsPublished() throws Exception {
+        documentEndpoint.expectedMessageCount(6);
+        failureEndpoint.expectedMessageCount(4);
+
+        List<DocumentEvent> events = new ArrayList<>(10);
+        events.addAll(countedEvents(6));
+        events.addAll(randomFailingEvents(4));
+
+        documentEventRepository.addNewDocumentEvents(events);
+
+        documentEndpoint.assertIsSatisfied();
+        failureEndpoint.assertIsSatisfied();
+
+        Awaitility.await().atMost(5, TimeUnit.SECONDS)
+                .until(documentEventRepository::getPublishedEvents, Matchers.hasSize(6));
+        Truth.assertThat(documentEventRepository.getFailedEvents()).hasSize(4);
+    }
+
+    @Test
+    public void shouldOnlyLookUpOneWindowOfDocumentsBeforePublishing() throws Exception {
+        List<Integer> lookupsWhenPublished = new ArrayList<>();
+
+        documentEndpoint.expectedMessageCount(9);
+        documentEndpoint.whenAnyExchangeReceived(exchange ->
+                lookupsWhenPublished.add(lookups.get()));
+
+        documentEventRepository.addNewDocumentEvents(countedEvents(9));
+
+        documentEndpoint.assertIsSatisfied();
+
+        Truth.assertThat(lookupsWhenPublished)
+                .containsExactly(3, 3, 3, 6, 6, 6, 9, 9, 9)
+                .inOrder();
+    }
+
+    @Test
+    public void shouldFillWindowsAcrossPriorityTiersByDefault() throws Exception {
+        List<Integer> lookupsWhenPublished = new ArrayList<>();
+
+        documentEndpoint.expectedMessageCount(6);
+        documentEndpoint.whenAnyExchangeReceived(exchange ->
+                lookupsWhenPublished.add(lookups.get()));
+
+        List<DocumentEvent> events = new ArrayList<>(6);
+        events.addAll(countedEvents(2, 2));
+        events.addAll(countedEvents(4, 1));
+
+        documentEventRepository.addNewDocumentEvents(events);
+
+        documentEndpoint.assertIsSatisfied();
+
+        Truth.assertThat(lookupsWhenPublished)
+                .containsExactly(3, 3, 3, 6, 6, 6)
+                .inOrder();
+    }
+
+    @Test
+    public void shouldNotLookUpLowerPriorityTierUntilHigherTierIsPublishedIfWindowsWithinTiers()
+            throws Exception {
+        List<Integer> lookupsWhenPublished = new ArrayList<>();
+
+        tieredDocumentEndpoint.expectedMessageCount(6);
+        tieredDocumentEndpoint.whenAnyExchangeReceived(exchange ->
+                lookupsWhenPublished.add(lookups.get()));
+
+        List<DocumentEvent> events = new ArrayList<>(6);
+        events.addAll(countedEvents(2, 2));
+        events.addAll(countedEvents(4, 1));
+
+        tieredDocumentEventRepository.addNewDocumentEvents(events);
+
+        tieredDocumentEndpoint.assertIsSatisfied();
+
+        Truth.assertThat(lookupsWhenPublished)
+                .containsExactly(2, 2, 5, 5, 5, 6)
+                .inOrder();
+    }
+
+    List<DocumentEvent> countedEvents(int amount) {
+        return countedEvents(amount, 0);
+    }
+
+    List<DocumentEvent> countedEvents(int amount, int priority) {
+        List<DocumentEvent> events = new ArrayList<>(amount);
+        for (int i = 0; i < amount; i++) {
+            events.add(new CountedDocumentEvent(UUID.randomUUID().toString(), priority));
+        }
+        return events;
+    }
+
+    class CountedDocumentEvent implements PrioritizedDocumentEvent {
+        private final String value;
+        private final int priority;
+
+        CountedDocumentEvent(String value, int priority) {
+            this.value = value;
+            this.priority = priority;
+        }
+
+        @Override
+        public int priority() {
+            return priority;
+        }
+
+        @Override
+        public Future<?> lookupDocument() {
+            lookups.incrementAndGet();
+            return Futures.immediateFuture(value);
+        }
+
+        @Override
+        public boolean isSupersededBy(DocumentEvent event) {
+            return false;
+        }
+
+        @Override
+        public boolean couldMergeWith(DocumentEvent event) {
+            return false;
+        }
+
+        @Override
+        public DocumentEvent merge(DocumentEvent event) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
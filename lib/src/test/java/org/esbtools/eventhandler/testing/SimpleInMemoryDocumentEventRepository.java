@@ -26,11 +26,13 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class SimpleInMemoryDocumentEventRepository implements DocumentEventRepository {
     private final List<DocumentEvent> documentEvents = Collections.synchronizedList(new ArrayList<>());
     private final List<DocumentEvent> published = Collections.synchronizedList(new ArrayList<>());
     private final List<FailedDocumentEvent> failed = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger publishedUpdates = new AtomicInteger(0);
     private boolean failOnAddingDocumentEvents;
     private boolean considerNoTransactionsActive;
 
@@ -46,6 +48,11 @@ public class SimpleInMemoryDocumentEventRepository implements DocumentEventRepos
         return failed;
     }
 
+    /** The number of times any events were marked published. */
+    public int getPublishedUpdateCount() {
+        return publishedUpdates.get();
+    }
+
     public void failOnAddingDocumentEvents() {
         failOnAddingDocumentEvents = true;
     }
@@ -88,6 +95,10 @@ public class SimpleInMemoryDocumentEventRepository implements DocumentEventRepos
     public void markDocumentEventsPublishedOrFailed(
             Collection<? extends DocumentEvent> events,
             Collection<FailedDocumentEvent> failures) throws Exception {
+        if (!events.isEmpty()) {
+            publishedUpdates.incrementAndGet();
+        }
+
         published.addAll(events);
         failed.addAll(failures);
     }
@@ -43,7 +43,8 @@ import java.util.Set;
  * Serialization-friendly "data object" for an entity in the documentEvent collection.
  */
 @EntityName(DocumentEventEntity.ENTITY_NAME)
-@Version(value = "0.1.0", preferImplementationVersion = false, changelog = "Initial release")
+@Version(value = "0.2.0", preferImplementationVersion = false,
+        changelog = "Adds shard, to partition document events among nodes")
 public class DocumentEventEntity {
     public static final String ENTITY_NAME = "documentEvent";
     public static final String VERSION = Version.FromAnnotation.onEntity(DocumentEventEntity.class);
@@ -58,6 +59,7 @@ public class DocumentEventEntity {
     private ZonedDateTime processedDate;
     private Set<String> survivorOfIds;
     private String sourceNotificationId;
+    private Integer shard;
 
     private static final String LIGHTBLUE_DATE_FORMAT = ClientConstants.LIGHTBLUE_DATE_FORMAT_STR;
 
@@ -197,6 +199,17 @@ public class DocumentEventEntity {
         this.sourceNotificationId = sourceNotificationId;
     }
 
+    public Integer getShard() {
+        return shard;
+    }
+
+    @Description("Partition of document events, derived from the event's identity, which only " +
+            "the node currently leasing it retrieves. Null if the event was inserted without " +
+            "sharding, in which case it belongs to shard 0.")
+    public void setShard(Integer shard) {
+        this.shard = shard;
+    }
+
     @Override
     public String toString() {
         return "DocumentEventEntity{" +
@@ -210,6 +223,7 @@ public class DocumentEventEntity {
                 ", processedDate=" + processedDate +
                 ", survivorOfIds=" + survivorOfIds +
                 ", sourceNotificationId='" + sourceNotificationId + '\'' +
+                ", shard=" + shard +
                 '}';
     }
 
@@ -227,13 +241,14 @@ public class DocumentEventEntity {
                 Objects.equals(processingDate, that.processingDate) &&
                 Objects.equals(processedDate, that.processedDate) &&
                 Objects.equals(survivorOfIds, that.survivorOfIds) &&
-                Objects.equals(sourceNotificationId, that.sourceNotificationId);
+                Objects.equals(sourceNotificationId, that.sourceNotificationId) &&
+                Objects.equals(shard, that.shard);
     }
 
     @Override
     public int hashCode() {
         return Objects.hash(_id, canonicalType, parameters, status, priority, creationDate,
-                processingDate, processedDate, survivorOfIds, sourceNotificationId);
+                processingDate, processedDate, survivorOfIds, sourceNotificationId, shard);
     }
 
     public enum Status {
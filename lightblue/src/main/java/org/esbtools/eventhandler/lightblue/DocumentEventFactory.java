@@ -18,9 +18,25 @@
 
 package org.esbtools.eventhandler.lightblue;
 
+import org.esbtools.eventhandler.lightblue.client.FindRequests;
 import org.esbtools.eventhandler.lightblue.client.LightblueRequester;
 
+import java.util.Optional;
+import java.util.Set;
+
 public interface DocumentEventFactory {
     LightblueDocumentEvent getDocumentEventForEntity(DocumentEventEntity entity,
             LightblueRequester requester);
+
+    /**
+     * The fields of {@link DocumentEventEntity} which this factory's document events read, such
+     * as {@code parameters}, in addition to the
+     * {@link FindRequests#DOCUMENT_EVENT_BOOKKEEPING_FIELDS bookkeeping fields} which are always
+     * retrieved. Each field is retrieved along with everything nested under it.
+     *
+     * <p>If no fields are provided (the optional is empty), entire entities are retrieved.
+     */
+    default Optional<Set<String>> getRequiredEntityFields() {
+        return Optional.empty();
+    }
 }
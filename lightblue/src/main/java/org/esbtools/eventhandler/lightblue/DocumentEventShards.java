@@ -0,0 +1,326 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler.lightblue;
+
+import org.esbtools.eventhandler.lightblue.locking.LightblueAutoPingLockStrategy;
+import org.esbtools.eventhandler.lightblue.locking.LockNotAvailableException;
+import org.esbtools.eventhandler.lightblue.locking.LockStrategy;
+import org.esbtools.eventhandler.lightblue.locking.LockedResource;
+import org.esbtools.eventhandler.lightblue.locking.LostLockException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Partitions document events among nodes, so that each node only retrieves events of the shards
+ * it owns, rather than every node racing to lock the same highest priority events.
+ *
+ * <p>Each event is assigned a shard from a hash of its
+ * {@link LightblueDocumentEvent#identity() identity} when it is inserted, so events which share
+ * an identity, and so would contend for the same lock, always share a shard. Events inserted
+ * without a shard, such as those inserted before sharding was enabled, belong to shard 0.
+ *
+ * <p>Shards are leased by locking them through a {@link LockStrategy}. Each node also locks one of
+ * {@code maxNodes} membership slots, which lets nodes count each other and claim only a fair
+ * share of the shards. Once per rebalance interval, a node {@link #rebalance() rebalances}: it
+ * counts nodes, releases shards past its fair share, so that joining nodes may claim them, and
+ * claims unowned shards up to its fair share, such as those of a node which died. Between
+ * rebalances, it keeps its node count and shards, only dropping shards whose leases it lost. A
+ * node's leases are only freed when it dies if the lock strategy expires locks, as
+ * {@link LightblueAutoPingLockStrategy} does.
+ *
+ * <p>Counting nodes briefly locks every free membership slot, and claiming shards may try to lock
+ * every shard, so the rebalance interval trades how quickly shards move to joining nodes, or away
+ * from dead ones, against lock traffic. For the same reason, keep the shard count modest, like a
+ * small multiple of the node count. Every node which inserts document events must use the same
+ * shard count.
+ *
+ * <p>Thread safe.
+ */
+public class DocumentEventShards implements Closeable {
+    private final LockStrategy lockStrategy;
+    private final int shardCount;
+    private final int maxNodes;
+    private final long rebalanceIntervalNanos;
+
+    private @Nullable LockedResource<String> membership;
+    private int membershipSlot = -1;
+    private final SortedMap<Integer, LockedResource<String>> ownedShards = new TreeMap<>();
+    private boolean rebalanced = false;
+    private long lastRebalancedNanos;
+    /**
+     * Free membership slots which were locked to count nodes, but could not be released. These
+     * are not other nodes, so are not counted as such, and are released again next count.
+     */
+    private final Map<Integer, LockedResource<String>> unreleasedProbes = new HashMap<>();
+
+    /**
+     * How often nodes rebalance when no interval is provided.
+     */
+    public static final Duration DEFAULT_REBALANCE_INTERVAL = Duration.ofMinutes(1);
+
+    private static final Logger logger = LoggerFactory.getLogger(DocumentEventShards.class);
+
+    /**
+     * @param lockStrategy Used to lease shards and membership slots. Should be shared by every
+     *                     node, like the strategy used to lock document events.
+     * @param shardCount How many shards to partition document events into.
+     * @param maxNodes The most nodes which may share the shards. Nodes past this many own no
+     *                 shards, and so retrieve no document events.
+     * @see #DocumentEventShards(LockStrategy, int, int, Duration)
+     */
+    public DocumentEventShards(LockStrategy lockStrategy, int shardCount, int maxNodes) {
+        this(lockStrategy, shardCount, maxNodes, DEFAULT_REBALANCE_INTERVAL);
+    }
+
+    /**
+     * @param rebalanceInterval How long to keep the node count and owned shards before
+     *                          rebalancing again. {@link Duration#ZERO} rebalances on every call
+     *                          to {@link #rebalance()}.
+     */
+    public DocumentEventShards(LockStrategy lockStrategy, int shardCount, int maxNodes,
+            Duration rebalanceInterval) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("shardCount must be positive but was: " +
+                    shardCount);
+        }
+
+        if (maxNodes < 1) {
+            throw new IllegalArgumentException("maxNodes must be positive but was: " + maxNodes);
+        }
+
+        this.lockStrategy = lockStrategy;
+        this.shardCount = shardCount;
+        this.maxNodes = maxNodes;
+        this.rebalanceIntervalNanos = rebalanceInterval.toNanos();
+    }
+
+    public int shardCount() {
+        return shardCount;
+    }
+
+    public int shardOf(Identity identity) {
+        // String hash codes are specified, so every node computes the same shard.
+        return Math.floorMod(identity.getResourceId().hashCode(), shardCount);
+    }
+
+    /**
+     * If the rebalance interval has elapsed since the last rebalance, releases shards past this
+     * node's fair share and claims unowned shards up to it. Otherwise, only drops shards whose
+     * leases were lost.
+     *
+     * @return The shards this node owns afterwards, which may be none.
+     */
+    public synchronized Set<Integer> rebalance() {
+        long nowNanos = System.nanoTime();
+
+        if (rebalanced && nowNanos - lastRebalancedNanos < rebalanceIntervalNanos) {
+            dropLostShards();
+            return currentShards();
+        }
+
+        rebalanced = true;
+        lastRebalancedNanos = nowNanos;
+
+        if (!ensureMember()) {
+            releaseShardsPast(0);
+            return Collections.emptySet();
+        }
+
+        int nodes = countNodes();
+        int fairShare = (shardCount + nodes - 1) / nodes;
+
+        dropLostShards();
+        releaseShardsPast(fairShare);
+        claimShardsUpTo(fairShare);
+
+        return currentShards();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        releaseShardsPast(0);
+
+        for (LockedResource<String> probe : unreleasedProbes.values()) {
+            try {
+                probe.close();
+            } catch (IOException e) {
+                logger.warn("Failed to release free membership slot. It will not be claimable " +
+                        "by other nodes until it expires.", e);
+            }
+        }
+        unreleasedProbes.clear();
+
+        if (membership != null) {
+            membership.close();
+            membership = null;
+            membershipSlot = -1;
+        }
+    }
+
+    /** @return Whether this node holds a membership slot. */
+    private boolean ensureMember() {
+        if (membership != null) {
+            try {
+                membership.ensureAcquiredOrThrow("Will try to rejoin.");
+                return true;
+            } catch (LostLockException e) {
+                logger.warn("Lost document event shards membership slot {}.", membershipSlot, e);
+                membership = null;
+                membershipSlot = -1;
+            }
+        }
+
+        for (int slot = 0; slot < maxNodes; slot++) {
+            try {
+                membership = lockStrategy.tryAcquire(membershipResourceId(slot));
+                membershipSlot = slot;
+                return true;
+            } catch (LockNotAvailableException e) {
+                // Another node's slot; try the next.
+            }
+        }
+
+        logger.warn("All {} document event shards membership slots are taken. This node will " +
+                "not own any shards.", maxNodes);
+        return false;
+    }
+
+    private Set<Integer> currentShards() {
+        return Collections.unmodifiableSet(new TreeSet<>(ownedShards.keySet()));
+    }
+
+    /**
+     * Counts nodes, including this one, by which membership slots are taken. Slots this node
+     * still holds from a previous count are free, not other nodes.
+     */
+    private int countNodes() {
+        int nodes = 1;
+
+        for (int slot = 0; slot < maxNodes; slot++) {
+            if (slot == membershipSlot) {
+                continue;
+            }
+
+            LockedResource<String> probe = unreleasedProbes.remove(slot);
+
+            if (probe != null) {
+                try {
+                    probe.ensureAcquiredOrThrow("Will count membership slot " + slot + " again.");
+                } catch (LostLockException e) {
+                    probe = null;
+                }
+            }
+
+            if (probe == null) {
+                try {
+                    probe = lockStrategy.tryAcquire(membershipResourceId(slot));
+                } catch (LockNotAvailableException e) {
+                    nodes++;
+                    continue;
+                }
+            }
+
+            // No node holds this slot.
+            try {
+                probe.close();
+            } catch (IOException e) {
+                logger.warn("Failed to release free membership slot {}. Will try again next " +
+                        "rebalance.", slot, e);
+                unreleasedProbes.put(slot, probe);
+            }
+        }
+
+        return nodes;
+    }
+
+    private void dropLostShards() {
+        ownedShards.values().removeIf(lease -> {
+            try {
+                lease.ensureAcquiredOrThrow("Will no longer retrieve its document events.");
+                return false;
+            } catch (LostLockException e) {
+                logger.warn("Lost document event shard lease.", e);
+                return true;
+            }
+        });
+    }
+
+    private void releaseShardsPast(int maxShards) {
+        while (ownedShards.size() > maxShards) {
+            Integer shard = ownedShards.lastKey();
+
+            try {
+                ownedShards.remove(shard).close();
+            } catch (IOException e) {
+                logger.warn("Failed to release document event shard {}. It will not be " +
+                        "claimable by other nodes until it expires.", shard, e);
+            }
+        }
+    }
+
+    private void claimShardsUpTo(int fairShare) {
+        // Start from a different shard per slot so nodes don't all race for the same ones.
+        int firstShard = (membershipSlot * fairShare) % shardCount;
+
+        for (int i = 0; i < shardCount && ownedShards.size() < fairShare; i++) {
+            int shard = (firstShard + i) % shardCount;
+
+            if (ownedShards.containsKey(shard)) {
+                continue;
+            }
+
+            try {
+                ownedShards.put(shard, lockStrategy.tryAcquire(shardResourceId(shard)));
+            } catch (LockNotAvailableException e) {
+                // Owned by another node.
+            }
+        }
+    }
+
+    private static String membershipResourceId(int slot) {
+        return "DocumentEventShardsMember{slot=" + slot + "}";
+    }
+
+    private static String shardResourceId(int shard) {
+        return "DocumentEventShard{shard=" + shard + "}";
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DocumentEventShards{" +
+                "shardCount=" + shardCount +
+                ", maxNodes=" + maxNodes +
+                ", membershipSlot=" + membershipSlot +
+                ", ownedShards=" + ownedShards.keySet() +
+                '}';
+    }
+}
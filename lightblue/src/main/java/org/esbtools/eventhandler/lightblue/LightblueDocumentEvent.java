@@ -19,12 +19,13 @@
 package org.esbtools.eventhandler.lightblue;
 
 import org.esbtools.eventhandler.DocumentEvent;
+import org.esbtools.eventhandler.PrioritizedDocumentEvent;
 
 /**
  * Connects event implementations to the underlying {@link LightblueDocumentEventRepository} data
  * model.
  */
-public interface LightblueDocumentEvent extends DocumentEvent {
+public interface LightblueDocumentEvent extends PrioritizedDocumentEvent {
     /**
      * {@inheritDoc}
      */
@@ -47,4 +48,14 @@ public interface LightblueDocumentEvent extends DocumentEvent {
      * one.
      */
     DocumentEventEntity wrappedDocumentEventEntity();
+
+    /**
+     * The priority of the {@link #wrappedDocumentEventEntity() wrapped entity}, or 0 if it has
+     * none.
+     */
+    @Override
+    default int priority() {
+        Integer priority = wrappedDocumentEventEntity().getPriority();
+        return priority == null ? 0 : priority;
+    }
 }
@@ -21,25 +21,30 @@ package org.esbtools.eventhandler.lightblue;
 import org.esbtools.eventhandler.DocumentEvent;
 import org.esbtools.eventhandler.DocumentEventRepository;
 import org.esbtools.eventhandler.FailedDocumentEvent;
+import org.esbtools.eventhandler.KeyedDocumentEvent;
 import org.esbtools.eventhandler.lightblue.client.BulkLightblueRequester;
+import org.esbtools.eventhandler.lightblue.client.CachingLightblueRequester;
+import org.esbtools.eventhandler.lightblue.client.ChunkedBulkExecutor;
+import org.esbtools.eventhandler.lightblue.client.ChunkedBulkResponse;
 import org.esbtools.eventhandler.lightblue.client.FindRequests;
 import org.esbtools.eventhandler.lightblue.client.InsertRequests;
 import org.esbtools.eventhandler.lightblue.client.LightblueErrors;
 import org.esbtools.eventhandler.lightblue.client.LightblueRequester;
+import org.esbtools.eventhandler.lightblue.client.LightblueResponseCache;
 import org.esbtools.eventhandler.lightblue.client.UpdateRequests;
-import org.esbtools.eventhandler.lightblue.locking.LockNotAvailableException;
 import org.esbtools.eventhandler.lightblue.locking.LockStrategy;
 import org.esbtools.eventhandler.lightblue.locking.Lockable;
 import org.esbtools.eventhandler.lightblue.locking.LockedResource;
 import org.esbtools.eventhandler.lightblue.locking.LockedResources;
 import org.esbtools.eventhandler.lightblue.locking.LostLockException;
 
+import com.google.common.collect.Iterators;
 import com.redhat.lightblue.client.LightblueClient;
 import com.redhat.lightblue.client.LightblueException;
+import com.redhat.lightblue.client.request.CRUDRequest;
 import com.redhat.lightblue.client.request.DataBulkRequest;
-import com.redhat.lightblue.client.response.LightblueBulkDataResponse;
-import com.redhat.lightblue.client.response.LightblueBulkResponseException;
 import com.redhat.lightblue.client.response.LightblueDataResponse;
+import org.apache.camel.Service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -52,44 +57,160 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Comparator;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.stream.Collectors;
 
 /**
  * A document event repository which uses lightblue as the event store, storing events in the form
  * of {@link DocumentEventEntity}, which must be configured as an entity in lightblue.
+ *
+ * <p>If the repository creates the executor its requesters perform timed out batches on, it owns
+ * it, and it should be {@link #stop() stopped} when it is no longer needed. Adding the repository
+ * to the {@code CamelContext} with {@code camelContext.addService(repository)} will do this along
+ * with the context.
  */
-public class LightblueDocumentEventRepository implements DocumentEventRepository {
+public class LightblueDocumentEventRepository implements DocumentEventRepository, Service {
     private final LightblueClient lightblue;
+    private final ChunkedBulkExecutor bulkExecutor;
+    private final Executor batchExecutor;
+    private final boolean ownsBatchExecutor;
+    private final @Nullable LightblueResponseCache responseCache;
     private final LightblueDocumentEventRepositoryConfig config;
     private final LockStrategy lockStrategy;
+    private final @Nullable DocumentEventShards shards;
     private final Map<String, ? extends DocumentEventFactory> documentEventFactoriesByType;
     private final Clock clock;
 
     private final Set<String> supportedTypes;
     /** Cached to avoid extra garbage. */
     private final String[] supportedTypesArray;
+    /** Null if any factory needs entire document event entities. */
+    private final @Nullable Set<String> requiredEntityFields;
 
     private static final Logger logger = LoggerFactory.getLogger(LightblueDocumentEventRepository.class);
 
+    /**
+     * Highest priority first, then oldest first, as in
+     * {@link FindRequests#priorityDocumentEventsForTypesUpTo(String[], int, Instant)}.
+     */
+    private static final Comparator<LightblueDocumentEvent> PRIORITY_ORDER =
+            Comparator.comparingInt(LightblueDocumentEvent::priority).reversed()
+                    .thenComparing(event -> event.wrappedDocumentEventEntity().getCreationDate(),
+                            Comparator.nullsLast(Comparator.naturalOrder()));
+
     public LightblueDocumentEventRepository(LightblueClient lightblue,
             LockStrategy lockStrategy, LightblueDocumentEventRepositoryConfig config,
             Map<String, ? extends DocumentEventFactory> documentEventFactoriesByType, Clock clock) {
+        this(lightblue, new ChunkedBulkExecutor(lightblue), lockStrategy, config,
+                documentEventFactoriesByType, clock);
+    }
+
+    /**
+     * @param bulkExecutor Used for bulk requests made while retrieving document events, both to
+     *                     look up their documents and to persist their updated statuses. Large
+     *                     bulk requests may be split into chunks and performed concurrently.
+     */
+    public LightblueDocumentEventRepository(LightblueClient lightblue,
+            ChunkedBulkExecutor bulkExecutor, LockStrategy lockStrategy,
+            LightblueDocumentEventRepositoryConfig config,
+            Map<String, ? extends DocumentEventFactory> documentEventFactoriesByType, Clock clock) {
+        this(lightblue, bulkExecutor, null, lockStrategy, config, documentEventFactoriesByType,
+                clock);
+    }
+
+    /**
+     * @param responseCache If not null, document lookups made through the
+     *                      {@link LightblueRequester} given to document events check this cache
+     *                      first. The cache is shared across every retrieval.
+     */
+    public LightblueDocumentEventRepository(LightblueClient lightblue,
+            ChunkedBulkExecutor bulkExecutor, @Nullable LightblueResponseCache responseCache,
+            LockStrategy lockStrategy, LightblueDocumentEventRepositoryConfig config,
+            Map<String, ? extends DocumentEventFactory> documentEventFactoriesByType, Clock clock) {
+        this(lightblue, bulkExecutor, responseCache, lockStrategy, null, config,
+                documentEventFactoriesByType, clock);
+    }
+
+    /**
+     * @param shards If not null, new document events are assigned shards, and this repository
+     *               only retrieves document events of the shards it currently owns. Every
+     *               repository which adds or retrieves document events should then be sharded the
+     *               same way. See {@link DocumentEventShards}.
+     */
+    public LightblueDocumentEventRepository(LightblueClient lightblue,
+            ChunkedBulkExecutor bulkExecutor, @Nullable LightblueResponseCache responseCache,
+            LockStrategy lockStrategy, @Nullable DocumentEventShards shards,
+            LightblueDocumentEventRepositoryConfig config,
+            Map<String, ? extends DocumentEventFactory> documentEventFactoriesByType, Clock clock) {
+        this(lightblue, bulkExecutor, BulkLightblueRequester.newBatchExecutor(
+                BulkLightblueRequester.DEFAULT_BATCH_THREADS), true, responseCache, lockStrategy,
+                shards, config, documentEventFactoriesByType, clock);
+    }
+
+    /**
+     * @param batchExecutor Performs document lookups whose futures are waited on with a
+     *                      timeout, so that waiting times out even while lightblue is slow. Each
+     *                      task blocks until its bulk requests are done, so this should be
+     *                      bounded; see {@link BulkLightblueRequester#newBatchExecutor(int)}.
+     *                      This is not owned by the repository: stopping it will not shut the
+     *                      executor down.
+     */
+    public LightblueDocumentEventRepository(LightblueClient lightblue,
+            ChunkedBulkExecutor bulkExecutor, Executor batchExecutor,
+            @Nullable LightblueResponseCache responseCache, LockStrategy lockStrategy,
+            @Nullable DocumentEventShards shards, LightblueDocumentEventRepositoryConfig config,
+            Map<String, ? extends DocumentEventFactory> documentEventFactoriesByType, Clock clock) {
+        this(lightblue, bulkExecutor, batchExecutor, false, responseCache, lockStrategy, shards,
+                config, documentEventFactoriesByType, clock);
+    }
+
+    private LightblueDocumentEventRepository(LightblueClient lightblue,
+            ChunkedBulkExecutor bulkExecutor, Executor batchExecutor, boolean ownsBatchExecutor,
+            @Nullable LightblueResponseCache responseCache, LockStrategy lockStrategy,
+            @Nullable DocumentEventShards shards, LightblueDocumentEventRepositoryConfig config,
+            Map<String, ? extends DocumentEventFactory> documentEventFactoriesByType, Clock clock) {
         this.lightblue = lightblue;
+        this.bulkExecutor = bulkExecutor;
+        this.batchExecutor = Objects.requireNonNull(batchExecutor, "batchExecutor");
+        this.ownsBatchExecutor = ownsBatchExecutor;
+        this.responseCache = responseCache;
         this.lockStrategy = lockStrategy;
+        this.shards = shards;
         this.config = config;
         this.documentEventFactoriesByType = documentEventFactoriesByType;
         this.clock = clock;
 
         supportedTypes = documentEventFactoriesByType.keySet();
         supportedTypesArray = supportedTypes.toArray(new String[supportedTypes.size()]);
+        requiredEntityFields = requiredEntityFieldsOf(documentEventFactoriesByType.values());
+    }
+
+    @Override
+    public void start() {
+        // Batch executor is ready upon construction.
+    }
+
+    /**
+     * Shuts down the executor timed out lookups are performed on, if it is owned by this
+     * repository. Lookups already started are allowed to finish; later ones are performed in the
+     * calling thread.
+     */
+    @Override
+    public void stop() {
+        if (ownsBatchExecutor) {
+            ((ExecutorService) batchExecutor).shutdown();
+        }
     }
 
     @Override
@@ -100,7 +221,7 @@ public class LightblueDocumentEventRepository implements DocumentEventRepository
         }
 
         List<DocumentEventEntity> documentEventEntities = documentEvents.stream()
-                .map(LightblueDocumentEventRepository::asEntity)
+                .map(this::asShardedEntity)
                 .collect(Collectors.toList());
 
         int newEventsCount = documentEventEntities.size();
@@ -143,11 +264,30 @@ public class LightblueDocumentEventRepository implements DocumentEventRepository
             return Collections.emptyList();
         }
 
-        DocumentEventEntity[] documentEventEntities = lightblue
+        Set<Integer> ownedShards = null;
+
+        if (shards != null) {
+            ownedShards = shards.rebalance();
+
+            if (ownedShards.isEmpty()) {
+                logger.debug("Not retrieving any document events because no shards are owned. " +
+                        "Shards are {}.", shards);
+                return Collections.emptyList();
+            }
+        }
+
+        LightblueDataResponse response = lightblue
                 .data(FindRequests.priorityDocumentEventsForTypesUpTo(
                         typesToProcess, documentEventsBatchSize,
-                        clock.instant().minus(processingTimeout)))
-                .parseProcessed(DocumentEventEntity[].class);
+                        clock.instant().minus(processingTimeout), requiredEntityFields,
+                        ownedShards));
+        DocumentEventEntity[] documentEventEntities =
+                response.parseProcessed(DocumentEventEntity[].class);
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Retrieved {} document event entities in a response of {} characters.",
+                    documentEventEntities.length, response.getText().length());
+        }
 
         if (documentEventEntities.length == 0) {
             return Collections.emptyList();
@@ -157,12 +297,18 @@ public class LightblueDocumentEventRepository implements DocumentEventRepository
                      SharedIdentityEvents.parseAndOptimizeLockableDocumentEventEntities(
                              maxEvents,
                              documentEventEntities,
-                             new BulkLightblueRequester(lightblue),
+                             newRequester(),
                              documentEventFactoriesByType,
                              lockStrategy,
                              clock)) {
 
-            return persistNewEventsAndStatusUpdatesToExisting(eventLocks);
+            List<LightblueDocumentEvent> events =
+                    persistNewEventsAndStatusUpdatesToExisting(eventLocks);
+
+            // Optimizing groups events by identity; restore the order they were found in.
+            events.sort(PRIORITY_ORDER);
+
+            return events;
         }
     }
 
@@ -198,10 +344,13 @@ public class LightblueDocumentEventRepository implements DocumentEventRepository
     public void markDocumentEventsPublishedOrFailed(
             Collection<? extends DocumentEvent> documentEvents,
             Collection<FailedDocumentEvent> failures) throws LightblueException {
+        // One timestamp for all so they may be updated together.
+        ZonedDateTime processedDate = ZonedDateTime.now(clock);
+
         List<DocumentEventEntity> processed = documentEvents.stream()
                 .map(LightblueDocumentEventRepository::asEntity)
                 .peek((e) -> {
-                    e.setProcessedDate(ZonedDateTime.now(clock));
+                    e.setProcessedDate(processedDate);
                     e.setStatus(DocumentEventEntity.Status.published);
                 })
                 .collect(Collectors.toList());
@@ -210,14 +359,19 @@ public class LightblueDocumentEventRepository implements DocumentEventRepository
                 .map(FailedDocumentEvent::documentEvent)
                 .map(LightblueDocumentEventRepository::asEntity)
                 .peek((e) -> {
-                    e.setProcessedDate(ZonedDateTime.now(clock));
+                    e.setProcessedDate(processedDate);
                     e.setStatus(DocumentEventEntity.Status.failed);
                 })
                 .collect(Collectors.toList());
 
+        int maxEventsPerUpdate = config.getOptionalMaxDocumentEventsPerStatusUpdate()
+                .orElse(Integer.MAX_VALUE);
+
         DataBulkRequest markDocumentEvents = new DataBulkRequest();
-        markDocumentEvents.addAll(UpdateRequests.documentEventsStatusAndProcessedDate(processed));
-        markDocumentEvents.addAll(UpdateRequests.documentEventsStatusAndProcessedDate(failed));
+        markDocumentEvents.addAll(
+                UpdateRequests.documentEventsStatusAndProcessedDate(processed, maxEventsPerUpdate));
+        markDocumentEvents.addAll(
+                UpdateRequests.documentEventsStatusAndProcessedDate(failed, maxEventsPerUpdate));
 
         if (markDocumentEvents.getRequests().isEmpty()) {
             return;
@@ -229,6 +383,30 @@ public class LightblueDocumentEventRepository implements DocumentEventRepository
         lightblue.bulkData(markDocumentEvents);
     }
 
+    private LightblueRequester newRequester() {
+        LightblueRequester requester = new BulkLightblueRequester(bulkExecutor, batchExecutor);
+        return responseCache == null
+                ? requester
+                : new CachingLightblueRequester(responseCache, requester);
+    }
+
+    private static @Nullable Set<String> requiredEntityFieldsOf(
+            Collection<? extends DocumentEventFactory> factories) {
+        Set<String> fields = new LinkedHashSet<>();
+
+        for (DocumentEventFactory factory : factories) {
+            Optional<Set<String>> factoryFields = factory.getRequiredEntityFields();
+
+            if (!factoryFields.isPresent()) {
+                return null;
+            }
+
+            fields.addAll(factoryFields.get());
+        }
+
+        return fields;
+    }
+
     private String[] getSupportedAndEnabledEventTypes() {
         Set<String> canonicalTypesToProcess = config.getCanonicalTypesToProcess();
 
@@ -257,18 +435,25 @@ public class LightblueDocumentEventRepository implements DocumentEventRepository
             return Collections.emptyList();
         }
 
-        DataBulkRequest insertAndUpdateEvents = new DataBulkRequest();
+        List<CRUDRequest> insertAndUpdateEvents = new ArrayList<>();
         List<LightblueDocumentEvent> savedEvents = new ArrayList<>();
 
+        Set<LockedResource<?>> lostLocks = Collections.emptySet();
+
+        try {
+            identityLocks.ensureAllAcquiredOrThrow("Won't update status or process event.");
+        } catch (LostLockException e) {
+            logger.warn("Lost lock. This is not fatal. See exception for details.", e);
+            lostLocks = Collections.newSetFromMap(new IdentityHashMap<>());
+            lostLocks.addAll(e.lostLocks());
+        }
+
         // TODO: We make single request per event here (wrapped in bulk request). Maybe could optimize.
         // Right now each event may have different processing date which we are looking for.
         // Could probably change that so processing dates were more grouped.
         // See: https://github.com/esbtools/event-handler/issues/11
         for (LockedResource<SharedIdentityEvents> identityLock : identityLocks.getLocks()) {
-            try {
-                identityLock.ensureAcquiredOrThrow("Won't update status or process event.");
-            } catch (LostLockException e) {
-                logger.warn("Lost lock. This is not fatal. See exception for details.", e);
+            if (lostLocks.contains(identityLock)) {
                 continue;
             }
 
@@ -283,7 +468,9 @@ public class LightblueDocumentEventRepository implements DocumentEventRepository
                 // and SharedIdentityEvents#update
                 if (entity.get_id() == null) {
                     if (entity.getStatus().equals(DocumentEventEntity.Status.processing)) {
-                        insertAndUpdateEvents.add(InsertRequests.documentEventsReturningOnlyIds(entity));
+                        DocumentEventEntity shardedEntity = asShardedEntity(event);
+                        insertAndUpdateEvents.add(
+                                InsertRequests.documentEventsReturningOnlyIds(shardedEntity));
                         savedEvents.add(event);
                     }
                 } else {
@@ -295,28 +482,26 @@ public class LightblueDocumentEventRepository implements DocumentEventRepository
             }
         }
 
-        LightblueBulkDataResponse bulkResponse;
-
-        try {
-            bulkResponse = lightblue.bulkData(insertAndUpdateEvents);
-        } catch (LightblueBulkResponseException e) {
-            // If some failed, that's okay. We have to iterate through responses either way.
-            // We'll check for errors then.
-            bulkResponse = e.getBulkResponse();
-        }
+        // If some failed, that's okay. We have to iterate through responses either way.
+        // We'll check for errors then.
+        ChunkedBulkResponse bulkResponse = bulkExecutor.execute(insertAndUpdateEvents);
 
         Iterator<LightblueDocumentEvent> eventsIterator = savedEvents.iterator();
-        Iterator<LightblueDataResponse> responsesIterator = bulkResponse.getResponses().iterator();
+        Iterator<CRUDRequest> requestsIterator = insertAndUpdateEvents.iterator();
 
         while (eventsIterator.hasNext()) {
-            if (!responsesIterator.hasNext()) {
-                throw new IllegalStateException("Mismatched number of requests and responses! " +
-                        "Events looked like: <{}>. Responses looked like");
-            }
-
-            LightblueDataResponse response = responsesIterator.next();
             LightblueDocumentEvent event = eventsIterator.next();
             DocumentEventEntity entity = event.wrappedDocumentEventEntity();
+            LightblueDataResponse response;
+
+            try {
+                response = bulkResponse.getResponse(requestsIterator.next());
+            } catch (LightblueException e) {
+                logger.warn("Event update failed along with the rest of its bulk request " +
+                        "chunk. Will not process. Event was: <{}>.", event, e);
+                eventsIterator.remove();
+                continue;
+            }
 
             if (LightblueErrors.arePresentInResponse(response)) {
                 if (logger.isWarnEnabled()) {
@@ -353,6 +538,16 @@ public class LightblueDocumentEventRepository implements DocumentEventRepository
         return savedEvents;
     }
 
+    private DocumentEventEntity asShardedEntity(DocumentEvent event) {
+        DocumentEventEntity entity = asEntity(event);
+
+        if (shards != null) {
+            entity.setShard(shards.shardOf(((LightblueDocumentEvent) event).identity()));
+        }
+
+        return entity;
+    }
+
     private static DocumentEventEntity asEntity(DocumentEvent event) {
         if (event instanceof LightblueDocumentEvent) {
             return ((LightblueDocumentEvent) event).wrappedDocumentEventEntity();
@@ -370,9 +565,14 @@ public class LightblueDocumentEventRepository implements DocumentEventRepository
         final Identity identity;
         final Map<LightblueDocumentEvent, DocumentEventUpdate> updates = new IdentityHashMap<>();
 
-        private final Optional<LockedResource<SharedIdentityEvents>> lock;
-        // TODO: Is this guaranteed to only ever be one event?
-        private final List<LightblueDocumentEvent> optimized = new ArrayList<>();
+        /**
+         * Optimized events which are {@link KeyedDocumentEvent}s, by their optimization key. New
+         * keyed events need only be checked against those with the same key.
+         */
+        private final Map<Object, List<LightblueDocumentEvent>> optimizedByKey =
+                new LinkedHashMap<>();
+        /** Optimized events without an optimization key, checked against every new event. */
+        private final List<LightblueDocumentEvent> optimizedWithoutKey = new ArrayList<>();
         private final Clock clock;
 
         /**
@@ -380,10 +580,11 @@ public class LightblueDocumentEventRepository implements DocumentEventRepository
          * implementations provided by {@code documentEventFactoriesByType}, grouped by their
          * {@link Identity}.
          *
-         * <p>As each entity is parsed, we attempt to lock its identity if we have not tried
-         * already. If we are successful, we check if this event can be optimized among others with
-         * the same identity (it almost certainly should be able to), and track the updates that
-         * need to be persisted as a result of these optimizations.
+         * <p>Once all entities are parsed, we attempt to lock their identities in bulk, in the
+         * order they were first seen, until {@code maxIdentities} are locked or there are no more
+         * identities to try. For each identity we are able to lock, we check if its events can be
+         * optimized among each other (they almost certainly should be able to), and track the
+         * updates that need to be persisted as a result of these optimizations.
          *
          * @param maxIdentities The maximum number of identities to lock, which <em>should</em>
          *                      also mean the maximum number of events, given all events with the
@@ -401,8 +602,7 @@ public class LightblueDocumentEventRepository implements DocumentEventRepository
                 int maxIdentities, DocumentEventEntity[] entities, LightblueRequester requester,
                 Map<String, ? extends DocumentEventFactory> documentEventFactoriesByType,
                 LockStrategy lockStrategy, Clock clock) {
-            Map<Identity, SharedIdentityEvents> docEventsByIdentity = new HashMap<>();
-            List<LockedResource<SharedIdentityEvents>> locksAcquired = new ArrayList<>();
+            Map<Identity, List<LightblueDocumentEvent>> docEventsByIdentity = new LinkedHashMap<>();
 
             for (DocumentEventEntity eventEntity : entities) {
                 String typeOfEvent = eventEntity.getCanonicalType();
@@ -420,49 +620,55 @@ public class LightblueDocumentEventRepository implements DocumentEventRepository
                     newEvent = new UnparseableDocumentEvent(e, eventEntity);
                 }
 
-                Identity identity = newEvent.identity();
-                SharedIdentityEvents eventBatch = docEventsByIdentity.get(identity);
+                docEventsByIdentity
+                        .computeIfAbsent(newEvent.identity(), (identity) -> new ArrayList<>())
+                        .add(newEvent);
+            }
 
-                if (eventBatch == null) {
-                    if (locksAcquired.size() == maxIdentities) {
-                        continue;
-                    }
+            Iterator<Identity> identitiesToLock = docEventsByIdentity.keySet().iterator();
+            List<LockedResources<SharedIdentityEvents>> locksAcquired = new ArrayList<>();
+            int lockCount = 0;
 
-                    eventBatch = new SharedIdentityEvents(lockStrategy, identity, clock);
-                    docEventsByIdentity.put(identity, eventBatch);
-                    if (eventBatch.lock.isPresent()) {
-                        locksAcquired.add(eventBatch.lock.get());
-                        logger.debug("Acquired lock for resource {}", eventBatch.getResourceId());
-                    }
+            // Lock as many identities as we can, up to the max, in as few rounds as we can.
+            while (lockCount < maxIdentities && identitiesToLock.hasNext()) {
+                List<SharedIdentityEvents> batches = new ArrayList<>(maxIdentities - lockCount);
+
+                while (batches.size() < maxIdentities - lockCount && identitiesToLock.hasNext()) {
+                    batches.add(new SharedIdentityEvents(identitiesToLock.next(), clock));
+                }
+
+                LockedResources<SharedIdentityEvents> locks = lockStrategy.tryAcquireAll(batches);
+                locksAcquired.add(locks);
+                lockCount += locks.getLocks().size();
+
+                if (logger.isDebugEnabled() && locks.getLocks().size() < batches.size()) {
+                    logger.debug("Acquired {} of {} locks. Not fatal. Assuming another thread " +
+                            "is processing document events sharing the other identities.",
+                            locks.getLocks().size(), batches.size());
                 }
+            }
+
+            LockedResources<SharedIdentityEvents> allLocks = LockedResources.concat(locksAcquired);
+
+            for (LockedResource<SharedIdentityEvents> lock : allLocks.getLocks()) {
+                SharedIdentityEvents eventBatch = lock.getResource();
+                logger.debug("Acquired lock for resource {}", eventBatch.getResourceId());
 
-                eventBatch.addEvent(newEvent);
+                for (LightblueDocumentEvent event : docEventsByIdentity.get(eventBatch.identity)) {
+                    eventBatch.addEvent(event);
+                }
             }
 
-            return LockedResources.fromLocks(locksAcquired);
+            return allLocks;
         }
 
         /**
-         * Attempts to acquire a lock on the provided {@code identity}. If the lock cannot be
-         * acquired, the object is still created, but it will throw out any added events since we
-         * cannot process them without a lock.
+         * Creates an empty batch of events for the provided {@code identity}. Events should only be
+         * added once the batch is locked, since we cannot process them without a lock.
          */
-        SharedIdentityEvents(LockStrategy lockStrategy, Identity identity, Clock clock) {
+        SharedIdentityEvents(Identity identity, Clock clock) {
             this.identity = identity;
             this.clock = clock;
-
-            Optional<LockedResource<SharedIdentityEvents>> lock;
-            try {
-                lock = Optional.of(lockStrategy.tryAcquire(this));
-            } catch (LockNotAvailableException e) {
-                if (logger.isDebugEnabled()) {
-                    logger.debug("Lock not available. This is not fatal. Assuming another" +
-                            " thread is processing document events sharing identity: " + identity, e);
-                }
-                lock = Optional.empty();
-            }
-
-            this.lock = lock;
         }
 
         @Override
@@ -475,13 +681,17 @@ public class LightblueDocumentEventRepository implements DocumentEventRepository
             return "SharedIdentityEvents{" +
                     "identity=" + identity +
                     ", updates=" + updates +
-                    ", optimized=" + optimized +
+                    ", optimizedByKey=" + optimizedByKey +
+                    ", optimizedWithoutKey=" + optimizedWithoutKey +
                     '}';
         }
 
         /**
          * Take the provided event and checks if it can be optimized among other known events of the
          * same identity. The results are tracked as side-effects to {@link #updates}.
+         *
+         * <p>If the event is a {@link KeyedDocumentEvent}, it is only checked against other events
+         * with the same key, or without a key at all. Otherwise, it is checked against all of them.
          */
         private void addEvent(LightblueDocumentEvent event) {
             if (!Objects.equals(event.identity(), identity)) {
@@ -489,10 +699,6 @@ public class LightblueDocumentEventRepository implements DocumentEventRepository
                         "that didn't share the same identity.");
             }
 
-            if (!lock.isPresent()) {
-                return;
-            }
-
             // We have a new event, let's see if it is superseded by or can be merged with any
             // previous events we parsed or created as a result of a previous merge.
 
@@ -501,7 +707,7 @@ public class LightblueDocumentEventRepository implements DocumentEventRepository
             @Nullable LightblueDocumentEvent newOrMergerEvent = event;
             DocumentEventEntity newOrMergerEventEntity = event.wrappedDocumentEventEntity();
 
-            Iterator<LightblueDocumentEvent> optimizedIterator = optimized.iterator();
+            Iterator<LightblueDocumentEvent> optimizedIterator = optimizedCandidatesFor(event);
 
             while (optimizedIterator.hasNext()) {
                 LightblueDocumentEvent previouslyOptimizedEvent = optimizedIterator.next();
@@ -600,10 +806,39 @@ public class LightblueDocumentEventRepository implements DocumentEventRepository
 
             if (newOrMergerEvent != null) {
                 newOrMergerEventEntity.setStatus(DocumentEventEntity.Status.processing);
-                optimized.add(newOrMergerEvent);
+                optimizedListFor(newOrMergerEvent).add(newOrMergerEvent);
                 updates.put(newOrMergerEvent, DocumentEventUpdate.timestamp(newOrMergerEvent, clock));
             }
         }
+
+        /**
+         * @return An iterator over the optimized events which {@code event} could possibly be
+         * optimized with, supporting {@link Iterator#remove()}.
+         */
+        private Iterator<LightblueDocumentEvent> optimizedCandidatesFor(
+                LightblueDocumentEvent event) {
+            if (event instanceof KeyedDocumentEvent) {
+                Object key = ((KeyedDocumentEvent) event).optimizationKey();
+                List<LightblueDocumentEvent> sameKey =
+                        optimizedByKey.getOrDefault(key, Collections.emptyList());
+
+                return Iterators.concat(sameKey.iterator(), optimizedWithoutKey.iterator());
+            }
+
+            return Iterators.concat(
+                    Iterators.concat(Iterators.transform(
+                            optimizedByKey.values().iterator(), List::iterator)),
+                    optimizedWithoutKey.iterator());
+        }
+
+        private List<LightblueDocumentEvent> optimizedListFor(LightblueDocumentEvent event) {
+            if (event instanceof KeyedDocumentEvent) {
+                Object key = ((KeyedDocumentEvent) event).optimizationKey();
+                return optimizedByKey.computeIfAbsent(key, (k) -> new ArrayList<>());
+            }
+
+            return optimizedWithoutKey;
+        }
     }
 
     /**
@@ -80,4 +80,14 @@ public interface LightblueDocumentEventRepositoryConfig {
      * one call.
      */
     Optional<Integer> getOptionalMaxDocumentEventsPerInsert();
+
+    /**
+     * When marking document events published or failed, events which share a status and processed
+     * date are updated together in a single request matching all of their ids. This limits how
+     * many ids any one of those requests may match, splitting larger groups among more requests.
+     * If no integer is provided (the optional is empty), each group is updated by one request.
+     */
+    default Optional<Integer> getOptionalMaxDocumentEventsPerStatusUpdate() {
+        return Optional.empty();
+    }
 }
@@ -23,16 +23,19 @@ import org.esbtools.eventhandler.FailedNotification;
 import org.esbtools.eventhandler.Notification;
 import org.esbtools.eventhandler.NotificationRepository;
 import org.esbtools.eventhandler.lightblue.client.BulkLightblueRequester;
+import org.esbtools.eventhandler.lightblue.client.CachingLightblueRequester;
+import org.esbtools.eventhandler.lightblue.client.ChunkedBulkExecutor;
 import org.esbtools.eventhandler.lightblue.client.FindRequests;
 import org.esbtools.eventhandler.lightblue.client.LightblueErrors;
 import org.esbtools.eventhandler.lightblue.client.LightblueRequester;
+import org.esbtools.eventhandler.lightblue.client.LightblueResponseCache;
 import org.esbtools.eventhandler.lightblue.client.UpdateRequests;
-import org.esbtools.eventhandler.lightblue.locking.LockNotAvailableException;
 import org.esbtools.eventhandler.lightblue.locking.LockStrategy;
 import org.esbtools.eventhandler.lightblue.locking.Lockable;
 import org.esbtools.eventhandler.lightblue.locking.LockedResource;
 import org.esbtools.eventhandler.lightblue.locking.LockedResources;
 import org.esbtools.eventhandler.lightblue.locking.LostLockException;
+import org.esbtools.eventhandler.lightblue.locking.NoLockStrategy;
 import org.esbtools.lightbluenotificationhook.NotificationEntity;
 
 import com.redhat.lightblue.client.LightblueClient;
@@ -41,9 +44,12 @@ import com.redhat.lightblue.client.request.DataBulkRequest;
 import com.redhat.lightblue.client.response.LightblueBulkDataResponse;
 import com.redhat.lightblue.client.response.LightblueBulkResponseException;
 import com.redhat.lightblue.client.response.LightblueDataResponse;
+import org.apache.camel.Service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
+import java.io.IOException;
 import java.time.Clock;
 import java.time.Duration;
 import java.time.Instant;
@@ -52,10 +58,17 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.stream.Collectors;
 
 /**
@@ -63,9 +76,18 @@ import java.util.stream.Collectors;
  * persisted in the form of {@link NotificationEntity} which must be configured as an entity in
  * your lightblue instance. Notifications can be written using the
  * <a href="https://github.com/esbtools/lightblue-notification-hook">lightblue notification hook</a>.
+ *
+ * <p>If the repository creates the executor its requesters perform timed out batches on, it owns
+ * it, and it should be {@link #stop() stopped} when it is no longer needed. Adding the repository
+ * to the {@code CamelContext} with {@code camelContext.addService(repository)} will do this along
+ * with the context.
  */
-public class LightblueNotificationRepository implements NotificationRepository {
+public class LightblueNotificationRepository implements NotificationRepository, Service {
     private final LightblueClient lightblue;
+    private final ChunkedBulkExecutor bulkExecutor;
+    private final Executor batchExecutor;
+    private final boolean ownsBatchExecutor;
+    private final @Nullable LightblueResponseCache responseCache;
     private final LightblueNotificationRepositoryConfig config;
     private final LockStrategy lockStrategy;
     private final Map<String, NotificationFactory> notificationFactoryByEntityName;
@@ -74,13 +96,55 @@ public class LightblueNotificationRepository implements NotificationRepository {
     private final Set<String> supportedEntityNames;
     /** Cached to avoid extra garbage. */
     private final String[] supportedEntityNamesArray;
+    /** Null if any factory needs entire notification entities. */
+    private final @Nullable Set<String> requiredEntityFields;
 
     private static final Logger logger = LoggerFactory.getLogger(LightblueNotificationRepository.class);
 
     public LightblueNotificationRepository(LightblueClient lightblue, LockStrategy lockStrategy,
             LightblueNotificationRepositoryConfig config,
             Map<String, NotificationFactory> notificationFactoryByEntityName, Clock clock) {
+        this(lightblue, null, lockStrategy, config, notificationFactoryByEntityName, clock);
+    }
+
+    /**
+     * @param responseCache If not null, lookups made through the {@link LightblueRequester} given
+     *                      to notifications check this cache first. The cache is shared across
+     *                      every retrieval.
+     */
+    public LightblueNotificationRepository(LightblueClient lightblue,
+            @Nullable LightblueResponseCache responseCache, LockStrategy lockStrategy,
+            LightblueNotificationRepositoryConfig config,
+            Map<String, NotificationFactory> notificationFactoryByEntityName, Clock clock) {
+        this(lightblue, BulkLightblueRequester.newBatchExecutor(
+                BulkLightblueRequester.DEFAULT_BATCH_THREADS), true, responseCache, lockStrategy,
+                config, notificationFactoryByEntityName, clock);
+    }
+
+    /**
+     * @param batchExecutor Performs lookups whose futures are waited on with a timeout, so that
+     *                      waiting times out even while lightblue is slow. Each task blocks until
+     *                      its bulk requests are done, so this should be bounded; see
+     *                      {@link BulkLightblueRequester#newBatchExecutor(int)}. This is not
+     *                      owned by the repository: stopping it will not shut the executor down.
+     */
+    public LightblueNotificationRepository(LightblueClient lightblue, Executor batchExecutor,
+            @Nullable LightblueResponseCache responseCache, LockStrategy lockStrategy,
+            LightblueNotificationRepositoryConfig config,
+            Map<String, NotificationFactory> notificationFactoryByEntityName, Clock clock) {
+        this(lightblue, batchExecutor, false, responseCache, lockStrategy, config,
+                notificationFactoryByEntityName, clock);
+    }
+
+    private LightblueNotificationRepository(LightblueClient lightblue, Executor batchExecutor,
+            boolean ownsBatchExecutor, @Nullable LightblueResponseCache responseCache,
+            LockStrategy lockStrategy, LightblueNotificationRepositoryConfig config,
+            Map<String, NotificationFactory> notificationFactoryByEntityName, Clock clock) {
         this.lightblue = lightblue;
+        this.bulkExecutor = new ChunkedBulkExecutor(lightblue);
+        this.batchExecutor = Objects.requireNonNull(batchExecutor, "batchExecutor");
+        this.ownsBatchExecutor = ownsBatchExecutor;
+        this.responseCache = responseCache;
         this.lockStrategy = lockStrategy;
         this.config = config;
         this.notificationFactoryByEntityName = notificationFactoryByEntityName;
@@ -88,6 +152,24 @@ public class LightblueNotificationRepository implements NotificationRepository {
 
         supportedEntityNames = notificationFactoryByEntityName.keySet();
         supportedEntityNamesArray = supportedEntityNames.toArray(new String[supportedEntityNames.size()]);
+        requiredEntityFields = requiredEntityFieldsOf(notificationFactoryByEntityName.values());
+    }
+
+    @Override
+    public void start() {
+        // Batch executor is ready upon construction.
+    }
+
+    /**
+     * Shuts down the executor timed out lookups are performed on, if it is owned by this
+     * repository. Lookups already started are allowed to finish; later ones are performed in the
+     * calling thread.
+     */
+    @Override
+    public void stop() {
+        if (ownsBatchExecutor) {
+            ((ExecutorService) batchExecutor).shutdown();
+        }
     }
 
     @Override
@@ -108,17 +190,14 @@ public class LightblueNotificationRepository implements NotificationRepository {
             return Collections.emptyList();
         }
 
-        NotificationEntity[] notificationEntities = lightblue
-                .data(FindRequests.oldestNotificationsForEntitiesUpTo(
-                        entitiesToProcess, maxNotifications,
-                        clock.instant().minus(processingTimeout)))
-                .parseProcessed(NotificationEntity[].class);
+        Instant expiredProcessingDate = clock.instant().minus(processingTimeout);
 
         try (LockedResources<ProcessingNotification> locks =
-                ProcessingNotification.parseLockableNotificationEntities(
-                        notificationEntities,
-                        new BulkLightblueRequester(lightblue),
-                        notificationFactoryByEntityName, lockStrategy, clock)) {
+                config.isTwoPhaseRetrievalEnabled()
+                        ? lockThenRetrieveNotifications(
+                                entitiesToProcess, maxNotifications, expiredProcessingDate)
+                        : retrieveThenLockNotifications(
+                                entitiesToProcess, maxNotifications, expiredProcessingDate)) {
             Collection<LockedResource<ProcessingNotification>> lockList = locks.getLocks();
 
             if (lockList.isEmpty()) {
@@ -128,16 +207,23 @@ public class LightblueNotificationRepository implements NotificationRepository {
             DataBulkRequest updateEntities = new DataBulkRequest();
             List<LightblueNotification> updatedNotifications = new ArrayList<>(lockList.size());
 
+            Set<LockedResource<?>> lostLocks = Collections.emptySet();
+
+            try {
+                locks.ensureAllAcquiredOrThrow("Won't update status or process notification.");
+            } catch (LostLockException e) {
+                logger.warn("Lost lock. This is not fatal. See exception for details", e);
+                lostLocks = Collections.newSetFromMap(new IdentityHashMap<>());
+                lostLocks.addAll(e.lostLocks());
+            }
+
             for (LockedResource<ProcessingNotification> lock : lockList) {
-                try {
-                    lock.ensureAcquiredOrThrow("Won't update status or process notification.");
-                } catch (LostLockException e) {
-                    logger.warn("Lost lock. This is not fatal. See exception for details", e);
+                ProcessingNotification processing = lock.getResource();
+
+                if (lostLocks.contains(lock) || processing.notification == null) {
                     continue;
                 }
 
-                ProcessingNotification processing = lock.getResource();
-
                 updateEntities.add(UpdateRequests.notificationStatusIfCurrent(
                         processing.notification.wrappedNotificationEntity(),
                         processing.originalProcessingDate));
@@ -179,8 +265,16 @@ public class LightblueNotificationRepository implements NotificationRepository {
                 }
 
                 if (response.parseModifiedCount() == 0) {
-                    logger.warn("Notification updated by another thread. Will not process. " +
-                            "Notification id: {}", notification.wrappedNotificationEntity().get_id());
+                    if (config.isOptimisticClaimingEnabled()) {
+                        // Expected whenever another thread claims the same notification first.
+                        logger.debug("Notification claimed by another thread. Will not " +
+                                "process. Notification id: {}",
+                                notification.wrappedNotificationEntity().get_id());
+                    } else {
+                        logger.warn("Notification updated by another thread. Will not process. " +
+                                "Notification id: {}",
+                                notification.wrappedNotificationEntity().get_id());
+                    }
                     notificationsIterator.remove();
                 }
             }
@@ -190,6 +284,93 @@ public class LightblueNotificationRepository implements NotificationRepository {
 
     }
 
+    private LockedResources<ProcessingNotification> retrieveThenLockNotifications(
+            String[] entitiesToProcess, int maxNotifications, Instant expiredProcessingDate)
+            throws LightblueException {
+        LightblueDataResponse response = lightblue
+                .data(FindRequests.oldestNotificationsForEntitiesUpTo(
+                        entitiesToProcess, maxNotifications, expiredProcessingDate,
+                        requiredEntityFields));
+        NotificationEntity[] notificationEntities =
+                response.parseProcessed(NotificationEntity[].class);
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Retrieved {} notification entities in a response of {} characters.",
+                    notificationEntities.length, response.getText().length());
+        }
+
+        return ProcessingNotification.parseLockableNotificationEntities(
+                notificationEntities,
+                newRequester(),
+                notificationFactoryByEntityName, claimLockStrategy(), clock);
+    }
+
+    /**
+     * Retrieves only the bookkeeping fields of notifications at first, which are enough to lock
+     * them, and then retrieves the rest of only those notifications which were locked. Locked
+     * notifications which could not be retrieved the second time are left unparsed.
+     */
+    private LockedResources<ProcessingNotification> lockThenRetrieveNotifications(
+            String[] entitiesToProcess, int maxNotifications, Instant expiredProcessingDate)
+            throws Exception {
+        LightblueDataResponse keysResponse = lightblue
+                .data(FindRequests.oldestNotificationsForEntitiesUpTo(
+                        entitiesToProcess, maxNotifications, expiredProcessingDate,
+                        Collections.emptySet()));
+        NotificationEntity[] keyEntities = keysResponse.parseProcessed(NotificationEntity[].class);
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Retrieved {} notification keys in a response of {} characters.",
+                    keyEntities.length, keysResponse.getText().length());
+        }
+
+        LockedResources<ProcessingNotification> locks =
+                ProcessingNotification.lockNotificationKeys(keyEntities, claimLockStrategy());
+
+        if (locks.getLocks().isEmpty()) {
+            return locks;
+        }
+
+        try {
+            Map<String, ProcessingNotification> lockedById = new LinkedHashMap<>();
+
+            for (LockedResource<ProcessingNotification> lock : locks.getLocks()) {
+                lockedById.put(lock.getResource().notificationId, lock.getResource());
+            }
+
+            LightblueDataResponse response = lightblue.data(
+                    FindRequests.notificationsByIds(lockedById.keySet(), requiredEntityFields));
+            NotificationEntity[] notificationEntities =
+                    response.parseProcessed(NotificationEntity[].class);
+
+            if (logger.isDebugEnabled()) {
+                logger.debug("Retrieved {} of {} locked notification entities in a response " +
+                        "of {} characters.", notificationEntities.length, lockedById.size(),
+                        response.getText().length());
+            }
+
+            LightblueRequester requester = newRequester();
+
+            for (NotificationEntity entity : notificationEntities) {
+                ProcessingNotification processing = lockedById.get(entity.get_id());
+
+                if (processing != null) {
+                    processing.parse(entity, requester, notificationFactoryByEntityName, clock);
+                }
+            }
+
+            return locks;
+        } catch (Exception e) {
+            try {
+                locks.close();
+            } catch (IOException closeException) {
+                e.addSuppressed(closeException);
+            }
+
+            throw e;
+        }
+    }
+
     @Override
     public void ensureTransactionActive(Notification notification) throws Exception {
         if (!(notification instanceof LightblueNotification)) {
@@ -214,11 +395,14 @@ public class LightblueNotificationRepository implements NotificationRepository {
     @Override
     public void markNotificationsProcessedOrFailed(Collection<? extends Notification> notification,
             Collection<FailedNotification> failures) throws LightblueException {
+        // One timestamp for all so they may be updated together.
+        Date processedDate = Date.from(clock.instant());
+
         List<NotificationEntity> processedNotificationEntities = notification.stream()
                 .map(LightblueNotificationRepository::asEntity)
                 .peek(entity -> {
                     entity.setStatus(NotificationEntity.Status.processed);
-                    entity.setProcessedDate(Date.from(clock.instant()));
+                    entity.setProcessedDate(processedDate);
                 })
                 .collect(Collectors.toList());
 
@@ -227,15 +411,18 @@ public class LightblueNotificationRepository implements NotificationRepository {
                 .map(LightblueNotificationRepository::asEntity)
                 .peek(entity -> {
                     entity.setStatus(NotificationEntity.Status.failed);
-                    entity.setProcessedDate(Date.from(clock.instant()));
+                    entity.setProcessedDate(processedDate);
                 })
                 .collect(Collectors.toList());
 
+        int maxNotificationsPerUpdate = config.getOptionalMaxNotificationsPerStatusUpdate()
+                .orElse(Integer.MAX_VALUE);
+
         DataBulkRequest markNotifications = new DataBulkRequest();
-        markNotifications.addAll(
-                UpdateRequests.notificationsStatusAndProcessedDate(processedNotificationEntities));
-        markNotifications.addAll(
-                UpdateRequests.notificationsStatusAndProcessedDate(failedNotificationEntities));
+        markNotifications.addAll(UpdateRequests.notificationsStatusAndProcessedDate(
+                processedNotificationEntities, maxNotificationsPerUpdate));
+        markNotifications.addAll(UpdateRequests.notificationsStatusAndProcessedDate(
+                failedNotificationEntities, maxNotificationsPerUpdate));
 
         if (markNotifications.getRequests().isEmpty()) {
             return;
@@ -245,6 +432,22 @@ public class LightblueNotificationRepository implements NotificationRepository {
         lightblue.bulkData(markNotifications);
     }
 
+    /**
+     * Notifications are always claimed by updating them conditioned on their processing date
+     * being unchanged since they were retrieved. Optionally, that conditional update alone
+     * prevents double processing, so there is no need to also lock them.
+     */
+    private LockStrategy claimLockStrategy() {
+        return config.isOptimisticClaimingEnabled() ? NoLockStrategy.INSTANCE : lockStrategy;
+    }
+
+    private LightblueRequester newRequester() {
+        LightblueRequester requester = new BulkLightblueRequester(bulkExecutor, batchExecutor);
+        return responseCache == null
+                ? requester
+                : new CachingLightblueRequester(responseCache, requester);
+    }
+
     private String[] getSupportedAndEnabledEntityNames() {
         Set<String> entityNamesToProcess = config.getEntityNamesToProcess();
 
@@ -261,6 +464,23 @@ public class LightblueNotificationRepository implements NotificationRepository {
         return supportedAndEnabled.toArray(new String[supportedAndEnabled.size()]);
     }
 
+    private static @Nullable Set<String> requiredEntityFieldsOf(
+            Collection<? extends NotificationFactory> factories) {
+        Set<String> fields = new LinkedHashSet<>();
+
+        for (NotificationFactory factory : factories) {
+            Optional<Set<String>> factoryFields = factory.getRequiredEntityFields();
+
+            if (!factoryFields.isPresent()) {
+                return null;
+            }
+
+            fields.addAll(factoryFields.get());
+        }
+
+        return fields;
+    }
+
     private static NotificationEntity asEntity(Notification notification) {
         if (notification instanceof LightblueNotification) {
             return ((LightblueNotification) notification).wrappedNotificationEntity();
@@ -273,15 +493,18 @@ public class LightblueNotificationRepository implements NotificationRepository {
     static class ProcessingNotification implements Lockable {
         final String notificationId;
         final Date originalProcessingDate;
-        final LightblueNotification notification;
+        /**
+         * Null until parsed, if the notification was locked before its entire entity was
+         * retrieved.
+         */
+        @Nullable LightblueNotification notification;
 
         static LockedResources<ProcessingNotification> parseLockableNotificationEntities(
                 NotificationEntity[] entities,
                 LightblueRequester requester,
                 Map<String, ? extends NotificationFactory> notificationFactoriesByEntityName,
                 LockStrategy lockStrategy, Clock clock) {
-            List<LockedResource<ProcessingNotification>> acquiredLocks =
-                    new ArrayList<>(entities.length);
+            List<ProcessingNotification> parsed = new ArrayList<>(entities.length);
 
             // Shuffling the entities means less lock contention among nodes which get similar
             // batches.
@@ -289,50 +512,99 @@ public class LightblueNotificationRepository implements NotificationRepository {
             Collections.shuffle(shuffled);
 
             for (NotificationEntity entity : shuffled) {
-                LightblueNotification notification;
-
-                try {
-                    notification = notificationFactoriesByEntityName
-                            .get(entity.getEntityName())
-                            .getNotificationForEntity(entity, requester);
-                } catch (Exception e) {
-                    if (logger.isDebugEnabled()) {
-                        logger.debug("Failed to parse notification entity: " + entity, e);
-                    }
+                ProcessingNotification processing =
+                        new ProcessingNotification(entity.get_id(), entity.getProcessingDate());
+                processing.notification =
+                        parseNotificationEntity(entity, requester, notificationFactoriesByEntityName);
 
-                    notification = new UnparseableNotification(e, entity);
-                }
+                parsed.add(processing);
+            }
 
-                Date originalProcessingDate = entity.getProcessingDate();
+            LockedResources<ProcessingNotification> acquiredLocks = tryAcquireAll(parsed, lockStrategy);
 
-                ProcessingNotification processing =
-                        new ProcessingNotification(entity.get_id(), notification,
-                                originalProcessingDate);
-
-                try {
-                    acquiredLocks.add(lockStrategy.tryAcquire(processing));
-                    entity.setProcessingDate(Date.from(clock.instant()));
-                    entity.setStatus(NotificationEntity.Status.processing);
-
-                    logger.debug("Acquired lock for resource {}", processing.getResourceId());
-                } catch (LockNotAvailableException e) {
-                    if (logger.isDebugEnabled()) {
-                        logger.debug("Lock not available. This is not fatal. Assuming another" +
-                                " thread is processing notification: " + entity.get_id(), e);
-                    }
+            for (LockedResource<ProcessingNotification> lock : acquiredLocks.getLocks()) {
+                markProcessing(lock.getResource().notification.wrappedNotificationEntity(), clock);
+
+                logger.debug("Acquired lock for resource {}", lock.getResource().getResourceId());
+            }
+
+            return acquiredLocks;
+        }
+
+        /**
+         * Locks notifications given entities with only their bookkeeping fields. Each locked
+         * notification must then be {@link #parse parsed} from its entire entity.
+         */
+        static LockedResources<ProcessingNotification> lockNotificationKeys(
+                NotificationEntity[] keyEntities, LockStrategy lockStrategy) {
+            List<ProcessingNotification> lockable = new ArrayList<>(keyEntities.length);
+
+            // Shuffling the entities means less lock contention among nodes which get similar
+            // batches.
+            List<NotificationEntity> shuffled = Arrays.asList(keyEntities);
+            Collections.shuffle(shuffled);
+
+            for (NotificationEntity keyEntity : shuffled) {
+                lockable.add(new ProcessingNotification(
+                        keyEntity.get_id(), keyEntity.getProcessingDate()));
+            }
+
+            return tryAcquireAll(lockable, lockStrategy);
+        }
+
+        private static LockedResources<ProcessingNotification> tryAcquireAll(
+                List<ProcessingNotification> lockable, LockStrategy lockStrategy) {
+            LockedResources<ProcessingNotification> acquiredLocks =
+                    lockStrategy.tryAcquireAll(lockable);
+
+            if (logger.isDebugEnabled() && acquiredLocks.getLocks().size() < lockable.size()) {
+                logger.debug("Acquired {} of {} locks. This is not fatal. Assuming another " +
+                        "thread is processing the other notifications.",
+                        acquiredLocks.getLocks().size(), lockable.size());
+            }
+
+            return acquiredLocks;
+        }
+
+        private static LightblueNotification parseNotificationEntity(NotificationEntity entity,
+                LightblueRequester requester,
+                Map<String, ? extends NotificationFactory> notificationFactoriesByEntityName) {
+            try {
+                return notificationFactoriesByEntityName
+                        .get(entity.getEntityName())
+                        .getNotificationForEntity(entity, requester);
+            } catch (Exception e) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Failed to parse notification entity: " + entity, e);
                 }
+
+                return new UnparseableNotification(e, entity);
             }
+        }
 
-            return LockedResources.fromLocks(acquiredLocks);
+        private static void markProcessing(NotificationEntity entity, Clock clock) {
+            entity.setProcessingDate(Date.from(clock.instant()));
+            entity.setStatus(NotificationEntity.Status.processing);
         }
 
-        private ProcessingNotification(String notificationId, LightblueNotification notification,
-                Date originalProcessingDate) {
+        private ProcessingNotification(String notificationId, Date originalProcessingDate) {
             this.notificationId = notificationId;
-            this.notification = notification;
             this.originalProcessingDate = originalProcessingDate;
         }
 
+        /**
+         * Parses the entire entity of a notification locked by its key, marking it processing.
+         */
+        void parse(NotificationEntity entity, LightblueRequester requester,
+                Map<String, ? extends NotificationFactory> notificationFactoriesByEntityName,
+                Clock clock) {
+            notification =
+                    parseNotificationEntity(entity, requester, notificationFactoriesByEntityName);
+            markProcessing(notification.wrappedNotificationEntity(), clock);
+
+            logger.debug("Acquired lock for resource {}", getResourceId());
+        }
+
         @Override
         public String getResourceId() {
             return "ProcessingNotification{notificationId=" + notificationId + "}";
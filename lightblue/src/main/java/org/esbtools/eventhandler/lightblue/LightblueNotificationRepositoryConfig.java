@@ -19,6 +19,7 @@
 package org.esbtools.eventhandler.lightblue;
 
 import java.time.Duration;
+import java.util.Optional;
 import java.util.Set;
 
 public interface LightblueNotificationRepositoryConfig {
@@ -46,4 +47,36 @@ public interface LightblueNotificationRepositoryConfig {
      * timestamp before adding its document events. Other alternative schemes are possible.
      */
     Duration getNotificationExpireThreshold();
+
+    /**
+     * When marking notifications processed or failed, notifications which share a status and
+     * processed date are updated together in a single request matching all of their ids. This
+     * limits how many ids any one of those requests may match, splitting larger groups among more
+     * requests. If no integer is provided (the optional is empty), each group is updated by one
+     * request.
+     */
+    default Optional<Integer> getOptionalMaxNotificationsPerStatusUpdate() {
+        return Optional.empty();
+    }
+
+    /**
+     * Whether to retrieve notifications in two phases: first only their bookkeeping fields, which
+     * are enough to lock them, and then, in a second request, the rest of only those which were
+     * locked. This costs an extra request per retrieval, but avoids transferring notifications
+     * which other threads or nodes will process, so it pays off when many contend for the same
+     * notifications.
+     */
+    default boolean isTwoPhaseRetrievalEnabled() {
+        return false;
+    }
+
+    /**
+     * Whether to claim notifications solely with the update which marks them processing, rather
+     * than also locking each one. That update is conditioned on the notification's processing
+     * date being unchanged since it was retrieved, so only one thread can win it. This saves
+     * acquiring, checking, and releasing a lock per notification.
+     */
+    default boolean isOptimisticClaimingEnabled() {
+        return false;
+    }
 }
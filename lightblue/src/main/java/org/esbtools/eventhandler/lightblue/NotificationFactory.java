@@ -18,9 +18,25 @@
 
 package org.esbtools.eventhandler.lightblue;
 
+import org.esbtools.eventhandler.lightblue.client.FindRequests;
 import org.esbtools.eventhandler.lightblue.client.LightblueRequester;
 import org.esbtools.lightbluenotificationhook.NotificationEntity;
 
+import java.util.Optional;
+import java.util.Set;
+
 public interface NotificationFactory {
     LightblueNotification getNotificationForEntity(NotificationEntity entity, LightblueRequester requester);
+
+    /**
+     * The fields of {@link NotificationEntity} which this factory's notifications read, such as
+     * {@code entityData}, in addition to the
+     * {@link FindRequests#NOTIFICATION_BOOKKEEPING_FIELDS bookkeeping fields} which are always
+     * retrieved. Each field is retrieved along with everything nested under it.
+     *
+     * <p>If no fields are provided (the optional is empty), entire entities are retrieved.
+     */
+    default Optional<Set<String>> getRequiredEntityFields() {
+        return Optional.empty();
+    }
 }
@@ -25,14 +25,12 @@ import org.esbtools.eventhandler.NestedTransformableFutureIgnoringReturn;
 import org.esbtools.eventhandler.Responses;
 import org.esbtools.eventhandler.TransformableFuture;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.redhat.lightblue.client.LightblueClient;
 import com.redhat.lightblue.client.LightblueException;
 import com.redhat.lightblue.client.model.DataError;
 import com.redhat.lightblue.client.model.Error;
 import com.redhat.lightblue.client.request.CRUDRequest;
-import com.redhat.lightblue.client.request.DataBulkRequest;
-import com.redhat.lightblue.client.response.LightblueBulkDataResponse;
-import com.redhat.lightblue.client.response.LightblueBulkResponseException;
 import com.redhat.lightblue.client.response.LightblueDataResponse;
 import com.redhat.lightblue.client.response.LightblueErrorResponse;
 import org.slf4j.Logger;
@@ -48,20 +46,31 @@ import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import javax.annotation.Nullable;
+
 /**
- * A partially thread-safe requester which queues up requests until an associated {@link Future} is
+ * A thread-safe requester which queues up requests until an associated {@link Future} is
  * resolved, at which point all queued requests are performed in a single batch.
  *
- * <p>This class may be used across multiple threads safely, however the returned {@code Future}s
- * are not threadsafe. That is, a given future instance should not be shared among multiple threads,
- * which should not be a relevant limitation (if it is, however, it would not be hard to make them
- * thread safe). Requests are queued up atomically, and performed and cleared atomically as well.
+ * <p>This class and the returned {@code Future}s may be used across multiple threads safely. Any
+ * number of threads may transform, add callbacks to, and resolve the same future concurrently. A
+ * thread which resolves a future while another thread is already performing the batch including
+ * it waits for that batch to finish. Requests are queued up atomically, and performed and cleared
+ * atomically as well.
  * That is, when one future is resolved, the current batch of requests is frozen, copied, cleared,
  * and performed. A thread queueing a request while another thread resolves a future will
  * <em>not</em> result in a loss of requests. It will either make it in for the batch, or be queued
@@ -72,16 +81,125 @@ import java.util.stream.Stream;
  * want some other thread interrupting your batch performing your requests before you've finished
  * queueing all of them up. So, you should create a new {@code BulkLightblueRequester} instance per
  * logical "batch," and generally should avoid sharing an instance among multiple threads.
+ *
+ * <p>Requests within a batch are {@link CoalescedRequests coalesced} before they are sent:
+ * equivalent finds are only performed once, and {@link FindByIdRequest}s for the same entity are
+ * fused into one find. Each future still gets a response for each of its own requests.
+ *
+ * <p>By default, each batch is sent as one bulk request. Given a {@link ChunkedBulkExecutor}, a
+ * large batch may be split into several bulk requests performed concurrently. If one of those
+ * fails as a whole, only the futures with requests in it fail.
+ *
+ * <p>{@link Future#get()} performs the batch in the calling thread. So does {@link Future#get(long,
+ * TimeUnit)}, unless a batch executor is provided, in which case it performs the batch on the
+ * executor, so that the caller may time out while the batch carries on and completes its futures
+ * in the background. If every future in a batch performed this way is
+ * {@link Future#cancel(boolean) cancelled} with {@code mayInterruptIfRunning}, the worker is
+ * interrupted. Requests of futures which are cancelled before their batch starts are not sent at
+ * all.
+ *
+ * <p>The latency of each future's requests, both time spent queued and time spent performing the
+ * batch, is logged at debug level.
  */
 public class BulkLightblueRequester implements LightblueRequester {
-    private final LightblueClient lightblue;
+    private static final Logger log = LoggerFactory.getLogger(BulkLightblueRequester.class);
+
+    /**
+     * Number of threads in batch executors created by {@link #newBatchExecutor(int)} when no
+     * other size is configured. This bounds how many timed out batches may be in flight at once.
+     */
+    public static final int DEFAULT_BATCH_THREADS = 4;
+
+    private final ChunkedBulkExecutor bulkExecutor;
+    @Nullable
+    private final Executor batchExecutor;
     private final List<LazyRequestTransformableFuture<LightblueDataResponses>> queuedRequests =
             Collections.synchronizedList(new ArrayList<>());
     private final List<LazyRequestTransformableFuture<LightblueResponses>> queuedTryRequests =
             Collections.synchronizedList(new ArrayList<>());
 
+    /**
+     * Guards {@link #batchesInFlight}, and is notified whenever a batch finishes.
+     */
+    private final Object batchesInFlightLock = new Object();
+    private int batchesInFlight = 0;
+    private final ThreadLocal<Integer> batchesInFlightOnThisThread =
+            ThreadLocal.withInitial(() -> 0);
+
+    private final Completer completer = new Completer() {
+        @Override
+        public void triggerFutureCompletion() {
+            doQueuedRequestsAndCompleteFutures(false);
+        }
+
+        @Override
+        public void triggerFutureCompletionAsync() {
+            if (batchExecutor == null) {
+                doQueuedRequestsAndCompleteFutures(false);
+                return;
+            }
+
+            Runnable batch = () -> doQueuedRequestsAndCompleteFutures(true);
+
+            try {
+                batchExecutor.execute(batch);
+            } catch (RejectedExecutionException e) {
+                log.debug("Batch rejected by executor. Performing in calling thread instead.", e);
+                doQueuedRequestsAndCompleteFutures(false);
+            }
+        }
+
+        @Override
+        public void awaitCompletionsInProgress() throws InterruptedException {
+            awaitBatchesInFlightOnOtherThreads();
+        }
+    };
+
     public BulkLightblueRequester(LightblueClient lightblue) {
-        this.lightblue = lightblue;
+        this(new ChunkedBulkExecutor(lightblue));
+    }
+
+    /**
+     * Performs each batch of requests with the provided bulk executor, which may split a large
+     * batch into several smaller bulk requests. Batches triggered by
+     * {@link Future#get(long, TimeUnit)} are performed in the calling thread, so the timeout only
+     * applies once the batch is done; the caller cannot time out of a slow bulk request.
+     */
+    public BulkLightblueRequester(ChunkedBulkExecutor bulkExecutor) {
+        this.bulkExecutor = Objects.requireNonNull(bulkExecutor, "bulkExecutor");
+        this.batchExecutor = null;
+    }
+
+    /**
+     * @param batchExecutor Performs batches triggered by {@link Future#get(long, TimeUnit)}, so
+     *                      that callers may time out. Each task performs one batch, and blocks
+     *                      until its bulk requests are done, so this should be bounded to however
+     *                      many batches may be in flight at once. If it rejects a batch, the batch
+     *                      is performed in the calling thread instead. The requester does not own
+     *                      this executor.
+     */
+    public BulkLightblueRequester(ChunkedBulkExecutor bulkExecutor, Executor batchExecutor) {
+        this.bulkExecutor = Objects.requireNonNull(bulkExecutor, "bulkExecutor");
+        this.batchExecutor = Objects.requireNonNull(batchExecutor, "batchExecutor");
+    }
+
+    /**
+     * Creates a pool of {@code threads} daemon threads suitable as the batch executor of any
+     * number of requesters. The caller owns the pool, and should shut it down when it is no
+     * longer needed.
+     *
+     * @see #BulkLightblueRequester(ChunkedBulkExecutor, Executor)
+     */
+    public static ExecutorService newBatchExecutor(int threads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                1, TimeUnit.MINUTES, new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("lightblue-requester-batch-%d")
+                        .setDaemon(true)
+                        .build());
+        // Batches are only handed off when waited on with a timeout; don't keep idle threads.
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
     }
 
     @Override
@@ -108,7 +226,43 @@ public class BulkLightblueRequester implements LightblueRequester {
         return responseFuture;
     }
 
-    private void doQueuedRequestsAndCompleteFutures() {
+    /**
+     * @param interruptible Whether the batch is performed on a worker thread which may be
+     *                      interrupted if all of the batch's futures are cancelled. Callers' own
+     *                      threads are never interrupted.
+     */
+    private void doQueuedRequestsAndCompleteFutures(boolean interruptible) {
+        synchronized (batchesInFlightLock) {
+            batchesInFlight++;
+        }
+        batchesInFlightOnThisThread.set(batchesInFlightOnThisThread.get() + 1);
+
+        try {
+            performQueuedRequestsAndCompleteFutures(interruptible);
+        } finally {
+            batchesInFlightOnThisThread.set(batchesInFlightOnThisThread.get() - 1);
+            synchronized (batchesInFlightLock) {
+                batchesInFlight--;
+                batchesInFlightLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits for batches being performed by other threads to finish. Batches performed further up
+     * this thread's own stack are not waited for, as they cannot finish until this returns.
+     */
+    private void awaitBatchesInFlightOnOtherThreads() throws InterruptedException {
+        int ownBatchesInFlight = batchesInFlightOnThisThread.get();
+
+        synchronized (batchesInFlightLock) {
+            while (batchesInFlight > ownBatchesInFlight) {
+                batchesInFlightLock.wait();
+            }
+        }
+    }
+
+    private void performQueuedRequestsAndCompleteFutures(boolean interruptible) {
         List<LazyRequestTransformableFuture<LightblueDataResponses>> batch;
         List<LazyRequestTransformableFuture<LightblueResponses>> tryBatch;
 
@@ -122,15 +276,38 @@ public class BulkLightblueRequester implements LightblueRequester {
             queuedTryRequests.clear();
         }
 
-        DataBulkRequest bulkRequest = new DataBulkRequest();
+        // Futures may be cancelled after being dequeued, but before we got here.
+        batch.removeIf(LazyRequestTransformableFuture::isDone);
+        tryBatch.removeIf(LazyRequestTransformableFuture::isDone);
+
+        if (batch.isEmpty() && tryBatch.isEmpty()) {
+            return;
+        }
+
+        long batchStartNanos = System.nanoTime();
+        InterruptibleBatch interruptibleBatch = null;
+
+        if (interruptible) {
+            interruptibleBatch = new InterruptibleBatch(
+                    Stream.concat(batch.stream(), tryBatch.stream()).collect(Collectors.toList()));
+        }
+
+        for (LazyRequestTransformableFuture<?> batchedFuture : batch) {
+            batchedFuture.startedBatch(batchStartNanos, interruptibleBatch);
+        }
 
-        Stream.concat(batch.stream(), tryBatch.stream())
-                .flatMap(requestFuture -> Arrays.stream(requestFuture.requests))
-                // TODO: Determine if any requests are equivalent / duplicated and filter out
-                .forEach(bulkRequest::add);
+        for (LazyRequestTransformableFuture<?> batchedFuture : tryBatch) {
+            batchedFuture.startedBatch(batchStartNanos, interruptibleBatch);
+        }
 
         try {
-            LightblueBulkDataResponse bulkResponse = tryBulkRequest(bulkRequest);
+            CoalescedRequests coalescedRequests = new CoalescedRequests(
+                    Stream.concat(batch.stream(), tryBatch.stream())
+                            .flatMap(requestFuture -> Arrays.stream(requestFuture.requests))
+                            .collect(Collectors.toList()));
+
+            ChunkedBulkResponse bulkResponse =
+                    bulkExecutor.execute(coalescedRequests.requestsToSend());
 
             for (LazyRequestTransformableFuture<LightblueDataResponses> batchedFuture : batch) {
                 CRUDRequest[] requests = batchedFuture.requests;
@@ -138,27 +315,12 @@ public class BulkLightblueRequester implements LightblueRequester {
                         new HashMap<>(requests.length);
                 List<Error> errors = new ArrayList<>();
 
-                for (CRUDRequest request : requests) {
-                    LightblueDataResponse response = bulkResponse.getResponse(request);
-
-                    if (response instanceof LightblueErrorResponse) {
-                        LightblueErrorResponse errorResponse = (LightblueErrorResponse) response;
-
-                        DataError[] dataErrors = errorResponse.getDataErrors();
-                        Error[] lightblueErrors = errorResponse.getLightblueErrors();
-
-                        if (dataErrors != null) {
-                            for (DataError dataError : dataErrors) {
-                                errors.addAll(dataError.getErrors());
-                            }
-                        }
-
-                        if (lightblueErrors != null) {
-                            Collections.addAll(errors, lightblueErrors);
-                        }
-                    }
-
-                    responseMap.put(request, response);
+                try {
+                    addResponses(requests, coalescedRequests, bulkResponse, responseMap, errors);
+                } catch (LightblueException e) {
+                    // Only this future's chunk failed; others may still succeed.
+                    batchedFuture.completeExceptionally(e);
+                    continue;
                 }
 
                 if (errors.isEmpty()) {
@@ -173,9 +335,15 @@ public class BulkLightblueRequester implements LightblueRequester {
                 Map<CRUDRequest, LightblueResponse> responseMap =
                         new HashMap<>(requests.length);
 
-                for (CRUDRequest request : requests) {
-                    LightblueDataResponse response = bulkResponse.getResponse(request);
-                    responseMap.put(request, LightblueResponse.fromClientResponse(response));
+                try {
+                    for (CRUDRequest request : requests) {
+                        LightblueDataResponse response =
+                                coalescedRequests.responseFor(request, bulkResponse);
+                        responseMap.put(request, LightblueResponse.fromClientResponse(response));
+                    }
+                } catch (LightblueException e) {
+                    batchedFuture.completeExceptionally(e);
+                    continue;
                 }
 
                 batchedFuture.complete(new BulkResponses(responseMap));
@@ -183,22 +351,43 @@ public class BulkLightblueRequester implements LightblueRequester {
         } catch (Exception e) {
             Stream.concat(batch.stream(), tryBatch.stream())
                     .forEach(batchedFuture -> batchedFuture.completeExceptionally(e));
+        } finally {
+            if (interruptibleBatch != null) {
+                interruptibleBatch.finish();
+            }
         }
     }
 
     /**
-     * Swallows exceptions related to errors in individual requests on purpose. The returned
-     * bulk response object may have failed responses.
+     * Collects responses for each request, as well as any errors in those responses.
      *
-     * @throws LightblueException if something else went wrong, in which case there is no usable
-     *                            response at all.
+     * @throws LightblueException if the bulk request chunk for any of the requests failed.
      */
-    private LightblueBulkDataResponse tryBulkRequest(DataBulkRequest bulkRequest)
-            throws LightblueException {
-        try {
-            return lightblue.bulkData(bulkRequest);
-        } catch (LightblueBulkResponseException e) {
-            return e.getBulkResponse();
+    private static void addResponses(CRUDRequest[] requests, CoalescedRequests coalescedRequests,
+            ChunkedBulkResponse bulkResponse, Map<CRUDRequest, LightblueDataResponse> responseMap,
+            List<Error> errors) throws LightblueException {
+        for (CRUDRequest request : requests) {
+            LightblueDataResponse response =
+                    coalescedRequests.responseFor(request, bulkResponse);
+
+            if (response instanceof LightblueErrorResponse) {
+                LightblueErrorResponse errorResponse = (LightblueErrorResponse) response;
+
+                DataError[] dataErrors = errorResponse.getDataErrors();
+                Error[] lightblueErrors = errorResponse.getLightblueErrors();
+
+                if (dataErrors != null) {
+                    for (DataError dataError : dataErrors) {
+                        errors.addAll(dataError.getErrors());
+                    }
+                }
+
+                if (lightblueErrors != null) {
+                    Collections.addAll(errors, lightblueErrors);
+                }
+            }
+
+            responseMap.put(request, response);
         }
     }
 
@@ -261,6 +450,16 @@ public class BulkLightblueRequester implements LightblueRequester {
      * async future the callbacks happen at some point in the future regardless of if anything ever
      * calls {@code .get()}.
      *
+     * <p>The one exception is {@link #get(long, TimeUnit)}: to be able to time out, the work is
+     * still only started on demand, but it is done in another thread if the completer supports it.
+     *
+     * <p>This future is thread safe without locking. Its entire state is one atomic reference,
+     * which is either a stack of listeners (transforms and done callbacks) while pending, or the
+     * final {@link Outcome} once done. Listeners are pushed and the outcome is set by compare and
+     * set, so the future is completed exactly once, and every listener is notified exactly once:
+     * either by the thread which completes the future, or, if it was already done, by the thread
+     * which added the listener.
+     *
      * @param <U> The type of the result of the future. See {@link TransformableFuture}.
      */
     static class LazyTransformableFuture<U> implements TransformableFuture<U> {
@@ -273,19 +472,11 @@ public class BulkLightblueRequester implements LightblueRequester {
          */
         private final Completer completer;
 
-        private U result;
-        private Exception exception;
-        private boolean completed = false;
-        private boolean cancelled = false;
-
         /**
-         * Queued up futures which are the result of applying this future's value to some transform
-         * function ({@link FutureTransform}). Futures are queued up by calling APIs like
-         * {@link #transformSync(FutureTransform)} and {@link #transformAsync(FutureTransform)}.
+         * Either {@link Listeners} while pending, or an {@link Outcome} when done. Once an outcome
+         * is set, it never changes.
          */
-        private final List<LazyTransformingFuture<U, ?>> next = new ArrayList<>(1);
-
-        private final List<FutureDoneCallback> doneCallbacks = new ArrayList<>();
+        private final AtomicReference<Object> state = new AtomicReference<>(Listeners.NONE);
 
         private static Logger log = LoggerFactory.getLogger(LazyTransformableFuture.class);
 
@@ -298,96 +489,86 @@ public class BulkLightblueRequester implements LightblueRequester {
         }
 
         void complete(U responses) {
-            if (isDone()) return;
-
-            result = responses;
-            completed = true;
-            callDoneCallbacks();
-
-            // It's important that these transforms are completed eagerly, since this may queue up
+            // It's important that transforms are completed eagerly, since this may queue up
             // additional requests. See LazyTransformingFuture#complete.
-            for (LazyTransformingFuture<U, ?> next : this.next) {
-                try {
-                    next.complete(result);
-                } catch (Exception e) {
-                    log.warn("Exception caught and ignored while completing next transforming " +
-                            "future.", e);
-                }
-            }
+            settle(new Outcome(responses, null));
         }
 
         void completeExceptionally(Exception exception) {
-            if (isDone()) return;
-            completed = true;
-            this.exception = exception;
-            callDoneCallbacks();
-
-            for (LazyTransformingFuture<U, ?> next : this.next) {
-                try {
-                    next.completeExceptionally(exception);
-                } catch (Exception e) {
-                    log.warn("Exception caught and ignored while completing next transforming " +
-                            "future with exception.", e);
-                }
-            }
+            settle(new Outcome(null, exception));
         }
 
         @Override
         public boolean cancel(boolean mayInterruptIfRunning) {
-            if (completed) return false;
-            cancelled = true;
-            callDoneCallbacks();
-            return true;
+            return settle(Outcome.CANCELLED);
         }
 
         @Override
         public boolean isCancelled() {
-            return cancelled;
+            return state.get() == Outcome.CANCELLED;
         }
 
         @Override
         public boolean isDone() {
-            return cancelled || completed;
+            return state.get() instanceof Outcome;
         }
 
         @Override
         public U get() throws InterruptedException, ExecutionException {
-            if (cancelled) {
-                throw new CancellationException();
-            }
+            Object current = state.get();
 
-            if (!completed) {
+            if (!(current instanceof Outcome)) {
                 completer.triggerFutureCompletion();
+                current = state.get();
 
-                if (!completed) {
+                if (!(current instanceof Outcome)) {
+                    // Another thread may be in the middle of completing this future.
+                    completer.awaitCompletionsInProgress();
+                    current = state.get();
+                }
+
+                if (!(current instanceof Outcome)) {
                     throw new ExecutionException(new IllegalStateException("Future attempted to " +
                             "lazily trigger completion, but completer did not actually complete " +
                             "the future. Check the provided completer function for correctness."));
                 }
             }
 
-            if (exception != null) {
-                throw new ExecutionException(exception);
-            }
-
-            return result;
+            return report((Outcome) current);
         }
 
-        // TODO(ahenning): This ignores the timeout because we aren't doing work in another thread
-        // I'm not sure that anyone will ever care, but if they did, we would do the same lazy
-        // stuff, but just do it in another thread which we could interrupt if it took too long.
-        // In that case we may have to build in interrupt checking during request processing.
+        /**
+         * Unlike {@link #get()}, asks the completer to complete this future in another thread if
+         * it can, so that we can stop waiting once the timeout elapses. Timing out does not stop
+         * completion; the future may still be completed later.
+         */
         @Override
         public U get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
                 TimeoutException {
-            return get();
+            Object current = state.get();
+
+            if (!(current instanceof Outcome)) {
+                CountDownLatch done = new CountDownLatch(1);
+                addListener((FutureDoneCallback) done::countDown);
+
+                completer.triggerFutureCompletionAsync();
+
+                if (!done.await(timeout, unit)) {
+                    throw new TimeoutException("Future not completed within " + timeout + " " +
+                            unit);
+                }
+
+                current = state.get();
+            }
+
+            return report((Outcome) current);
         }
 
         @Override
         public <V> TransformableFuture<V> transformSync(FutureTransform<U, V> futureTransform) {
             LazyTransformingFuture<U, V> future =
                     new LazyTransformingFuture<>(futureTransform, completer);
-            next.add(future);
+            addListener(future);
             return future;
         }
 
@@ -396,7 +577,7 @@ public class BulkLightblueRequester implements LightblueRequester {
                 FutureTransform<U, TransformableFuture<V>> futureTransform) {
             LazyTransformingFuture<U, TransformableFuture<V>> future =
                     new LazyTransformingFuture<>(futureTransform, completer);
-            next.add(future);
+            addListener(future);
             return new NestedTransformableFuture<>(future);
         }
 
@@ -405,59 +586,201 @@ public class BulkLightblueRequester implements LightblueRequester {
                 FutureTransform<U, TransformableFuture<?>> futureTransform) {
             LazyTransformingFuture<U, TransformableFuture<?>> future =
                     new LazyTransformingFuture<>(futureTransform, completer);
-            next.add(future);
+            addListener(future);
             return new NestedTransformableFutureIgnoringReturn(future);
         }
 
         @Override
         public TransformableFuture<U> whenDoneOrCancelled(FutureDoneCallback callback) {
-            if (isDone()) {
+            addListener(callback);
+            return this;
+        }
+
+        /**
+         * @return {@code true} if this call settled the future, or {@code false} if it was already
+         * done.
+         */
+        private boolean settle(Outcome outcome) {
+            while (true) {
+                Object current = state.get();
+
+                if (current instanceof Outcome) {
+                    return false;
+                }
+
+                if (state.compareAndSet(current, outcome)) {
+                    notifyListeners(((Listeners) current).inOrderAdded(), outcome);
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Pushes the listener onto the stack if this future is pending, otherwise notifies it of the
+         * outcome right away.
+         *
+         * @param listener Either a {@link FutureDoneCallback} or a {@link LazyTransformingFuture}.
+         */
+        private void addListener(Object listener) {
+            while (true) {
+                Object current = state.get();
+
+                if (current instanceof Outcome) {
+                    notifyListener(listener, (Outcome) current);
+                    return;
+                }
+
+                if (state.compareAndSet(current, new Listeners(listener, (Listeners) current))) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Calls done callbacks before completing next transforming futures, each in the order they
+         * were added.
+         */
+        private void notifyListeners(List<Object> listeners, Outcome outcome) {
+            for (Object listener : listeners) {
+                if (listener instanceof FutureDoneCallback) {
+                    notifyListener(listener, outcome);
+                }
+            }
+
+            for (Object listener : listeners) {
+                if (!(listener instanceof FutureDoneCallback)) {
+                    notifyListener(listener, outcome);
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void notifyListener(Object listener, Outcome outcome) {
+            if (listener instanceof FutureDoneCallback) {
                 try {
-                    callback.onDoneOrCancelled();
+                    ((FutureDoneCallback) listener).onDoneOrCancelled();
                 } catch (Exception e) {
                     log.warn("Exception caught and ignored while running future done callback.", e);
                 }
-                return this;
+                return;
+            }
+
+            if (outcome == Outcome.CANCELLED) {
+                return;
             }
-            doneCallbacks.add(callback);
-            return this;
-        }
 
-        private void callDoneCallbacks() {
-            for (FutureDoneCallback doneCallback : doneCallbacks) {
+            LazyTransformingFuture<U, ?> next = (LazyTransformingFuture<U, ?>) listener;
+
+            if (outcome.exception != null) {
                 try {
-                    doneCallback.onDoneOrCancelled();
+                    next.completeExceptionally(outcome.exception);
                 } catch (Exception e) {
-                    log.warn("Exception caught and ignored while running future done callback.", e);
+                    log.warn("Exception caught and ignored while completing next transforming " +
+                            "future with exception.", e);
+                }
+            } else {
+                try {
+                    next.complete((U) outcome.result);
+                } catch (Exception e) {
+                    log.warn("Exception caught and ignored while completing next transforming " +
+                            "future.", e);
                 }
             }
         }
+
+        @SuppressWarnings("unchecked")
+        private U report(Outcome outcome) throws ExecutionException {
+            if (outcome == Outcome.CANCELLED) {
+                throw new CancellationException();
+            }
+
+            if (outcome.exception != null) {
+                throw new ExecutionException(outcome.exception);
+            }
+
+            return (U) outcome.result;
+        }
+
+        /** An immutable stack of listeners, most recently added first. */
+        private static final class Listeners {
+            static final Listeners NONE = new Listeners(null, null);
+
+            final Object listener;
+            final Listeners next;
+
+            Listeners(Object listener, Listeners next) {
+                this.listener = listener;
+                this.next = next;
+            }
+
+            List<Object> inOrderAdded() {
+                List<Object> listeners = new ArrayList<>();
+                for (Listeners node = this; node != NONE; node = node.next) {
+                    listeners.add(node.listener);
+                }
+                Collections.reverse(listeners);
+                return listeners;
+            }
+        }
+
+        private static final class Outcome {
+            static final Outcome CANCELLED = new Outcome(null, null);
+
+            final Object result;
+            final Exception exception;
+
+            Outcome(Object result, Exception exception) {
+                this.result = result;
+                this.exception = exception;
+            }
+        }
     }
 
     /**
      * Wraps a {@link LazyTransformableFuture} and some {@link AbstractLightblueDataRequest
      * lightblue requests} which are used to complete this in
-     * {@link #doQueuedRequestsAndCompleteFutures()}. Naturally, then, that function is used as the
+     * {@link #doQueuedRequestsAndCompleteFutures(boolean)}. Naturally, then, that function is used as the
      * lazy future's completer function. That function and this implementation are tightly coupled.
      */
     class LazyRequestTransformableFuture<T> implements TransformableFuture<T> {
         private final LazyTransformableFuture<T> backingFuture =
-                new LazyTransformableFuture<>(() -> doQueuedRequestsAndCompleteFutures());
+                new LazyTransformableFuture<>(completer);
 
         final CRUDRequest[] requests;
 
+        private final long queuedNanos = System.nanoTime();
+        private volatile long batchStartNanos;
+        private volatile @Nullable InterruptibleBatch interruptibleBatch;
+
         LazyRequestTransformableFuture(CRUDRequest[] requests) {
             this.requests = requests;
         }
 
+        void startedBatch(long batchStartNanos, @Nullable InterruptibleBatch interruptibleBatch) {
+            this.batchStartNanos = batchStartNanos;
+            this.interruptibleBatch = interruptibleBatch;
+        }
+
         void complete(T responses) {
+            logLatency("succeeded");
             backingFuture.complete(responses);
         }
 
         void completeExceptionally(Exception exception) {
+            logLatency("failed");
             backingFuture.completeExceptionally(exception);
         }
 
+        private void logLatency(String outcome) {
+            if (log.isDebugEnabled() && !isDone()) {
+                long nowNanos = System.nanoTime();
+                log.debug("{} lightblue requests {} after {}ms, {}ms of which were queued.",
+                        requests.length, outcome,
+                        TimeUnit.NANOSECONDS.toMillis(nowNanos - queuedNanos),
+                        TimeUnit.NANOSECONDS.toMillis(batchStartNanos - queuedNanos));
+            }
+        }
+
         @Override
         public <U> TransformableFuture<U> transformSync(
                 FutureTransform<T, U> futureTransform) {
@@ -489,7 +812,14 @@ public class BulkLightblueRequester implements LightblueRequester {
                 queuedTryRequests.remove(this);
             }
 
-            return backingFuture.cancel(mayInterruptIfRunning);
+            boolean cancelled = backingFuture.cancel(mayInterruptIfRunning);
+            InterruptibleBatch batch = interruptibleBatch;
+
+            if (cancelled && mayInterruptIfRunning && batch != null) {
+                batch.interruptIfAllCancelled();
+            }
+
+            return cancelled;
         }
 
         @Override
@@ -580,10 +910,6 @@ public class BulkLightblueRequester implements LightblueRequester {
             return backingFuture.get();
         }
 
-        /**
-         * This future is not completed asynchronously so there is no way to "time out" unless we
-         * introduce another thread for processing requests which I don't think is hugely necessary.
-         */
         @Override
         public U get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
                 TimeoutException {
@@ -614,7 +940,53 @@ public class BulkLightblueRequester implements LightblueRequester {
         }
     }
 
+    /**
+     * A batch being performed on a worker thread, which is interrupted if every future waiting on
+     * the batch is cancelled, since nothing would use its responses.
+     */
+    static final class InterruptibleBatch {
+        private final List<LazyRequestTransformableFuture<?>> futures;
+
+        /** The thread performing the batch, or null once it is finished. Guarded by this. */
+        private @Nullable Thread thread = Thread.currentThread();
+
+        InterruptibleBatch(List<LazyRequestTransformableFuture<?>> futures) {
+            this.futures = futures;
+        }
+
+        synchronized void interruptIfAllCancelled() {
+            if (thread != null &&
+                    futures.stream().allMatch(LazyRequestTransformableFuture::isCancelled)) {
+                thread.interrupt();
+            }
+        }
+
+        /**
+         * Stops further interrupts and clears any which would otherwise leak into the worker's
+         * next task.
+         */
+        synchronized void finish() {
+            thread = null;
+            Thread.interrupted();
+        }
+    }
+
     interface Completer {
         void triggerFutureCompletion();
+
+        /**
+         * Like {@link #triggerFutureCompletion()}, but may complete futures in another thread,
+         * returning right away. By default, completes them in the calling thread.
+         */
+        default void triggerFutureCompletionAsync() {
+            triggerFutureCompletion();
+        }
+
+        /**
+         * Blocks until completions which other threads already started are finished. A future which
+         * is still not done after {@link #triggerFutureCompletion()} may be in the middle of being
+         * completed by another thread.
+         */
+        default void awaitCompletionsInProgress() throws InterruptedException {}
     }
 }
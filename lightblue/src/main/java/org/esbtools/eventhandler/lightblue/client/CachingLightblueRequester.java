@@ -0,0 +1,169 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler.lightblue.client;
+
+import org.esbtools.eventhandler.Responses;
+import org.esbtools.eventhandler.TransformableFuture;
+
+import com.redhat.lightblue.client.request.CRUDRequest;
+import com.redhat.lightblue.client.response.LightblueDataResponse;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * Decorates another requester, answering cacheable finds from a shared
+ * {@link LightblueResponseCache} when it can, and only passing the remaining requests along.
+ *
+ * <p>Requesters like {@link BulkLightblueRequester} are typically created per batch, while the
+ * cache outlives them, so wrap each new requester with the same cache instance.
+ *
+ * <p>If every request is answered by the cache, the returned future is already complete, and
+ * nothing is requested from the wrapped requester at all. Otherwise, successful responses from the
+ * wrapped requester are cached as they arrive.
+ */
+public class CachingLightblueRequester implements LightblueRequester {
+    private final LightblueResponseCache cache;
+    private final LightblueRequester requester;
+
+    public CachingLightblueRequester(LightblueResponseCache cache, LightblueRequester requester) {
+        this.cache = Objects.requireNonNull(cache, "cache");
+        this.requester = Objects.requireNonNull(requester, "requester");
+    }
+
+    @Override
+    public TransformableFuture<LightblueDataResponses> request(CRUDRequest... requests) {
+        Map<CRUDRequest, LightblueDataResponse> cached = new HashMap<>();
+        List<CRUDRequest> uncached = lookUpCached(requests, cached);
+
+        if (uncached.isEmpty()) {
+            return TransformableFuture.immediate(new CachedDataResponses(cached, null));
+        }
+
+        return requester.request(uncached).transformSync(responses -> {
+            for (CRUDRequest request : uncached) {
+                cache.put(request, responses.forRequest(request));
+            }
+
+            return new CachedDataResponses(cached, responses);
+        });
+    }
+
+    @Override
+    public TransformableFuture<LightblueDataResponses> request(
+            Collection<? extends CRUDRequest> requests) {
+        return request(requests.toArray(new CRUDRequest[requests.size()]));
+    }
+
+    @Override
+    public TransformableFuture<LightblueResponses> tryRequest(CRUDRequest... requests) {
+        Map<CRUDRequest, LightblueDataResponse> cachedData = new HashMap<>();
+        List<CRUDRequest> uncached = lookUpCached(requests, cachedData);
+
+        Map<CRUDRequest, LightblueResponse> cached = new HashMap<>(cachedData.size());
+        cachedData.forEach((request, response) ->
+                cached.put(request, LightblueResponse.fromClientResponse(response)));
+
+        if (uncached.isEmpty()) {
+            return TransformableFuture.immediate(new CachedTryResponses(cached, null));
+        }
+
+        return requester.tryRequest(uncached).transformSync(responses -> {
+            for (CRUDRequest request : uncached) {
+                LightblueResponse response = responses.forRequest(request);
+
+                if (response.isSuccess()) {
+                    cache.put(request, response.getSuccess());
+                }
+            }
+
+            return new CachedTryResponses(cached, responses);
+        });
+    }
+
+    /**
+     * Puts responses for requests which are cached into {@code cached}, and returns the rest.
+     */
+    private List<CRUDRequest> lookUpCached(CRUDRequest[] requests,
+            Map<CRUDRequest, LightblueDataResponse> cached) {
+        List<CRUDRequest> uncached = new ArrayList<>(requests.length);
+
+        for (CRUDRequest request : requests) {
+            LightblueDataResponse response = cache.get(request);
+
+            if (response == null) {
+                uncached.add(request);
+            } else {
+                cached.put(request, response);
+            }
+        }
+
+        return uncached;
+    }
+
+    /**
+     * Responses from the cache, falling back to responses from the wrapped requester, if any. As in
+     * {@link BulkLightblueRequester}, subclassed once per type of response.
+     */
+    static abstract class CachedResponses<T> implements Responses<CRUDRequest, T> {
+        private final Map<CRUDRequest, T> cached;
+        private final @Nullable Responses<CRUDRequest, ? extends T> requested;
+
+        CachedResponses(Map<CRUDRequest, T> cached,
+                @Nullable Responses<CRUDRequest, ? extends T> requested) {
+            this.cached = cached;
+            this.requested = requested;
+        }
+
+        @Override
+        public T forRequest(CRUDRequest request) {
+            if (cached.containsKey(request)) {
+                return cached.get(request);
+            }
+
+            if (requested == null) {
+                throw new NoSuchElementException("No response for request: " + request);
+            }
+
+            return requested.forRequest(request);
+        }
+    }
+
+    static class CachedDataResponses extends CachedResponses<LightblueDataResponse>
+            implements LightblueDataResponses {
+        CachedDataResponses(Map<CRUDRequest, LightblueDataResponse> cached,
+                @Nullable Responses<CRUDRequest, ? extends LightblueDataResponse> requested) {
+            super(cached, requested);
+        }
+    }
+
+    static class CachedTryResponses extends CachedResponses<LightblueResponse>
+            implements LightblueResponses {
+        CachedTryResponses(Map<CRUDRequest, LightblueResponse> cached,
+                @Nullable Responses<CRUDRequest, ? extends LightblueResponse> requested) {
+            super(cached, requested);
+        }
+    }
+}
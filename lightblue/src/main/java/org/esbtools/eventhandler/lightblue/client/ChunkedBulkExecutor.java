@@ -0,0 +1,267 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.esbtools.eventhandler.lightblue.client;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.redhat.lightblue.client.LightblueClient;
+import com.redhat.lightblue.client.LightblueException;
+import com.redhat.lightblue.client.request.CRUDRequest;
+import com.redhat.lightblue.client.request.DataBulkRequest;
+import com.redhat.lightblue.client.response.LightblueBulkDataResponse;
+import com.redhat.lightblue.client.response.LightblueBulkResponseException;
+import org.apache.camel.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Performs bulk requests in chunks, bounded by a number of requests and an approximate body
+ * length, so that huge batches do not turn into huge HTTP requests which take a long time for
+ * lightblue to process and time out all at once.
+ *
+ * <p>Chunks are performed concurrently on an executor, except for the last, which is performed in
+ * the calling thread. If the executor rejects a chunk, that chunk is also performed in the calling
+ * thread. The combined {@link ChunkedBulkResponse} has responses in the same order as the original
+ * requests.
+ *
+ * <p>A chunk which fails as a whole, for example because of a network error, only fails the
+ * requests in that chunk. Failed responses to individual requests are not exceptional, just as
+ * with a single bulk request. If every chunk fails, however, the first failure is thrown.
+ *
+ * <p>If the executor creates its pool itself, it owns it, and it should be {@link #stop() stopped}
+ * when it is no longer needed. Adding the executor to the {@code CamelContext} with
+ * {@code camelContext.addService(bulkExecutor)} will do this along with the context.
+ */
+public class ChunkedBulkExecutor implements Service {
+    private static final Logger logger = LoggerFactory.getLogger(ChunkedBulkExecutor.class);
+
+    private final LightblueClient lightblue;
+    private final int maxRequestsPerChunk;
+    private final int maxBodyLengthPerChunk;
+    private final Executor executor;
+    private final boolean ownsExecutor;
+
+    /**
+     * Performs all requests in a single bulk request, in the calling thread. This is the same as
+     * calling {@link LightblueClient#bulkData(DataBulkRequest)} directly.
+     */
+    public ChunkedBulkExecutor(LightblueClient lightblue) {
+        this(lightblue, Integer.MAX_VALUE, Integer.MAX_VALUE, MoreExecutors.directExecutor(),
+                false);
+    }
+
+    /**
+     * Creates and owns a fixed pool of {@code threads} daemon threads to perform chunks on. The
+     * pool is shut down when this executor is {@link #stop() stopped}.
+     *
+     * @see #ChunkedBulkExecutor(LightblueClient, int, int, ExecutorService)
+     */
+    public ChunkedBulkExecutor(LightblueClient lightblue, int maxRequestsPerChunk,
+            int maxBodyLengthPerChunk, int threads) {
+        this(lightblue, maxRequestsPerChunk, maxBodyLengthPerChunk,
+                newChunkPool(threads), true);
+    }
+
+    /**
+     * @param maxRequestsPerChunk The most requests to send in one bulk request.
+     * @param maxBodyLengthPerChunk The approximate longest body to send in one bulk request, in
+     *                              characters, as measured by the sum of each request's
+     *                              {@link CRUDRequest#getBody() body}. A single request longer than
+     *                              this is sent in a chunk by itself.
+     * @param executor Used to perform chunks concurrently. Should be bounded, since it limits how
+     *                 many bulk requests are made to lightblue at once. This is not owned by the
+     *                 bulk executor: stopping it will not shut the executor down.
+     */
+    public ChunkedBulkExecutor(LightblueClient lightblue, int maxRequestsPerChunk,
+            int maxBodyLengthPerChunk, ExecutorService executor) {
+        this(lightblue, maxRequestsPerChunk, maxBodyLengthPerChunk, executor, false);
+    }
+
+    private ChunkedBulkExecutor(LightblueClient lightblue, int maxRequestsPerChunk,
+            int maxBodyLengthPerChunk, Executor executor, boolean ownsExecutor) {
+        if (maxRequestsPerChunk < 1) {
+            throw new IllegalArgumentException("maxRequestsPerChunk must be at least 1 but was " +
+                    maxRequestsPerChunk);
+        }
+
+        if (maxBodyLengthPerChunk < 1) {
+            throw new IllegalArgumentException("maxBodyLengthPerChunk must be at least 1 but " +
+                    "was " + maxBodyLengthPerChunk);
+        }
+
+        this.lightblue = lightblue;
+        this.maxRequestsPerChunk = maxRequestsPerChunk;
+        this.maxBodyLengthPerChunk = maxBodyLengthPerChunk;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    /**
+     * Performs the requests in as many bulk requests as necessary to stay within the configured
+     * chunk bounds, and waits for all of them.
+     *
+     * @throws LightblueException if every chunk failed as a whole. Chunks which only have some
+     *                            failed responses are not considered failed.
+     */
+    public ChunkedBulkResponse execute(Collection<? extends CRUDRequest> requests)
+            throws LightblueException {
+        List<List<CRUDRequest>> chunks = chunk(requests);
+        List<FutureTask<LightblueBulkDataResponse>> chunkTasks = new ArrayList<>(chunks.size());
+
+        for (List<CRUDRequest> chunk : chunks) {
+            chunkTasks.add(new FutureTask<>(() -> tryBulkRequest(chunk)));
+        }
+
+        for (int i = 0; i < chunkTasks.size() - 1; i++) {
+            try {
+                executor.execute(chunkTasks.get(i));
+            } catch (RejectedExecutionException e) {
+                logger.debug("Bulk request chunk rejected by executor. Performing in calling " +
+                        "thread instead.", e);
+                chunkTasks.get(i).run();
+            }
+        }
+
+        if (!chunkTasks.isEmpty()) {
+            chunkTasks.get(chunkTasks.size() - 1).run();
+        }
+
+        ChunkedBulkResponse response = new ChunkedBulkResponse();
+        LightblueException firstFailure = null;
+        int failedChunks = 0;
+
+        for (int i = 0; i < chunks.size(); i++) {
+            FutureTask<LightblueBulkDataResponse> chunkTask = chunkTasks.get(i);
+
+            try {
+                response.addChunk(chunks.get(i), chunkTask.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                chunkTask.cancel(true);
+                LightblueException failure = new LightblueException("Interrupted while waiting " +
+                        "for bulk request chunk.", e);
+                response.addFailedChunk(chunks.get(i), failure);
+                firstFailure = firstFailure == null ? failure : firstFailure;
+                failedChunks++;
+            } catch (ExecutionException e) {
+                LightblueException failure = e.getCause() instanceof LightblueException
+                        ? (LightblueException) e.getCause()
+                        : new LightblueException("Bulk request chunk failed.", e.getCause());
+                logger.warn("Bulk request chunk of {} requests failed. Only requests in this " +
+                        "chunk will fail.", chunks.get(i).size(), failure);
+                response.addFailedChunk(chunks.get(i), failure);
+                firstFailure = firstFailure == null ? failure : firstFailure;
+                failedChunks++;
+            }
+        }
+
+        if (failedChunks > 0 && failedChunks == chunks.size()) {
+            throw firstFailure;
+        }
+
+        return response;
+    }
+
+    @Override
+    public void start() {
+        // Pool is ready upon construction.
+    }
+
+    /**
+     * Shuts down the pool chunks are performed on, if it is owned by this executor.
+     */
+    @Override
+    public void stop() {
+        if (ownsExecutor) {
+            ((ExecutorService) executor).shutdownNow();
+        }
+    }
+
+    /**
+     * Splits requests in order, starting a new chunk whenever adding the next request would exceed
+     * either bound.
+     */
+    List<List<CRUDRequest>> chunk(Collection<? extends CRUDRequest> requests) {
+        List<List<CRUDRequest>> chunks = new ArrayList<>();
+        List<CRUDRequest> chunk = new ArrayList<>();
+        long chunkBodyLength = 0;
+
+        for (CRUDRequest request : requests) {
+            int bodyLength = maxBodyLengthPerChunk == Integer.MAX_VALUE
+                    ? 0
+                    : approximateBodyLength(request);
+
+            if (!chunk.isEmpty() && (chunk.size() == maxRequestsPerChunk ||
+                    chunkBodyLength + bodyLength > maxBodyLengthPerChunk)) {
+                chunks.add(chunk);
+                chunk = new ArrayList<>();
+                chunkBodyLength = 0;
+            }
+
+            chunk.add(request);
+            chunkBodyLength += bodyLength;
+        }
+
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+
+        return chunks;
+    }
+
+    /**
+     * Swallows exceptions related to errors in individual requests on purpose. The returned
+     * bulk response object may have failed responses.
+     *
+     * @throws LightblueException if something else went wrong, in which case there is no usable
+     *                            response at all.
+     */
+    private LightblueBulkDataResponse tryBulkRequest(List<CRUDRequest> chunk)
+            throws LightblueException {
+        DataBulkRequest bulkRequest = new DataBulkRequest();
+        bulkRequest.addAll(chunk);
+
+        try {
+            return lightblue.bulkData(bulkRequest);
+        } catch (LightblueBulkResponseException e) {
+            return e.getBulkResponse();
+        }
+    }
+
+    private static int approximateBodyLength(CRUDRequest request) {
+        String body = request.getBody();
+        return body == null ? 0 : body.length();
+    }
+
+    private static ExecutorService newChunkPool(int threads) {
+        return Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+                .setNameFormat("lightblue-bulk-chunk-%d")
+                .setDaemon(true)
+                .build());
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.esbtools.eventhandler.lightblue.client;
+
+import com.redhat.lightblue.client.LightblueException;
+import com.redhat.lightblue.client.request.CRUDRequest;
+import com.redhat.lightblue.client.response.LightblueBulkDataResponse;
+import com.redhat.lightblue.client.response.LightblueDataResponse;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * The responses of a bulk request which was performed in chunks by a {@link ChunkedBulkExecutor}.
+ *
+ * <p>Responses may be looked up per request, or iterated in the order the requests were given.
+ * Requests in a chunk which failed as a whole have no response; looking them up throws that
+ * chunk's failure instead.
+ */
+public class ChunkedBulkResponse {
+    private final List<Chunk> chunks = new ArrayList<>();
+    private final Map<CRUDRequest, Chunk> chunksByRequest = new IdentityHashMap<>();
+
+    ChunkedBulkResponse() {}
+
+    void addChunk(List<CRUDRequest> requests, LightblueBulkDataResponse response) {
+        add(new Chunk(requests, response, null));
+    }
+
+    void addFailedChunk(List<CRUDRequest> requests, LightblueException failure) {
+        add(new Chunk(requests, null, failure));
+    }
+
+    /**
+     * @throws LightblueException if the chunk including this request failed as a whole.
+     * @throws NoSuchElementException if the request was not performed as part of this bulk.
+     */
+    public LightblueDataResponse getResponse(CRUDRequest request) throws LightblueException {
+        Chunk chunk = chunksByRequest.get(request);
+
+        if (chunk == null) {
+            throw new NoSuchElementException("No response for request: " + request);
+        }
+
+        if (chunk.failure != null) {
+            throw chunk.failure;
+        }
+
+        return chunk.response.getResponse(request);
+    }
+
+    /**
+     * All responses, in the same order as their requests.
+     *
+     * @throws LightblueException if any chunk failed as a whole. Use
+     *                            {@link #getResponse(CRUDRequest)} to get the responses which
+     *                            did succeed.
+     */
+    public List<LightblueDataResponse> getResponses() throws LightblueException {
+        List<LightblueDataResponse> responses = new ArrayList<>();
+
+        for (Chunk chunk : chunks) {
+            if (chunk.failure != null) {
+                throw chunk.failure;
+            }
+
+            responses.addAll(chunk.response.getResponses());
+        }
+
+        return responses;
+    }
+
+    public int chunkCount() {
+        return chunks.size();
+    }
+
+    private void add(Chunk chunk) {
+        chunks.add(chunk);
+
+        for (CRUDRequest request : chunk.requests) {
+            chunksByRequest.put(request, chunk);
+        }
+    }
+
+    private static class Chunk {
+        final List<CRUDRequest> requests;
+        final LightblueBulkDataResponse response;
+        final LightblueException failure;
+
+        Chunk(List<CRUDRequest> requests, LightblueBulkDataResponse response,
+                LightblueException failure) {
+            this.requests = requests;
+            this.response = response;
+            this.failure = failure;
+        }
+    }
+}
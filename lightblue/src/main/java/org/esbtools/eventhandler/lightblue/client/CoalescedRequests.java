@@ -0,0 +1,344 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler.lightblue.client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.redhat.lightblue.client.LightblueException;
+import com.redhat.lightblue.client.Literal;
+import com.redhat.lightblue.client.Projection;
+import com.redhat.lightblue.client.Query;
+import com.redhat.lightblue.client.request.CRUDRequest;
+import com.redhat.lightblue.client.request.data.DataFindRequest;
+import com.redhat.lightblue.client.response.DefaultLightblueDataResponse;
+import com.redhat.lightblue.client.response.LightblueDataResponse;
+import com.redhat.lightblue.client.response.LightblueErrorResponse;
+import com.redhat.lightblue.client.response.LightblueParseException;
+import com.redhat.lightblue.client.util.JSON;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The requests which actually need to be sent to lightblue for some batch of queued requests, and
+ * how to get each queued request's response back out of the bulk response for them.
+ *
+ * <p>Finds are only ever reads, so equivalent finds (same type, entity, version, and body) are
+ * only sent once and share a response. {@link FindByIdRequest}s which only differ by id are fused
+ * into one {@code $in} find, and each original request gets a response filtered down to the
+ * documents matching its id. Everything else is sent as is.
+ */
+class CoalescedRequests {
+    private final List<CRUDRequest> requestsToSend = new ArrayList<>();
+
+    /** The request actually sent for each queued request. Keyed by identity like bulk requests. */
+    private final Map<CRUDRequest, CRUDRequest> sentRequests = new IdentityHashMap<>();
+
+    /** Queued requests whose sent request was fused with others, and so must be filtered. */
+    private final Map<CRUDRequest, FusedFind> fusedFinds = new IdentityHashMap<>();
+
+    CoalescedRequests(Collection<? extends CRUDRequest> requests) {
+        Map<List<Object>, CRUDRequest> equivalentFinds = new HashMap<>();
+        Map<List<Object>, List<FindByIdRequest>> fusableFinds = new LinkedHashMap<>();
+
+        for (CRUDRequest request : requests) {
+            if (sentRequests.containsKey(request)) {
+                continue;
+            }
+
+            if (request instanceof FindByIdRequest) {
+                FindByIdRequest findById = (FindByIdRequest) request;
+                List<Object> fusionKey = Arrays.asList(findById.entityName(),
+                        findById.entityVersion(), findById.idField(),
+                        Arrays.toString(findById.projections()));
+                fusableFinds.computeIfAbsent(fusionKey, k -> new ArrayList<>()).add(findById);
+                // Placeholder until all fusable finds are known.
+                sentRequests.put(request, request);
+                continue;
+            }
+
+            if (request instanceof DataFindRequest) {
+                List<Object> equivalenceKey = Arrays.asList(request.getClass(),
+                        request.getEntityName(), request.getEntityVersion(), request.getBody());
+                CRUDRequest equivalent = equivalentFinds.putIfAbsent(equivalenceKey, request);
+
+                if (equivalent != null) {
+                    sentRequests.put(request, equivalent);
+                    continue;
+                }
+            }
+
+            sentRequests.put(request, request);
+            requestsToSend.add(request);
+        }
+
+        for (List<FindByIdRequest> findsById : fusableFinds.values()) {
+            fuse(findsById);
+        }
+    }
+
+    /**
+     * The requests to perform in bulk, with no duplicates. Each queued request has its response
+     * derived from one of these.
+     */
+    List<CRUDRequest> requestsToSend() {
+        return Collections.unmodifiableList(requestsToSend);
+    }
+
+    /**
+     * Looks up the response for a queued request from a bulk response for
+     * {@link #requestsToSend()}. Requests which were deduplicated share a response. Requests which
+     * were fused get a copy of the fused response with only their own documents, unless the fused
+     * request failed, in which case they all get its error response.
+     *
+     * @throws LightblueException if the bulk request chunk including the sent request failed.
+     */
+    LightblueDataResponse responseFor(CRUDRequest queuedRequest,
+            ChunkedBulkResponse bulkResponse) throws LightblueException {
+        CRUDRequest sentRequest = sentRequests.get(queuedRequest);
+
+        if (sentRequest == null) {
+            throw new IllegalArgumentException("Request was not part of this batch: " +
+                    queuedRequest);
+        }
+
+        LightblueDataResponse response = bulkResponse.getResponse(sentRequest);
+        FusedFind fusedFind = fusedFinds.get(queuedRequest);
+
+        if (fusedFind == null || response instanceof LightblueErrorResponse) {
+            return response;
+        }
+
+        return fusedFind.responseForId(response, ((FindByIdRequest) queuedRequest).id());
+    }
+
+    private void fuse(List<FindByIdRequest> findsById) {
+        FindByIdRequest first = findsById.get(0);
+        Set<Object> ids = new LinkedHashSet<>();
+
+        for (FindByIdRequest findById : findsById) {
+            ids.add(findById.id());
+        }
+
+        if (ids.size() == 1) {
+            for (FindByIdRequest findById : findsById) {
+                sentRequests.put(findById, first);
+            }
+            requestsToSend.add(first);
+            return;
+        }
+
+        List<Projection> projections = new ArrayList<>(Arrays.asList(first.projections()));
+        projections.add(Projection.includeField(first.idField()));
+
+        DataFindRequest fusedRequest =
+                new DataFindRequest(first.entityName(), first.entityVersion());
+        fusedRequest.where(Query.withValues(first.idField(), Query.NaryOp.in,
+                Literal.values(ids.toArray())));
+        fusedRequest.select(projections);
+
+        FusedFind fusedFind = new FusedFind(first.idField());
+
+        for (FindByIdRequest findById : findsById) {
+            sentRequests.put(findById, fusedRequest);
+            fusedFinds.put(findById, fusedFind);
+        }
+
+        requestsToSend.add(fusedRequest);
+    }
+
+    /**
+     * Splits the documents of a fused find response back out by id. Parsing is done once per
+     * fused response and type, no matter how many requests were fused.
+     *
+     * <p>Each id gets a response of its own, built from the fused response's top level fields and
+     * only that id's documents and their metadata, so every accessor agrees. Parsing its processed
+     * documents into a class still reuses the fused response's parsing, so documents are
+     * deserialized by the client's own {@code ObjectMapper}, which may be configured differently
+     * than the default.
+     */
+    static class FusedFind {
+        private final String idPointer;
+
+        private LightblueDataResponse response;
+        private Map<String, List<Integer>> indexesById;
+        private final Map<Class<?>, Object> parsedByArrayType = new HashMap<>();
+
+        FusedFind(String idField) {
+            this.idPointer = "/" + idField.replace('.', '/');
+        }
+
+        synchronized LightblueDataResponse responseForId(LightblueDataResponse response, Object id)
+                throws LightblueException {
+            List<Integer> indexes = indexesOf(response, id);
+            JsonNode[] documents = (JsonNode[]) parsedAs(response, JsonNode[].class);
+            JsonNode fusedJson = response.getJson();
+            ObjectNode json = JsonNodeFactory.instance.objectNode();
+
+            // Top level fields are shared, not copied; responses are never modified.
+            Iterator<Map.Entry<String, JsonNode>> fields = fusedJson.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                String name = field.getKey();
+
+                if (!name.equals("processed") && !name.equals("resultMetadata")) {
+                    json.set(name, field.getValue());
+                }
+            }
+
+            ArrayNode processed = json.putArray("processed");
+
+            for (Integer index : indexes) {
+                processed.add(documents[index]);
+            }
+
+            json.put("matchCount", indexes.size());
+
+            // Per document metadata, if any, parallels the processed documents.
+            JsonNode resultMetadata = fusedJson.get("resultMetadata");
+
+            if (resultMetadata != null && resultMetadata.isArray() &&
+                    resultMetadata.size() == documents.length) {
+                ArrayNode filteredMetadata = json.putArray("resultMetadata");
+
+                for (Integer index : indexes) {
+                    filteredMetadata.add(resultMetadata.get(index));
+                }
+            } else if (resultMetadata != null) {
+                json.set("resultMetadata", resultMetadata);
+            }
+
+            return new ResponseForId(json, response, id);
+        }
+
+        synchronized <T> T parseProcessed(LightblueDataResponse response, Object id,
+                Class<T> type) throws LightblueParseException {
+            List<Integer> indexes = indexesOf(response, id);
+
+            if (type.isArray()) {
+                Object all = parsedAs(response, type);
+                Object filtered = Array.newInstance(type.getComponentType(), indexes.size());
+                for (int i = 0; i < indexes.size(); i++) {
+                    Array.set(filtered, i, Array.get(all, indexes.get(i)));
+                }
+                return type.cast(filtered);
+            }
+
+            if (indexes.isEmpty()) {
+                return null;
+            }
+
+            if (indexes.size() > 1) {
+                throw new LightblueParseException("Found " + indexes.size() + " documents " +
+                        "with id " + id + " but expected at most one " + type.getName());
+            }
+
+            Object all = parsedAs(response, Array.newInstance(type, 0).getClass());
+            return type.cast(Array.get(all, indexes.get(0)));
+        }
+
+        private List<Integer> indexesOf(LightblueDataResponse response, Object id)
+                throws LightblueParseException {
+            checkSameResponse(response);
+
+            if (indexesById == null) {
+                indexesById = new HashMap<>();
+                JsonNode[] documents = (JsonNode[]) parsedAs(response, JsonNode[].class);
+
+                for (int i = 0; i < documents.length; i++) {
+                    JsonNode documentId = documents[i].at(idPointer);
+
+                    if (documentId.isMissingNode() || documentId.isNull()) {
+                        continue;
+                    }
+
+                    indexesById.computeIfAbsent(documentId.asText(), k -> new ArrayList<>())
+                            .add(i);
+                }
+            }
+
+            return indexesById.getOrDefault(String.valueOf(id), Collections.emptyList());
+        }
+
+        private Object parsedAs(LightblueDataResponse response, Class<?> arrayType)
+                throws LightblueParseException {
+            Object parsed = parsedByArrayType.get(arrayType);
+
+            if (parsed == null) {
+                parsed = response.parseProcessed(arrayType);
+
+                if (parsed == null) {
+                    parsed = Array.newInstance(arrayType.getComponentType(), 0);
+                }
+
+                parsedByArrayType.put(arrayType, parsed);
+            }
+
+            return parsed;
+        }
+
+        private void checkSameResponse(LightblueDataResponse response) {
+            if (this.response == null) {
+                this.response = response;
+            } else if (this.response != response) {
+                throw new IllegalStateException("Fused find was used with more than one " +
+                        "response. Expected: " + this.response + " but got: " + response);
+            }
+        }
+
+        /**
+         * A fused response's JSON filtered to one id's documents. Only parsing processed documents
+         * into a class defers to the fused response; see {@link FusedFind}.
+         */
+        private class ResponseForId extends DefaultLightblueDataResponse {
+            private final LightblueDataResponse fusedResponse;
+            private final Object id;
+
+            ResponseForId(JsonNode filteredResponse, LightblueDataResponse fusedResponse,
+                    Object id) throws LightblueException {
+                super(filteredResponse, JSON.getDefaultObjectMapper());
+                this.fusedResponse = fusedResponse;
+                this.id = id;
+            }
+
+            @Override
+            public <T> T parseProcessed(Class<T> type) throws LightblueParseException {
+                return FusedFind.this.parseProcessed(fusedResponse, id, type);
+            }
+
+            @Override
+            public String toString() {
+                return "ResponseForId{id=" + id + ", response=" + getJson() + '}';
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.esbtools.eventhandler.lightblue.client;
+
+import com.redhat.lightblue.client.Projection;
+import com.redhat.lightblue.client.Query;
+import com.redhat.lightblue.client.request.data.DataFindRequest;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * A find request for the documents of an entity with a given value for some identifying field.
+ *
+ * <p>This is just a {@link DataFindRequest} with a where clause and projection filled in, except
+ * that it tells {@link BulkLightblueRequester} what the request is looking for. Find by id
+ * requests for the same entity, version, id field, and projection which are performed in the same
+ * bulk request are fused into a single {@code $in} find, and the results are split back out per
+ * request. Each request's response then only contains the documents which match its own id.
+ *
+ * <p>Because of that, the where clause, projection, sort, and range of these requests should not
+ * be changed after construction. For more complex queries, use a plain {@code DataFindRequest}.
+ *
+ * <p>Ids are matched to documents by their text, so they should be simple values like strings or
+ * numbers.
+ */
+public class FindByIdRequest extends DataFindRequest {
+    private final String entityName;
+    private final String entityVersion;
+    private final String idField;
+    private final Object id;
+    private final Projection[] projections;
+
+    /**
+     * @param idField The path to a field which identifies documents of the entity, like
+     *                {@code _id} or {@code account.number}. Must not be within an array.
+     * @param projections What to return for each document found. The id field is always included
+     *                    in fused requests, in addition to these projections.
+     */
+    public FindByIdRequest(String entityName, String entityVersion, String idField, Object id,
+            Projection... projections) {
+        super(entityName, entityVersion);
+
+        this.entityName = Objects.requireNonNull(entityName, "entityName");
+        this.entityVersion = entityVersion;
+        this.idField = Objects.requireNonNull(idField, "idField");
+        this.id = Objects.requireNonNull(id, "id");
+        this.projections = projections.clone();
+
+        where(Query.withValue(idField, Query.BinOp.eq, id));
+        select(projections);
+    }
+
+    public String entityName() {
+        return entityName;
+    }
+
+    public String entityVersion() {
+        return entityVersion;
+    }
+
+    public String idField() {
+        return idField;
+    }
+
+    public Object id() {
+        return id;
+    }
+
+    public Projection[] projections() {
+        return projections.clone();
+    }
+
+    @Override
+    public String toString() {
+        return "FindByIdRequest{" +
+                "entityName='" + entityName + '\'' +
+                ", entityVersion='" + entityVersion + '\'' +
+                ", idField='" + idField + '\'' +
+                ", id=" + id +
+                ", projections=" + Arrays.toString(projections) +
+                '}';
+    }
+}
@@ -28,10 +28,37 @@ import com.redhat.lightblue.client.Query;
 import com.redhat.lightblue.client.Sort;
 import com.redhat.lightblue.client.request.data.DataFindRequest;
 
+import javax.annotation.Nullable;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 public abstract class FindRequests {
+    /**
+     * Fields of notifications which are always retrieved, regardless of the fields a
+     * notification factory needs, because they are needed to lock, sort, and update
+     * notifications.
+     */
+    public static final Set<String> NOTIFICATION_BOOKKEEPING_FIELDS = Collections.unmodifiableSet(
+            new LinkedHashSet<>(Arrays.asList(
+                    "_id", "entityName", "status", "processingDate", "clientRequestDate")));
+
+    /**
+     * Fields of document events which are always retrieved, regardless of the fields a document
+     * event factory needs, because they are needed to lock, optimize, sort, and update document
+     * events.
+     */
+    public static final Set<String> DOCUMENT_EVENT_BOOKKEEPING_FIELDS =
+            Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(
+                    "_id", "canonicalType", "status", "priority", "creationDate",
+                    "processingDate", "survivorOfIds")));
+
     /**
      * Constructs a find request which retrieves up to {@code maxNotifications} notifications of the
      * given {@code entityNames} which are either currently
@@ -42,6 +69,18 @@ public abstract class FindRequests {
      */
     public static DataFindRequest oldestNotificationsForEntitiesUpTo(String[] entityNames,
             int maxNotifications, Instant expiredProcessingDate) {
+        return oldestNotificationsForEntitiesUpTo(entityNames, maxNotifications,
+                expiredProcessingDate, null);
+    }
+
+    /**
+     * @param fields If not null, only these fields and the {@link #NOTIFICATION_BOOKKEEPING_FIELDS}
+     *               are retrieved, rather than entire notifications.
+     * @see #oldestNotificationsForEntitiesUpTo(String[], int, Instant)
+     */
+    public static DataFindRequest oldestNotificationsForEntitiesUpTo(String[] entityNames,
+            int maxNotifications, Instant expiredProcessingDate,
+            @Nullable Collection<String> fields) {
         DataFindRequest findEntities = new DataFindRequest(
                 NotificationEntity.ENTITY_NAME,
                 NotificationEntity.ENTITY_VERSION);
@@ -54,13 +93,32 @@ public abstract class FindRequests {
                                 Query.withValue("status", Query.BinOp.eq, DocumentEventEntity.Status.processing),
                                 Query.withValue("processingDate", Query.BinOp.lte, Date.from(expiredProcessingDate)))
                 )));
-        findEntities.select(Projection.includeFieldRecursively("*"));
+        findEntities.select(fieldsOrEverything(NOTIFICATION_BOOKKEEPING_FIELDS, fields));
         findEntities.sort(Sort.asc("clientRequestDate"));
         findEntities.range(0, maxNotifications - 1);
 
         return findEntities;
     }
 
+    /**
+     * Constructs a find request which retrieves the notifications with the given {@code ids}.
+     *
+     * @param fields If not null, only these fields and the {@link #NOTIFICATION_BOOKKEEPING_FIELDS}
+     *               are retrieved, rather than entire notifications.
+     */
+    public static DataFindRequest notificationsByIds(Collection<String> ids,
+            @Nullable Collection<String> fields) {
+        DataFindRequest findEntities = new DataFindRequest(
+                NotificationEntity.ENTITY_NAME,
+                NotificationEntity.ENTITY_VERSION);
+
+        findEntities.where(Query.withValues("_id", Query.NaryOp.in,
+                Literal.values(ids.toArray(new String[ids.size()]))));
+        findEntities.select(fieldsOrEverything(NOTIFICATION_BOOKKEEPING_FIELDS, fields));
+
+        return findEntities;
+    }
+
     /**
      * Constructs a find request which retrieves up to {@code maxEvents} events of the given
      * {@code types} which are either currently {@link DocumentEventEntity.Status#unprocessed} or
@@ -71,18 +129,54 @@ public abstract class FindRequests {
      */
     public static DataFindRequest priorityDocumentEventsForTypesUpTo(String[] types,
         int maxEvents, Instant expiredProcessingDate) {
+        return priorityDocumentEventsForTypesUpTo(types, maxEvents, expiredProcessingDate, null);
+    }
+
+    /**
+     * @param fields If not null, only these fields and the
+     *               {@link #DOCUMENT_EVENT_BOOKKEEPING_FIELDS} are retrieved, rather than entire
+     *               document events.
+     * @see #priorityDocumentEventsForTypesUpTo(String[], int, Instant)
+     */
+    public static DataFindRequest priorityDocumentEventsForTypesUpTo(String[] types,
+            int maxEvents, Instant expiredProcessingDate, @Nullable Collection<String> fields) {
+        return priorityDocumentEventsForTypesUpTo(types, maxEvents, expiredProcessingDate, fields,
+                null);
+    }
+
+    /**
+     * @param shards If not null, only events in these shards are retrieved. Events without a
+     *               shard belong to shard 0.
+     * @see #priorityDocumentEventsForTypesUpTo(String[], int, Instant, Collection)
+     */
+    public static DataFindRequest priorityDocumentEventsForTypesUpTo(String[] types,
+            int maxEvents, Instant expiredProcessingDate, @Nullable Collection<String> fields,
+            @Nullable Collection<Integer> shards) {
         DataFindRequest findEntities = new DataFindRequest(DocumentEventEntity.ENTITY_NAME,
                 DocumentEventEntity.VERSION);
 
-        findEntities.where(Query.and(
-                Query.withValues("canonicalType", Query.NaryOp.in, Literal.values(types)),
-                Query.or(
-                        Query.withValue("status", Query.BinOp.eq, DocumentEventEntity.Status.unprocessed),
-                        Query.and(
-                                Query.withValue("status", Query.BinOp.eq, DocumentEventEntity.Status.processing),
-                                Query.withValue("processingDate", Query.BinOp.lte, Date.from(expiredProcessingDate)))
-                )));
-        findEntities.select(Projection.includeFieldRecursively("*"));
+        List<Query> conditions = new ArrayList<>(3);
+        conditions.add(Query.withValues("canonicalType", Query.NaryOp.in, Literal.values(types)));
+        conditions.add(Query.or(
+                Query.withValue("status", Query.BinOp.eq, DocumentEventEntity.Status.unprocessed),
+                Query.and(
+                        Query.withValue("status", Query.BinOp.eq, DocumentEventEntity.Status.processing),
+                        Query.withValue("processingDate", Query.BinOp.lte, Date.from(expiredProcessingDate)))
+        ));
+
+        if (shards != null) {
+            Query inShards = Query.withValues("shard", Query.NaryOp.in,
+                    Literal.values(shards.toArray()));
+
+            // Events inserted without sharding belong to shard 0.
+            conditions.add(shards.contains(0)
+                    ? Query.or(inShards,
+                            Query.withValue("shard", Query.BinOp.eq, Literal.value(null)))
+                    : inShards);
+        }
+
+        findEntities.where(Query.and(conditions));
+        findEntities.select(fieldsOrEverything(DOCUMENT_EVENT_BOOKKEEPING_FIELDS, fields));
         findEntities.sort(Sort.desc("priority"), Sort.asc("creationDate"));
         findEntities.range(0, maxEvents - 1);
 
@@ -99,4 +193,22 @@ public abstract class FindRequests {
 
         return findConfig;
     }
+
+    private static List<Projection> fieldsOrEverything(Set<String> bookkeepingFields,
+            @Nullable Collection<String> fields) {
+        if (fields == null) {
+            return Collections.singletonList(Projection.includeFieldRecursively("*"));
+        }
+
+        Set<String> allFields = new LinkedHashSet<>(bookkeepingFields);
+        allFields.addAll(fields);
+
+        List<Projection> projections = new ArrayList<>(allFields.size());
+
+        for (String field : allFields) {
+            projections.add(Projection.includeFieldRecursively(field));
+        }
+
+        return projections;
+    }
 }
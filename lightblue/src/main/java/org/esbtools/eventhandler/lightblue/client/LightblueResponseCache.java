@@ -0,0 +1,180 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler.lightblue.client;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.redhat.lightblue.client.request.CRUDRequest;
+import com.redhat.lightblue.client.request.data.DataFindRequest;
+import com.redhat.lightblue.client.response.LightblueDataResponse;
+
+import javax.annotation.Nullable;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread safe cache of successful find responses, meant to be shared among many
+ * {@link CachingLightblueRequester}s, across batches and routes.
+ *
+ * <p>Only finds of entities configured with a time to live are cached, so caching is opt in per
+ * entity. This is intended for reference data which many events look up and which rarely
+ * changes; it is never invalidated by writes, so any data read through the cache may be stale by
+ * up to its entity's time to live.
+ *
+ * <p>Finds are cached by entity name, version, and request body, so only equivalent finds share a
+ * response. The cache holds at most a maximum number of responses, evicting those least recently
+ * used first.
+ */
+public class LightblueResponseCache {
+    private final Map<String, Duration> timeToLiveByEntityName;
+    private final Cache<List<Object>, CachedResponse> cache;
+    private final Clock clock;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param timeToLiveByEntityName How long responses for finds of each entity may be reused.
+     *                               Finds of entities not in this map are never cached.
+     * @param maximumSize The most responses to hold at once.
+     */
+    public LightblueResponseCache(Map<String, Duration> timeToLiveByEntityName,
+            long maximumSize) {
+        this(timeToLiveByEntityName, maximumSize, Clock.systemUTC());
+    }
+
+    public LightblueResponseCache(Map<String, Duration> timeToLiveByEntityName,
+            long maximumSize, Clock clock) {
+        this.timeToLiveByEntityName = new HashMap<>(timeToLiveByEntityName);
+        this.clock = clock;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+    }
+
+    public boolean isCacheable(CRUDRequest request) {
+        return request instanceof DataFindRequest &&
+                timeToLiveByEntityName.containsKey(request.getEntityName());
+    }
+
+    /**
+     * @return The cached response for an equivalent find, or {@code null} if the request is not
+     * {@link #isCacheable(CRUDRequest) cacheable}, or there is no response cached for it which
+     * has not yet expired.
+     */
+    @Nullable
+    public LightblueDataResponse get(CRUDRequest request) {
+        if (!isCacheable(request)) {
+            return null;
+        }
+
+        List<Object> key = keyFor(request);
+        CachedResponse cached = cache.getIfPresent(key);
+
+        if (cached == null) {
+            misses.increment();
+            return null;
+        }
+
+        if (!clock.instant().isBefore(cached.expiresAt)) {
+            cache.asMap().remove(key, cached);
+            misses.increment();
+            return null;
+        }
+
+        hits.increment();
+        return cached.response;
+    }
+
+    /**
+     * Caches the response for the request, if it is {@link #isCacheable(CRUDRequest) cacheable}.
+     * The response must be successful.
+     */
+    public void put(CRUDRequest request, LightblueDataResponse response) {
+        if (!isCacheable(request)) {
+            return;
+        }
+
+        Duration timeToLive = timeToLiveByEntityName.get(request.getEntityName());
+        cache.put(keyFor(request),
+                new CachedResponse(response, clock.instant().plus(timeToLive)));
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /** Number of lookups of cacheable requests which found an unexpired response. */
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    /** Number of lookups of cacheable requests which found no response, or an expired one. */
+    public long missCount() {
+        return misses.sum();
+    }
+
+    /** Number of responses evicted to stay within the maximum size. */
+    public long evictionCount() {
+        return cache.stats().evictionCount();
+    }
+
+    public double hitRate() {
+        long hitCount = hitCount();
+        long lookups = hitCount + missCount();
+        return lookups == 0 ? 1.0 : (double) hitCount / lookups;
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    @Override
+    public String toString() {
+        return "LightblueResponseCache{" +
+                "timeToLiveByEntityName=" + timeToLiveByEntityName +
+                ", size=" + size() +
+                ", hitCount=" + hitCount() +
+                ", missCount=" + missCount() +
+                ", evictionCount=" + evictionCount() +
+                '}';
+    }
+
+    private static List<Object> keyFor(CRUDRequest request) {
+        return Arrays.asList(request.getEntityName(), request.getEntityVersion(),
+                request.getBody());
+    }
+
+    private static class CachedResponse {
+        final LightblueDataResponse response;
+        final Instant expiresAt;
+
+        CachedResponse(LightblueDataResponse response, Instant expiresAt) {
+            this.response = response;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
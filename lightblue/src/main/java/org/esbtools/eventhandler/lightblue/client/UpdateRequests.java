@@ -34,44 +34,50 @@ import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
 public abstract class UpdateRequests {
     private static Logger logger = LoggerFactory.getLogger(UpdateRequests.class);
 
+    /**
+     * Updates each entity's status and processed date. Entities which share a status and
+     * processed date are updated together by a single request which matches all of their ids.
+     */
     public static Collection<DataUpdateRequest> notificationsStatusAndProcessedDate(
             Collection<NotificationEntity> updatedNotificationEntities) {
-        List<DataUpdateRequest> requests = new ArrayList<>(updatedNotificationEntities.size());
+        return notificationsStatusAndProcessedDate(updatedNotificationEntities, Integer.MAX_VALUE);
+    }
 
-        for (NotificationEntity entity : updatedNotificationEntities) {
-            DataUpdateRequest request = new DataUpdateRequest(
-                    NotificationEntity.ENTITY_NAME,
-                    NotificationEntity.ENTITY_VERSION);
+    /**
+     * @param maxIdsPerUpdate Entities which share a status and processed date are split among
+     *                        as many requests as needed to match no more than this many ids in
+     *                        any one request.
+     * @see #notificationsStatusAndProcessedDate(Collection)
+     */
+    public static Collection<DataUpdateRequest> notificationsStatusAndProcessedDate(
+            Collection<NotificationEntity> updatedNotificationEntities, int maxIdsPerUpdate) {
+        Map<StatusAndProcessedDate, List<String>> idsByStatusAndProcessedDate =
+                new LinkedHashMap<>();
 
+        for (NotificationEntity entity : updatedNotificationEntities) {
             if (entity.get_id() == null) {
                 logger.warn("Tried to update an entity's status and processed date, but entity " +
                         "has no id. Entity was: " + entity);
                 continue;
             }
 
-            request.where(Query.withValue("_id", BinOp.eq, entity.get_id()));
-
-            List<Update> updates = new ArrayList<>(2);
-            updates.add(Update.set("status", entity.getStatus().toString()));
-
-            Date processedDate = entity.getProcessedDate();
-
-            if (processedDate != null) {
-                updates.add(Update.set("processedDate", processedDate));
-            }
-
-            // Work around client bug.
-            request.updates(updates.toArray(new Update[updates.size()]));
-
-            requests.add(request);
+            idsByStatusAndProcessedDate.computeIfAbsent(
+                    new StatusAndProcessedDate(entity.getStatus().toString(),
+                            entity.getProcessedDate()),
+                    k -> new ArrayList<>())
+                    .add(entity.get_id());
         }
 
-        return requests;
+        return statusAndProcessedDate(NotificationEntity.ENTITY_NAME,
+                NotificationEntity.ENTITY_VERSION, idsByStatusAndProcessedDate, maxIdsPerUpdate);
     }
 
     /** "Status" here means status and corresponding date(s) to go along with it. */
@@ -99,40 +105,44 @@ public abstract class UpdateRequests {
         return request;
     }
 
+    /**
+     * Updates each entity's status and processed date. Entities which share a status and
+     * processed date are updated together by a single request which matches all of their ids.
+     */
     public static Collection<DataUpdateRequest> documentEventsStatusAndProcessedDate(
             Collection<DocumentEventEntity> updatedEventEntities) {
-        List<DataUpdateRequest> requests = new ArrayList<>(updatedEventEntities.size());
+        return documentEventsStatusAndProcessedDate(updatedEventEntities, Integer.MAX_VALUE);
+    }
 
-        for (DocumentEventEntity entity : updatedEventEntities) {
-            DataUpdateRequest request = new DataUpdateRequest(
-                    DocumentEventEntity.ENTITY_NAME,
-                    DocumentEventEntity.VERSION);
+    /**
+     * @param maxIdsPerUpdate Entities which share a status and processed date are split among
+     *                        as many requests as needed to match no more than this many ids in
+     *                        any one request.
+     * @see #documentEventsStatusAndProcessedDate(Collection)
+     */
+    public static Collection<DataUpdateRequest> documentEventsStatusAndProcessedDate(
+            Collection<DocumentEventEntity> updatedEventEntities, int maxIdsPerUpdate) {
+        Map<StatusAndProcessedDate, List<String>> idsByStatusAndProcessedDate =
+                new LinkedHashMap<>();
 
+        for (DocumentEventEntity entity : updatedEventEntities) {
             if (entity.get_id() == null) {
                 logger.warn("Tried to update an entity's status and processed date, but entity " +
                         "has no id. Entity was: " + entity);
                 continue;
             }
 
-            request.where(Query.withValue("_id", BinOp.eq, entity.get_id()));
-
-            List<Update> updates = new ArrayList<>(2);
-            updates.add(Update.set("status", entity.getStatus().toString()));
-
             ZonedDateTime processedDate = entity.getProcessedDate();
 
-            if (processedDate != null) {
-                updates.add(Update.set("processedDate", Date.from(processedDate.toInstant())));
-            }
-
-            // Work around client bug.
-            // https://github.com/lightblue-platform/lightblue-client/issues/225
-            request.updates(updates.toArray(new Update[updates.size()]));
-
-            requests.add(request);
+            idsByStatusAndProcessedDate.computeIfAbsent(
+                    new StatusAndProcessedDate(entity.getStatus().toString(),
+                            processedDate == null ? null : Date.from(processedDate.toInstant())),
+                    k -> new ArrayList<>())
+                    .add(entity.get_id());
         }
 
-        return requests;
+        return statusAndProcessedDate(DocumentEventEntity.ENTITY_NAME,
+                DocumentEventEntity.VERSION, idsByStatusAndProcessedDate, maxIdsPerUpdate);
     }
 
     /** "Status" here means status and corresponding date(s) to go along with it. */
@@ -189,4 +199,74 @@ public abstract class UpdateRequests {
 
         return request;
     }
+
+    private static Collection<DataUpdateRequest> statusAndProcessedDate(String entityName,
+            String entityVersion,
+            Map<StatusAndProcessedDate, List<String>> idsByStatusAndProcessedDate,
+            int maxIdsPerUpdate) {
+        if (maxIdsPerUpdate < 1) {
+            throw new IllegalArgumentException("maxIdsPerUpdate must be positive but was: " +
+                    maxIdsPerUpdate);
+        }
+
+        List<DataUpdateRequest> requests = new ArrayList<>(idsByStatusAndProcessedDate.size());
+
+        for (Map.Entry<StatusAndProcessedDate, List<String>> statusAndProcessedDate
+                : idsByStatusAndProcessedDate.entrySet()) {
+            String status = statusAndProcessedDate.getKey().status;
+            Date processedDate = statusAndProcessedDate.getKey().processedDate;
+            List<String> ids = statusAndProcessedDate.getValue();
+
+            for (int fromIndex = 0; fromIndex < ids.size(); fromIndex += maxIdsPerUpdate) {
+                int toIndex = (int) Math.min((long) fromIndex + maxIdsPerUpdate, ids.size());
+                String[] idsInRequest = ids.subList(fromIndex, toIndex).toArray(new String[0]);
+
+                DataUpdateRequest request = new DataUpdateRequest(entityName, entityVersion);
+
+                request.where(idsInRequest.length == 1
+                        ? Query.withValue("_id", BinOp.eq, idsInRequest[0])
+                        : Query.withValues("_id", Query.NaryOp.in, Literal.values(idsInRequest)));
+
+                List<Update> updates = new ArrayList<>(2);
+                updates.add(Update.set("status", status));
+
+                if (processedDate != null) {
+                    updates.add(Update.set("processedDate", processedDate));
+                }
+
+                // Work around client bug.
+                // https://github.com/lightblue-platform/lightblue-client/issues/225
+                request.updates(updates.toArray(new Update[updates.size()]));
+
+                requests.add(request);
+            }
+        }
+
+        return requests;
+    }
+
+    /** Groups entities whose status and processed date are updated together. */
+    private static final class StatusAndProcessedDate {
+        final String status;
+        final @Nullable Date processedDate;
+
+        StatusAndProcessedDate(String status, @Nullable Date processedDate) {
+            this.status = status;
+            this.processedDate = processedDate;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            StatusAndProcessedDate that = (StatusAndProcessedDate) o;
+            return Objects.equals(status, that.status) &&
+                    Objects.equals(processedDate, that.processedDate);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(status, processedDate);
+        }
+    }
 }
@@ -40,6 +40,7 @@ public class MutableLightblueDocumentEventRepositoryConfig implements LightblueD
     private Set<String> canonicalTypesToProcess = Collections.emptySet();
     private int documentEventsBatchSize = 0;
     private Optional<Integer> maxDocumentEventsPerInsert = Optional.empty();
+    private Optional<Integer> maxDocumentEventsPerStatusUpdate = Optional.empty();
     private Duration processingTimeout = Duration.ofMinutes(10);
     private Duration expireThreshold = Duration.ofMinutes(2);
 
@@ -170,4 +171,20 @@ public class MutableLightblueDocumentEventRepositoryConfig implements LightblueD
         }
         return this;
     }
+
+    @Override
+    public Optional<Integer> getOptionalMaxDocumentEventsPerStatusUpdate() {
+        return maxDocumentEventsPerStatusUpdate;
+    }
+
+    public MutableLightblueDocumentEventRepositoryConfig setMaxDocumentEventsPerStatusUpdate(
+            Optional<Integer> maxDocumentEventsPerStatusUpdate) {
+        Optional<Integer> old = this.maxDocumentEventsPerStatusUpdate;
+        this.maxDocumentEventsPerStatusUpdate = maxDocumentEventsPerStatusUpdate;
+        if (!Objects.equals(old, maxDocumentEventsPerStatusUpdate)) {
+            log.info("Max document events per status update updated. " +
+                    "Old value was {}. New value is {}.", old, maxDocumentEventsPerStatusUpdate);
+        }
+        return this;
+    }
 }
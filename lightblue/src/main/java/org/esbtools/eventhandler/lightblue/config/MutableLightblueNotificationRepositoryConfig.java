@@ -30,6 +30,7 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -38,6 +39,9 @@ public class MutableLightblueNotificationRepositoryConfig implements LightblueNo
     private Set<String> entityNamesToProcess;
     private Duration processingTimeout;
     private Duration expireThreshold;
+    private Optional<Integer> maxNotificationsPerStatusUpdate = Optional.empty();
+    private boolean twoPhaseRetrievalEnabled = false;
+    private boolean optimisticClaimingEnabled = false;
 
     private static final Logger log = LoggerFactory.getLogger(MutableLightblueNotificationRepositoryConfig.class);
 
@@ -116,4 +120,52 @@ public class MutableLightblueNotificationRepositoryConfig implements LightblueNo
         }
         return this;
     }
+
+    @Override
+    public Optional<Integer> getOptionalMaxNotificationsPerStatusUpdate() {
+        return maxNotificationsPerStatusUpdate;
+    }
+
+    public MutableLightblueNotificationRepositoryConfig setMaxNotificationsPerStatusUpdate(
+            Optional<Integer> maxNotificationsPerStatusUpdate) {
+        Optional<Integer> old = this.maxNotificationsPerStatusUpdate;
+        this.maxNotificationsPerStatusUpdate = maxNotificationsPerStatusUpdate;
+        if (!Objects.equals(old, maxNotificationsPerStatusUpdate)) {
+            log.info("Max notifications per status update updated. " +
+                    "Old value was {}. New value is {}.", old, maxNotificationsPerStatusUpdate);
+        }
+        return this;
+    }
+
+    @Override
+    public boolean isTwoPhaseRetrievalEnabled() {
+        return twoPhaseRetrievalEnabled;
+    }
+
+    public MutableLightblueNotificationRepositoryConfig setTwoPhaseRetrievalEnabled(
+            boolean twoPhaseRetrievalEnabled) {
+        boolean old = this.twoPhaseRetrievalEnabled;
+        this.twoPhaseRetrievalEnabled = twoPhaseRetrievalEnabled;
+        if (old != twoPhaseRetrievalEnabled) {
+            log.info("Two phase notification retrieval updated. " +
+                    "Old value was {}. New value is {}.", old, twoPhaseRetrievalEnabled);
+        }
+        return this;
+    }
+
+    @Override
+    public boolean isOptimisticClaimingEnabled() {
+        return optimisticClaimingEnabled;
+    }
+
+    public MutableLightblueNotificationRepositoryConfig setOptimisticClaimingEnabled(
+            boolean optimisticClaimingEnabled) {
+        boolean old = this.optimisticClaimingEnabled;
+        this.optimisticClaimingEnabled = optimisticClaimingEnabled;
+        if (old != optimisticClaimingEnabled) {
+            log.info("Optimistic notification claiming updated. " +
+                    "Old value was {}. New value is {}.", old, optimisticClaimingEnabled);
+        }
+        return this;
+    }
 }
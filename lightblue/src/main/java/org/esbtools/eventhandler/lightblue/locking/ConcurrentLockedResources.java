@@ -0,0 +1,139 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler.lightblue.locking;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Checks and releases its locks concurrently using the provided executor, so that many locks
+ * backed by a remote service cost about one round trip instead of one per lock.
+ *
+ * <p>If the executor no longer accepts tasks, calls are made from the calling thread instead.
+ */
+class ConcurrentLockedResources<T> implements LockedResources<T> {
+    private final Collection<LockedResource<T>> locks;
+    private final ExecutorService executor;
+
+    ConcurrentLockedResources(Collection<LockedResource<T>> locks, ExecutorService executor) {
+        this.locks = locks;
+        this.executor = executor;
+    }
+
+    @Override
+    public Collection<LockedResource<T>> getLocks() {
+        return Collections.unmodifiableCollection(locks);
+    }
+
+    @Override
+    public void ensureAllAcquiredOrThrow(String lostLockMessage) throws LostLockException {
+        List<LostLockException> lostLockExceptions = new ArrayList<>(0);
+
+        for (Throwable failure : forEachLock(lock -> lock.ensureAcquiredOrThrow(lostLockMessage))) {
+            if (failure instanceof LostLockException) {
+                lostLockExceptions.add((LostLockException) failure);
+            } else {
+                Throwables.propagateIfPossible(failure);
+                throw new RuntimeException(failure);
+            }
+        }
+
+        LostLockException.throwIfAny(lostLockExceptions);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (locks.isEmpty()) {
+            return;
+        }
+
+        List<IOException> exceptions = new ArrayList<>(0);
+
+        for (Throwable failure : forEachLock(LockedResource::close)) {
+            if (failure instanceof IOException) {
+                exceptions.add((IOException) failure);
+            } else {
+                Throwables.propagateIfPossible(failure);
+                throw new RuntimeException(failure);
+            }
+        }
+
+        if (!exceptions.isEmpty()) {
+            if (exceptions.size() == 1) {
+                throw exceptions.get(0);
+            }
+
+            throw new MultipleIOExceptions(exceptions);
+        }
+    }
+
+    /**
+     * Runs the action for every lock concurrently, waiting for all of them to finish.
+     *
+     * @return The failures of each action which failed, in lock order.
+     */
+    private List<Throwable> forEachLock(LockAction<T> action) {
+        List<Future<Void>> futures = new ArrayList<>(locks.size());
+
+        for (LockedResource<T> lock : locks) {
+            try {
+                futures.add(executor.submit(() -> {
+                    action.run(lock);
+                    return null;
+                }));
+            } catch (RejectedExecutionException e) {
+                try {
+                    action.run(lock);
+                    futures.add(Futures.immediateFuture(null));
+                } catch (Exception failure) {
+                    futures.add(Futures.immediateFailedFuture(failure));
+                }
+            }
+        }
+
+        List<Throwable> failures = new ArrayList<>(0);
+
+        for (Future<Void> future : futures) {
+            try {
+                // Don't stop waiting if interrupted: every lock must be accounted for.
+                Uninterruptibles.getUninterruptibly(future);
+            } catch (ExecutionException e) {
+                failures.add(e.getCause());
+            }
+        }
+
+        return failures;
+    }
+
+    @FunctionalInterface
+    private interface LockAction<T> {
+        void run(LockedResource<T> lock) throws Exception;
+    }
+}
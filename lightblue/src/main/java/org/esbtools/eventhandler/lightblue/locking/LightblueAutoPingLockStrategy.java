@@ -21,15 +21,27 @@ package org.esbtools.eventhandler.lightblue.locking;
 import com.redhat.lightblue.client.LightblueException;
 import com.redhat.lightblue.client.Locking;
 import com.redhat.lightblue.client.response.lock.InvalidLockException;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.apache.camel.Service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.UUID;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -43,11 +55,48 @@ import java.util.concurrent.atomic.AtomicBoolean;
  *
  * <p>Consumers are expected to check the lock at critical points to ensure it did not expire by
  * calling {@link LockedResource#ensureAcquiredOrThrow(String)}.
+ *
+ * <p>All locks acquired by a strategy instance are pinged from one shared, bounded
+ * {@link ScheduledExecutorService}, rather than a thread per lock. If the strategy creates this
+ * scheduler itself, it owns it, and it should be stopped when it is no longer needed via
+ * {@link #stop()}. Because this is a Camel {@link Service}, the simplest way to do that is to add
+ * the strategy to the {@code CamelContext} with {@code camelContext.addService(lockStrategy)}, so
+ * it is stopped along with the context.
+ *
+ * <p>Since lightblue has no bulk locking API, {@link #tryAcquireAll(Collection) bulk acquisition},
+ * as well as checking and releasing the resulting {@link LockedResources}, is parallelized on a
+ * separate, bounded bulk lock executor. This way a large batch of locks cannot delay pings of locks
+ * already held. As with the scheduler, the strategy owns this executor unless it is provided.
+ *
+ * <p>Optionally, {@link LockedResource#ensureAcquiredOrThrow(String)} may skip its round trip to
+ * lightblue if the lock was renewed recently enough that it cannot have expired yet. See
+ * {@link #LightblueAutoPingLockStrategy(Locking, Duration, Duration, Duration,
+ * ScheduledExecutorService)}.
  */
-public class LightblueAutoPingLockStrategy implements LockStrategy {
+public class LightblueAutoPingLockStrategy implements LockStrategy, Service {
+    private static final Logger logger =
+            LoggerFactory.getLogger(LightblueAutoPingLockStrategy.class);
+
     private final Locking locking;
     private final Duration autoPingInterval;
     private final Duration timeToLive;
+    private final Duration renewalSafetyMargin;
+    private final ScheduledExecutorService autoPingScheduler;
+    private final boolean ownsAutoPingScheduler;
+    private final ExecutorService bulkLockExecutor;
+    private final boolean ownsBulkLockExecutor;
+
+    /**
+     * Number of threads used to ping locks when no scheduler is provided. Pings are short, network
+     * bound calls so few threads can service many locks.
+     */
+    public static final int DEFAULT_AUTO_PING_THREADS = 2;
+
+    /**
+     * Number of threads used to acquire, check, and release locks in bulk when no bulk lock
+     * executor is provided. This bounds how many lock calls to lightblue are in flight at once.
+     */
+    public static final int DEFAULT_BULK_LOCK_THREADS = 8;
 
     /**
      * Same as {@link #LightblueAutoPingLockStrategy(Locking, Duration, Duration)}
@@ -57,6 +106,42 @@ public class LightblueAutoPingLockStrategy implements LockStrategy {
         this(locking, autoPingInterval, autoPingInterval.multipliedBy(5));
     }
 
+    /**
+     * Same as {@link #LightblueAutoPingLockStrategy(Locking, Duration, Duration, int)} except
+     * uses {@link #DEFAULT_AUTO_PING_THREADS} threads to ping locks.
+     */
+    public LightblueAutoPingLockStrategy(Locking locking, Duration autoPingInterval,
+            Duration timeToLive) {
+        this(locking, autoPingInterval, timeToLive, DEFAULT_AUTO_PING_THREADS);
+    }
+
+    /**
+     * Creates and owns a scheduler with {@code autoPingThreads} daemon threads to ping all locks
+     * acquired by this strategy. The scheduler is shut down when this strategy is
+     * {@link #stop() stopped}.
+     *
+     * @see #LightblueAutoPingLockStrategy(Locking, Duration, Duration, ScheduledExecutorService)
+     */
+    public LightblueAutoPingLockStrategy(Locking locking, Duration autoPingInterval,
+            Duration timeToLive, int autoPingThreads) {
+        this(locking, autoPingInterval, timeToLive, timeToLive,
+                newAutoPingScheduler(autoPingThreads), true,
+                newBulkLockExecutor(DEFAULT_BULK_LOCK_THREADS), true);
+    }
+
+    /**
+     * Same as {@link #LightblueAutoPingLockStrategy(Locking, Duration, Duration, Duration,
+     * ScheduledExecutorService)} except creates and owns a scheduler with
+     * {@link #DEFAULT_AUTO_PING_THREADS} threads, which is shut down when this strategy is
+     * {@link #stop() stopped}.
+     */
+    public LightblueAutoPingLockStrategy(Locking locking, Duration autoPingInterval,
+            Duration timeToLive, Duration renewalSafetyMargin) {
+        this(locking, autoPingInterval, timeToLive, renewalSafetyMargin,
+                newAutoPingScheduler(DEFAULT_AUTO_PING_THREADS), true,
+                newBulkLockExecutor(DEFAULT_BULK_LOCK_THREADS), true);
+    }
+
     /**
      * Validates {@code timeToLive} is greater than the {@code autoPingInterval}.
      * @param locking The locking client to use which holds knowledge of the locking domain to use.
@@ -64,12 +149,67 @@ public class LightblueAutoPingLockStrategy implements LockStrategy {
      * @param autoPingInterval Amount of time in between automatic pings of acquired locks.
      * @param timeToLive Time until locks automatically expire. Should be [much] larger than the
      *                   {@code autoPingInterval} to ensure locks do not accidentally expire.
+     * @param autoPingScheduler Scheduler used to ping all acquired locks. This is not owned by the
+     *                          strategy: stopping the strategy will not shut it down. The strategy
+     *                          still creates and owns its own bulk lock executor.
      */
     public LightblueAutoPingLockStrategy(Locking locking, Duration autoPingInterval,
-            Duration timeToLive) {
+            Duration timeToLive, ScheduledExecutorService autoPingScheduler) {
+        this(locking, autoPingInterval, timeToLive, timeToLive, autoPingScheduler, false,
+                newBulkLockExecutor(DEFAULT_BULK_LOCK_THREADS), true);
+    }
+
+    /**
+     * Like {@link #LightblueAutoPingLockStrategy(Locking, Duration, Duration,
+     * ScheduledExecutorService)}, but allows {@link LockedResource#ensureAcquiredOrThrow(String)}
+     * to trust a recent renewal instead of always pinging lightblue.
+     *
+     * <p>A lock is renewed when it is acquired and each time it is successfully pinged. If it was
+     * last renewed less than {@code timeToLive} minus {@code renewalSafetyMargin} ago, it cannot
+     * have expired yet, so no ping is necessary. The margin should cover network latency and any
+     * clock inaccuracy. A margin equal to or greater than {@code timeToLive} disables this, which
+     * is the default.
+     *
+     * <p>This assumes locks are only ever lost by expiring. If something else may release them out
+     * from under us, do not use a renewal safety margin.
+     *
+     * @param renewalSafetyMargin How far before a lock would expire, since its last renewal, that
+     *                            we stop trusting the renewal and ping lightblue again.
+     */
+    public LightblueAutoPingLockStrategy(Locking locking, Duration autoPingInterval,
+            Duration timeToLive, Duration renewalSafetyMargin,
+            ScheduledExecutorService autoPingScheduler) {
+        this(locking, autoPingInterval, timeToLive, renewalSafetyMargin, autoPingScheduler, false,
+                newBulkLockExecutor(DEFAULT_BULK_LOCK_THREADS), true);
+    }
+
+    /**
+     * Like {@link #LightblueAutoPingLockStrategy(Locking, Duration, Duration, Duration,
+     * ScheduledExecutorService)}, but also uses the provided executor for bulk lock work.
+     *
+     * @param bulkLockExecutor Used to acquire, check, and release locks in bulk. Each task is one
+     *                         blocking call to lightblue, so this should be bounded. This is not
+     *                         owned by the strategy: stopping the strategy will not shut it down.
+     */
+    public LightblueAutoPingLockStrategy(Locking locking, Duration autoPingInterval,
+            Duration timeToLive, Duration renewalSafetyMargin,
+            ScheduledExecutorService autoPingScheduler, ExecutorService bulkLockExecutor) {
+        this(locking, autoPingInterval, timeToLive, renewalSafetyMargin, autoPingScheduler, false,
+                bulkLockExecutor, false);
+    }
+
+    private LightblueAutoPingLockStrategy(Locking locking, Duration autoPingInterval,
+            Duration timeToLive, Duration renewalSafetyMargin,
+            ScheduledExecutorService autoPingScheduler, boolean ownsAutoPingScheduler,
+            ExecutorService bulkLockExecutor, boolean ownsBulkLockExecutor) {
         this.locking = locking;
         this.autoPingInterval = autoPingInterval;
         this.timeToLive = timeToLive;
+        this.renewalSafetyMargin = renewalSafetyMargin;
+        this.autoPingScheduler = autoPingScheduler;
+        this.ownsAutoPingScheduler = ownsAutoPingScheduler;
+        this.bulkLockExecutor = bulkLockExecutor;
+        this.ownsBulkLockExecutor = ownsBulkLockExecutor;
 
         if (timeToLive.compareTo(autoPingInterval) <= 0) {
             throw new IllegalArgumentException("Time to live should be greater than auto ping " +
@@ -83,50 +223,150 @@ public class LightblueAutoPingLockStrategy implements LockStrategy {
             // TODO: May want to include hostname and/or thread information in clientId
             String callerId = UUID.randomUUID().toString();
             return new AutoPingingLock<>(locking, callerId, resourceId, resource, autoPingInterval,
-                    timeToLive);
+                    timeToLive, renewalSafetyMargin, autoPingScheduler);
         } catch (LightblueException e) {
             throw new LockNotAvailableException(resourceId, resource, e);
         }
     }
 
+    /**
+     * Acquires locks concurrently using the bulk lock executor.
+     */
+    @Override
+    public <T extends Lockable> LockedResources<T> tryAcquireAll(Collection<? extends T> lockables) {
+        List<Future<LockedResource<T>>> futureLocks = new ArrayList<>(lockables.size());
+
+        for (T lockable : lockables) {
+            try {
+                futureLocks.add(bulkLockExecutor.submit(() -> tryAcquire(lockable)));
+            } catch (RejectedExecutionException e) {
+                // Stopped; locks could not be pinged anyway.
+                break;
+            }
+        }
+
+        List<LockedResource<T>> acquired = new ArrayList<>(futureLocks.size());
+
+        for (Future<LockedResource<T>> futureLock : futureLocks) {
+            try {
+                // Don't stop waiting if interrupted, or we may leak acquired locks.
+                acquired.add(Uninterruptibles.getUninterruptibly(futureLock));
+            } catch (ExecutionException e) {
+                if (!(e.getCause() instanceof LockNotAvailableException)) {
+                    logger.warn("Unexpected failure acquiring lock. Skipping.", e.getCause());
+                }
+            }
+        }
+
+        return new ConcurrentLockedResources<>(acquired, bulkLockExecutor);
+    }
+
+    @Override
+    public void start() {
+        // Executors are ready upon construction.
+    }
+
+    /**
+     * Shuts down the auto ping scheduler and bulk lock executor, if they are owned by this
+     * strategy. Locks which are still held will no longer be pinged, and so will eventually expire
+     * unless they are released. Bulk lock work already started is allowed to finish, so that
+     * every lock it acquires is accounted for; later bulk releases happen in the calling thread.
+     */
+    @Override
+    public void stop() {
+        if (ownsAutoPingScheduler) {
+            autoPingScheduler.shutdownNow();
+        }
+
+        if (ownsBulkLockExecutor) {
+            bulkLockExecutor.shutdown();
+        }
+    }
+
+    private static ScheduledExecutorService newAutoPingScheduler(int threads) {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(threads,
+                new ThreadFactoryBuilder()
+                        .setNameFormat("lightblue-lock-auto-ping-%d")
+                        .setDaemon(true)
+                        .build());
+        // Locks are short lived relative to their ping interval; don't hold on to cancelled pings
+        // until they would've next run.
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+
+    private static ExecutorService newBulkLockExecutor(int threads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                1, TimeUnit.MINUTES, new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("lightblue-lock-bulk-%d")
+                        .setDaemon(true)
+                        .build());
+        // Bulk lock work comes in bursts once per batch; don't keep idle threads around.
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     static final class AutoPingingLock<T> implements LockedResource<T> {
         private final String callerId;
         private final T resource;
         private final String resourceId;
         private final Locking locking;
-        private final ScheduledExecutorService autoPingScheduler =
-                Executors.newSingleThreadScheduledExecutor();
         private final ScheduledFuture<?> autoPinger;
         private final AtomicBoolean isClosed = new AtomicBoolean(false);
+        /** How long after a renewal we may assume the lock is still held, or 0 to never assume. */
+        private final long trustRenewalForNanos;
+        /** {@link System#nanoTime()} from just before the last successful acquire or ping. */
+        private volatile long lastRenewedNanos;
 
         private static final Logger logger = LoggerFactory.getLogger(AutoPingingLock.class);
 
         AutoPingingLock(Locking locking, String callerId, String resourceId, T resource,
-                Duration autoPingInterval, Duration ttl) throws LightblueException,
-                LockNotAvailableException {
+                Duration autoPingInterval, Duration ttl, Duration renewalSafetyMargin,
+                ScheduledExecutorService autoPingScheduler)
+                throws LightblueException, LockNotAvailableException {
             this.callerId = callerId;
             this.resource = resource;
             this.locking = locking;
             this.resourceId = resourceId;
+            this.trustRenewalForNanos = Math.max(0, ttl.minus(renewalSafetyMargin).toNanos());
+
+            long acquiringNanos = System.nanoTime();
 
             if (!locking.acquire(callerId, resourceId, ttl.toMillis())) {
                 throw new LockNotAvailableException(resourceId, resource);
             }
 
-            this.autoPinger = autoPingScheduler.scheduleWithFixedDelay(
-                    new PingTask(this),
-                    /* initial delay*/ autoPingInterval.toMillis(),
-                    /* delay */ autoPingInterval.toMillis(),
-                    TimeUnit.MILLISECONDS);
+            this.lastRenewedNanos = acquiringNanos;
+
+            try {
+                this.autoPinger = autoPingScheduler.scheduleWithFixedDelay(
+                        new PingTask(this),
+                        /* initial delay*/ autoPingInterval.toMillis(),
+                        /* delay */ autoPingInterval.toMillis(),
+                        TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Scheduler was shut down; we can't keep this lock alive so don't keep it at all.
+                locking.release(callerId, resourceId);
+                throw new LockNotAvailableException(resourceId, resource, e);
+            }
         }
 
         @Override
         public void ensureAcquiredOrThrow(String lostLockMessage) throws LostLockException {
+            if (!isClosed.get() && wasRenewedWithin(trustRenewalForNanos)) {
+                return;
+            }
+
             try {
+                long pingingNanos = System.nanoTime();
+
                 if (!locking.ping(callerId, resourceId)) {
                     stopPinging();
                     throw new LostLockException(this, lostLockMessage);
                 }
+
+                lastRenewedNanos = pingingNanos;
             } catch (LightblueException e) {
                 try {
                     close();
@@ -153,8 +393,7 @@ public class LightblueAutoPingLockStrategy implements LockStrategy {
             }
 
             try {
-                autoPinger.cancel(true);
-                autoPingScheduler.shutdownNow();
+                autoPinger.cancel(false);
                 locking.release(callerId, resourceId);
                 isClosed.set(true);
             } catch (LightblueException e) {
@@ -172,13 +411,16 @@ public class LightblueAutoPingLockStrategy implements LockStrategy {
                     '}';
         }
 
+        private boolean wasRenewedWithin(long nanos) {
+            return System.nanoTime() - lastRenewedNanos < nanos;
+        }
+
         /**
          * Does NOT call out to lightblue to release the lock. If lightblue may still have the lock
          * and you are not okay with it expiring on its own, use {@link #close()}.
          */
         private void stopPinging() {
-            autoPinger.cancel(true);
-            autoPingScheduler.shutdownNow();
+            autoPinger.cancel(false);
             isClosed.set(true);
         }
 
@@ -192,11 +434,15 @@ public class LightblueAutoPingLockStrategy implements LockStrategy {
             @Override
             public void run() {
                 try {
+                    long pingingNanos = System.nanoTime();
+
                     if (!lock.locking.ping(lock.callerId, lock.resourceId)) {
                         lock.stopPinging();
                         throw new RuntimeException("Lost lock. Will stop pinging. Lock was: " + lock);
                     }
 
+                    lock.lastRenewedNanos = pingingNanos;
+
                     logger.debug("Periodic lock ping successful. callerId={} resourceId={}",
                             lock.callerId, lock.resourceId);
                 } catch (InvalidLockException e) {
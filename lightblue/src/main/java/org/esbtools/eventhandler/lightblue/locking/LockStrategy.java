@@ -18,6 +18,10 @@
 
 package org.esbtools.eventhandler.lightblue.locking;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
 /**
  * Abstracts an atomic exclusive locking mechanism which is used to coordinate concurrent work on
  * logical "resources."
@@ -59,4 +63,28 @@ public interface LockStrategy {
     default LockedResource<String> tryAcquire(String resourceId) throws LockNotAvailableException {
         return tryAcquire(resourceId, resourceId);
     }
+
+    /**
+     * Attempts to acquire locks for all of the provided {@code lockables}. Unlike
+     * {@link #tryAcquire(Lockable)}, locks which are not available do not fail the call; they are
+     * simply left out of the result.
+     *
+     * <p>The default implementation tries each lock one at a time. Implementations backed by a
+     * remote service should override this to acquire locks concurrently or in fewer round trips.
+     *
+     * @return The locks which were acquired, in the same order as the provided {@code lockables}.
+     */
+    default <T extends Lockable> LockedResources<T> tryAcquireAll(Collection<? extends T> lockables) {
+        List<LockedResource<T>> acquired = new ArrayList<>(lockables.size());
+
+        for (T lockable : lockables) {
+            try {
+                acquired.add(tryAcquire(lockable));
+            } catch (LockNotAvailableException e) {
+                // Not fatal; simply not included in acquired locks.
+            }
+        }
+
+        return LockedResources.fromLocks(acquired);
+    }
 }
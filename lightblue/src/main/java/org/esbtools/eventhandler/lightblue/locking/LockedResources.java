@@ -19,12 +19,51 @@
 package org.esbtools.eventhandler.lightblue.locking;
 
 import java.io.Closeable;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 public interface LockedResources<T> extends Closeable {
     Collection<LockedResource<T>> getLocks();
 
+    /**
+     * Like {@link LockedResource#ensureAcquiredOrThrow(String)}, but checks all of the locks, only
+     * throwing after every lock has been checked.
+     *
+     * <p>The thrown exception's {@link LostLockException#lostLocks()} are exactly the locks which
+     * were lost, so that callers may continue working with those that remain. As with
+     * {@code ensureAcquiredOrThrow}, no further clean up is necessary for lost locks.
+     *
+     * <p>The default implementation checks each lock one at a time. Implementations backed by a
+     * remote service should override this to check locks concurrently or in fewer round trips.
+     */
+    default void ensureAllAcquiredOrThrow(String lostLockMessage) throws LostLockException {
+        List<LostLockException> lostLockExceptions = new ArrayList<>(0);
+
+        for (LockedResource<T> lock : getLocks()) {
+            try {
+                lock.ensureAcquiredOrThrow(lostLockMessage);
+            } catch (LostLockException e) {
+                lostLockExceptions.add(e);
+            }
+        }
+
+        LostLockException.throwIfAny(lostLockExceptions);
+    }
+
     static <T> LockedResources<T> fromLocks(Collection<LockedResource<T>> locks) {
         return new WrappedLockedResources<>(locks);
     }
+
+    /**
+     * Combines many {@code LockedResources} into one, which delegates checking and releasing locks
+     * to each of its parts, so that any bulk optimizations of each are retained.
+     */
+    static <T> LockedResources<T> concat(List<LockedResources<T>> lockedResources) {
+        if (lockedResources.size() == 1) {
+            return lockedResources.get(0);
+        }
+
+        return new ConcatenatedLockedResources<>(lockedResources);
+    }
 }
@@ -23,15 +23,15 @@ import java.util.List;
 import java.util.stream.Collectors;
 
 public class LostLockException extends Exception {
-    private final List<LockedResource> lostLocks;
+    private final List<LockedResource<?>> lostLocks;
 
-    public LostLockException(LockedResource lock, String message) {
+    public LostLockException(LockedResource<?> lock, String message) {
         super(message + " [Lock: " + lock + "]");
 
         this.lostLocks = Collections.singletonList(lock);
     }
 
-    public LostLockException(LockedResource lock, String message, Exception cause) {
+    public LostLockException(LockedResource<?> lock, String message, Exception cause) {
         super(message + " [Lock: " + lock + "]", cause);
 
         lostLocks = Collections.singletonList(lock);
@@ -46,7 +46,23 @@ public class LostLockException extends Exception {
                 .collect(Collectors.toList()));
     }
 
-    public List<LockedResource> lostLocks() {
+    public List<LockedResource<?>> lostLocks() {
         return lostLocks;
     }
+
+    /**
+     * Throws the only exception if there is one, or all of them combined if there are more, or
+     * does nothing if the list is empty.
+     */
+    static void throwIfAny(List<LostLockException> lostLockExceptions) throws LostLockException {
+        if (lostLockExceptions.isEmpty()) {
+            return;
+        }
+
+        if (lostLockExceptions.size() == 1) {
+            throw lostLockExceptions.get(0);
+        }
+
+        throw new LostLockException(lostLockExceptions);
+    }
 }
@@ -0,0 +1,61 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler.lightblue.locking;
+
+/**
+ * "Acquires" every lock without coordinating with anyone, so locks are never contended and never
+ * lost. Makes no calls, so it costs nothing.
+ *
+ * <p>Only use this where something else already prevents resources from being processed twice,
+ * such as a conditional update which only one client can win.
+ */
+public final class NoLockStrategy implements LockStrategy {
+    public static final NoLockStrategy INSTANCE = new NoLockStrategy();
+
+    private NoLockStrategy() {}
+
+    @Override
+    public <T> LockedResource<T> tryAcquire(String resourceId, T resource) {
+        return new UnlockedResource<>(resource);
+    }
+
+    private static class UnlockedResource<T> implements LockedResource<T> {
+        private final T resource;
+
+        UnlockedResource(T resource) {
+            this.resource = resource;
+        }
+
+        @Override
+        public void ensureAcquiredOrThrow(String lostLockMessage) {}
+
+        @Override
+        public T getResource() {
+            return resource;
+        }
+
+        @Override
+        public void close() {}
+
+        @Override
+        public String toString() {
+            return "UnlockedResource{resource=" + resource + '}';
+        }
+    }
+}
@@ -9,6 +9,7 @@ import static org.junit.Assert.fail;
 
 import org.esbtools.eventhandler.TransformableFuture;
 import org.esbtools.eventhandler.lightblue.client.BulkLightblueRequester;
+import org.esbtools.eventhandler.lightblue.client.FindByIdRequest;
 import org.esbtools.eventhandler.lightblue.client.LightblueResponse;
 import org.esbtools.eventhandler.lightblue.client.LightblueResponseException;
 import org.esbtools.eventhandler.lightblue.client.LightblueDataResponses;
@@ -23,6 +24,7 @@ import com.redhat.lightblue.client.LightblueException;
 import com.redhat.lightblue.client.Projection;
 import com.redhat.lightblue.client.Query;
 import com.redhat.lightblue.client.integration.test.LightblueExternalResource;
+import com.redhat.lightblue.client.request.DataBulkRequest;
 import com.redhat.lightblue.client.request.data.DataFindRequest;
 import com.redhat.lightblue.client.request.data.DataInsertRequest;
 import com.redhat.lightblue.client.response.LightblueErrorResponse;
@@ -33,6 +35,8 @@ import org.junit.ClassRule;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
 
 import java.net.UnknownHostException;
 import java.util.ArrayList;
@@ -397,6 +401,66 @@ public class BulkLightblueRequesterTest {
         }
     }
 
+    @Test
+    public void shouldOnlyPerformEquivalentFindsOnceAndShareTheirResponse() throws Exception {
+        insertUser("cooltester2000");
+
+        LightblueClient spiedClient = Mockito.spy(client);
+        requester = new BulkLightblueRequester(spiedClient);
+
+        DataFindRequest findTester = findUserByUsername("cooltester2000");
+        DataFindRequest findTesterAgain = findUserByUsername("cooltester2000");
+
+        Future<TestUser> futureTester = requester.request(findTester).transformSync(responses ->
+                responses.forRequest(findTester).parseProcessed(TestUser.class));
+        Future<TestUser> futureTesterAgain = requester.request(findTesterAgain).transformSync(
+                responses -> responses.forRequest(findTesterAgain).parseProcessed(TestUser.class));
+
+        assertThat(futureTester.get().getUsername()).isEqualTo("cooltester2000");
+        assertThat(futureTesterAgain.get().getUsername()).isEqualTo("cooltester2000");
+
+        ArgumentCaptor<DataBulkRequest> bulkRequest = ArgumentCaptor.forClass(DataBulkRequest.class);
+        Mockito.verify(spiedClient).bulkData(bulkRequest.capture());
+        assertThat(bulkRequest.getValue().getRequests()).hasSize(1);
+    }
+
+    @Test
+    public void shouldFuseFindsByIdIntoOneFindAndOnlyRespondWithEachRequestsOwnDocuments()
+            throws Exception {
+        insertUser("cooltester2000");
+        insertUser("aw3som3cod3r");
+
+        LightblueClient spiedClient = Mockito.spy(client);
+        requester = new BulkLightblueRequester(spiedClient);
+
+        FindByIdRequest findTester = new FindByIdRequest(TestUser.ENTITY_NAME,
+                TestUser.ENTITY_VERSION, "username", "cooltester2000",
+                Projection.includeFieldRecursively("*"));
+        FindByIdRequest findCoder = new FindByIdRequest(TestUser.ENTITY_NAME,
+                TestUser.ENTITY_VERSION, "username", "aw3som3cod3r",
+                Projection.includeFieldRecursively("*"));
+        FindByIdRequest findNobody = new FindByIdRequest(TestUser.ENTITY_NAME,
+                TestUser.ENTITY_VERSION, "username", "nobody",
+                Projection.includeFieldRecursively("*"));
+
+        List<TestUser[]> returned = requester.request(findTester, findCoder, findNobody)
+                .transformSync(responses -> Arrays.asList(
+                        responses.forRequest(findTester).parseProcessed(TestUser[].class),
+                        responses.forRequest(findCoder).parseProcessed(TestUser[].class),
+                        responses.forRequest(findNobody).parseProcessed(TestUser[].class)))
+                .get();
+
+        assertThat(returned.get(0)).hasLength(1);
+        assertThat(returned.get(0)[0].getUsername()).isEqualTo("cooltester2000");
+        assertThat(returned.get(1)).hasLength(1);
+        assertThat(returned.get(1)[0].getUsername()).isEqualTo("aw3som3cod3r");
+        assertThat(returned.get(2)).isEmpty();
+
+        ArgumentCaptor<DataBulkRequest> bulkRequest = ArgumentCaptor.forClass(DataBulkRequest.class);
+        Mockito.verify(spiedClient).bulkData(bulkRequest.capture());
+        assertThat(bulkRequest.getValue().getRequests()).hasSize(1);
+    }
+
     private void insertUser(String username) throws LightblueException {
         DataInsertRequest insertRequest = new DataInsertRequest(TestUser.ENTITY_NAME, TestUser.ENTITY_VERSION);
         TestUser user = new TestUser();
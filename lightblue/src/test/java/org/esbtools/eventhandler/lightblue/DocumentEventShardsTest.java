@@ -0,0 +1,108 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler.lightblue;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.esbtools.eventhandler.lightblue.testing.InMemoryLockStrategy;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+
+@RunWith(JUnit4.class)
+public class DocumentEventShardsTest {
+    InMemoryLockStrategy lockStrategy = new InMemoryLockStrategy();
+
+    DocumentEventShards node1 = new DocumentEventShards(lockStrategy, 4, 3, Duration.ZERO);
+    DocumentEventShards node2 = new DocumentEventShards(lockStrategy, 4, 3, Duration.ZERO);
+
+    @After
+    public void releaseLocks() {
+        lockStrategy.releaseAll();
+    }
+
+    @Test
+    public void shouldAssignSharedIdentitiesTheSameShard() {
+        Identity identity = new TypeAndValueIdentity(String.class, "foo");
+        Identity sameIdentity = new TypeAndValueIdentity(String.class, "foo");
+
+        assertThat(node1.shardOf(identity)).isEqualTo(node2.shardOf(sameIdentity));
+        assertThat(node1.shardOf(identity)).isAtLeast(0);
+        assertThat(node1.shardOf(identity)).isLessThan(4);
+    }
+
+    @Test
+    public void shouldClaimAllShardsIfOnlyNode() {
+        assertThat(node1.rebalance()).containsExactly(0, 1, 2, 3);
+    }
+
+    @Test
+    public void shouldSplitShardsAmongNodesOnceRebalanced() {
+        node1.rebalance();
+        assertThat(node2.rebalance()).isEmpty();
+
+        Set<Integer> node1Shards = node1.rebalance();
+        Set<Integer> node2Shards = node2.rebalance();
+
+        assertThat(node1Shards).hasSize(2);
+        assertThat(node2Shards).hasSize(2);
+
+        Set<Integer> allShards = new HashSet<>(node1Shards);
+        allShards.addAll(node2Shards);
+
+        assertThat(allShards).containsExactly(0, 1, 2, 3);
+    }
+
+    @Test
+    public void shouldClaimShardsOfNodesWhichLeave() throws Exception {
+        node1.rebalance();
+        node2.rebalance();
+        node1.rebalance();
+        node2.rebalance();
+
+        node2.close();
+
+        assertThat(node1.rebalance()).containsExactly(0, 1, 2, 3);
+    }
+
+    @Test
+    public void shouldOwnNoShardsPastMaxNodes() {
+        DocumentEventShards onlyOneNode = new DocumentEventShards(lockStrategy, 4, 1);
+        DocumentEventShards oneTooMany = new DocumentEventShards(lockStrategy, 4, 1);
+
+        assertThat(onlyOneNode.rebalance()).containsExactly(0, 1, 2, 3);
+        assertThat(oneTooMany.rebalance()).isEmpty();
+    }
+
+    @Test
+    public void shouldKeepShardsUntilRebalanceIntervalElapses() {
+        DocumentEventShards rarelyRebalanced =
+                new DocumentEventShards(lockStrategy, 4, 3, Duration.ofHours(1));
+
+        assertThat(rarelyRebalanced.rebalance()).containsExactly(0, 1, 2, 3);
+        assertThat(node2.rebalance()).isEmpty();
+        assertThat(rarelyRebalanced.rebalance()).containsExactly(0, 1, 2, 3);
+    }
+}
@@ -21,7 +21,10 @@ package org.esbtools.eventhandler.lightblue;
 import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.assertEquals;
 
+import org.esbtools.eventhandler.DocumentEvent;
 import org.esbtools.eventhandler.FailedDocumentEvent;
+import org.esbtools.eventhandler.lightblue.client.ChunkedBulkExecutor;
+import org.esbtools.eventhandler.lightblue.client.LightblueRequester;
 import org.esbtools.eventhandler.lightblue.config.MutableLightblueDocumentEventRepositoryConfig;
 import org.esbtools.eventhandler.lightblue.testing.InMemoryLockStrategy;
 import org.esbtools.eventhandler.lightblue.testing.LightblueClientConfigurations;
@@ -66,6 +69,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
@@ -149,6 +153,92 @@ public class LightblueDocumentEventRepositoryTest {
         assertEquals(stringEvent.getCreationDate().toInstant(), entity.getCreationDate().toInstant());
     }
 
+    @Test
+    public void shouldOnlyRetrieveFieldsFactoriesRequireAndBookkeepingFields() throws Exception {
+        Map<String, DocumentEventFactory> parametersOnlyFactories =
+                Collections.singletonMap("String", new DocumentEventFactory() {
+                    @Override
+                    public LightblueDocumentEvent getDocumentEventForEntity(
+                            DocumentEventEntity entity, LightblueRequester requester) {
+                        return new StringDocumentEvent(entity, requester);
+                    }
+
+                    @Override
+                    public Optional<Set<String>> getRequiredEntityFields() {
+                        return Optional.of(Collections.singleton("parameters"));
+                    }
+                });
+
+        repository = new LightblueDocumentEventRepository(client, lockStrategy, config,
+                parametersOnlyFactories, fixedClock);
+
+        DocumentEventEntity stringEvent =
+                new StringDocumentEvent("notification", "foo", fixedClock)
+                        .wrappedDocumentEventEntity();
+
+        insertDocumentEventEntities(stringEvent);
+
+        List<LightblueDocumentEvent> docEvents = repository.retrievePriorityDocumentEventsUpTo(1);
+
+        assertEquals(1, docEvents.size());
+
+        DocumentEventEntity entity = docEvents.get(0).wrappedDocumentEventEntity();
+
+        assertEquals(stringEvent.getParameters(), entity.getParameters());
+        assertEquals(stringEvent.getPriority(), entity.getPriority());
+        assertEquals(stringEvent.getCreationDate().toInstant(), entity.getCreationDate().toInstant());
+        assertThat(entity.getSourceNotificationId()).isNull();
+    }
+
+    @Test
+    public void shouldAssignShardsToNewDocumentEventsIfSharded() throws Exception {
+        try (DocumentEventShards shards = new DocumentEventShards(lockStrategy, 4, 1)) {
+            repository = new LightblueDocumentEventRepository(client,
+                    new ChunkedBulkExecutor(client), null, lockStrategy, shards, config,
+                    documentEventFactoriesByType, fixedClock);
+
+            StringDocumentEvent event = new StringDocumentEvent(null, "foo", fixedClock);
+
+            repository.addNewDocumentEvents(Collections.singleton(event));
+
+            assertThat(findDocumentEventEntitiesWhere(null).get(0).getShard())
+                    .isEqualTo(shards.shardOf(event.identity()));
+        }
+    }
+
+    @Test
+    public void shouldOnlyRetrieveDocumentEventsOfOwnedShards() throws Exception {
+        try (DocumentEventShards shards = new DocumentEventShards(lockStrategy, 4, 2);
+             DocumentEventShards otherNodeShards = new DocumentEventShards(lockStrategy, 4, 2)) {
+            repository = new LightblueDocumentEventRepository(client,
+                    new ChunkedBulkExecutor(client), null, lockStrategy, shards, config,
+                    documentEventFactoriesByType, fixedClock);
+
+            List<DocumentEvent> events = new ArrayList<>();
+            for (int i = 0; i < DOCUMENT_EVENT_BATCH_SIZE; i++) {
+                events.add(new StringDocumentEvent(null, Integer.toString(i), fixedClock));
+            }
+            repository.addNewDocumentEvents(events);
+
+            // Let both nodes see each other so each settles on half of the shards.
+            shards.rebalance();
+            otherNodeShards.rebalance();
+            Set<Integer> ownedShards = shards.rebalance();
+            otherNodeShards.rebalance();
+
+            List<LightblueDocumentEvent> retrieved =
+                    repository.retrievePriorityDocumentEventsUpTo(DOCUMENT_EVENT_BATCH_SIZE);
+
+            assertThat(ownedShards).hasSize(2);
+            assertThat(retrieved.size()).isLessThan(DOCUMENT_EVENT_BATCH_SIZE);
+
+            for (LightblueDocumentEvent event : retrieved) {
+                assertThat(ownedShards)
+                        .contains(event.wrappedDocumentEventEntity().getShard());
+            }
+        }
+    }
+
     @Test
     public void shouldMarkRetrievedDocumentEventsAsProcessing() throws Exception {
         DocumentEventEntity stringEvent1 = newStringDocumentEventEntity("foo");
@@ -288,6 +378,22 @@ public class LightblueDocumentEventRepositoryTest {
         assertThat(priorities).containsExactly(100, 99, 70, 55, 50);
     }
 
+    @Test
+    public void shouldRetrieveDocumentEventsInPriorityOrder() throws Exception {
+        insertDocumentEventEntities(
+                newRandomStringDocumentEventEntityWithPriorityOverride(5),
+                newRandomStringDocumentEventEntityWithPriorityOverride(100),
+                newRandomStringDocumentEventEntityWithPriorityOverride(50),
+                newRandomStringDocumentEventEntityWithPriorityOverride(25),
+                newRandomStringDocumentEventEntityWithPriorityOverride(70));
+
+        List<Integer> priorities = repository.retrievePriorityDocumentEventsUpTo(5).stream()
+                .map(LightblueDocumentEvent::priority)
+                .collect(Collectors.toList());
+
+        assertThat(priorities).containsExactly(100, 70, 50, 25, 5).inOrder();
+    }
+
     @Test
     public void shouldIgnoreSupersededEventsAndMarkAsSupersededAndTrackVictimIds() throws Exception {
         Clock creationTimeClock = Clock.offset(fixedClock, Duration.ofHours(1).negated());
@@ -965,6 +1071,52 @@ public class LightblueDocumentEventRepositoryTest {
         retrieved.get(0).lookupDocument().get();
     }
 
+    @Test(timeout = 30000)
+    public void shouldTimeOutWaitingOnLookupsAtTheDeadlineWhileLightblueIsStalled()
+            throws Exception {
+        SlowDataLightblueClient slowClient = new SlowDataLightblueClient(client);
+        List<LightblueRequester> requesters = Collections.synchronizedList(new ArrayList<>());
+
+        Map<String, DocumentEventFactory> capturingRequesters = Collections.singletonMap("String",
+                (entity, requester) -> {
+                    requesters.add(requester);
+                    return new StringDocumentEvent(entity, requester);
+                });
+
+        repository = new LightblueDocumentEventRepository(slowClient, lockStrategy, config,
+                capturingRequesters, fixedClock);
+
+        try {
+            repository.addNewDocumentEvents(randomNewStringDocumentEvents(1));
+            assertThat(repository.retrievePriorityDocumentEventsUpTo(1)).hasSize(1);
+
+            DataFindRequest lookup = new DataFindRequest(DocumentEventEntity.ENTITY_NAME,
+                    DocumentEventEntity.VERSION);
+            lookup.where(Query.withValue("canonicalType", Query.BinOp.eq, "String"));
+            lookup.select(Projection.includeFieldRecursively("*"));
+
+            slowClient.pauseBeforeRequests();
+
+            Future<?> lookupFuture = requesters.get(0).request(lookup);
+            long startNanos = System.nanoTime();
+
+            try {
+                lookupFuture.get(100, TimeUnit.MILLISECONDS);
+                throw new AssertionError("Expected lookup to time out while lightblue is stalled.");
+            } catch (TimeoutException expected) {
+                assertThat(System.nanoTime() - startNanos)
+                        .isLessThan(TimeUnit.SECONDS.toNanos(5));
+            }
+
+            slowClient.waitUntilPausedRequestQueuedAtMost(REQUEST_TIMEOUT);
+            slowClient.unpause();
+
+            lookupFuture.get(REQUEST_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+        } finally {
+            repository.stop();
+        }
+    }
+
     private List<DocumentEventEntity> findDocumentEventEntitiesWhere(@Nullable Query query)
             throws LightblueException {
         DataFindRequest find = new DataFindRequest(
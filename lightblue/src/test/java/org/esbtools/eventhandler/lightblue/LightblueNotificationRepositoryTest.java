@@ -20,6 +20,8 @@ package org.esbtools.eventhandler.lightblue;
 
 import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyZeroInteractions;
 
 import com.redhat.lightblue.client.LightblueClient;
 import com.redhat.lightblue.client.LightblueClientConfiguration;
@@ -32,6 +34,8 @@ import com.redhat.lightblue.client.request.data.DataInsertRequest;
 
 import org.esbtools.eventhandler.FailedNotification;
 import org.esbtools.eventhandler.lightblue.config.MutableLightblueNotificationRepositoryConfig;
+import org.esbtools.eventhandler.lightblue.locking.LockStrategy;
+import org.esbtools.eventhandler.lightblue.locking.LockedResource;
 import org.esbtools.eventhandler.lightblue.testing.InMemoryLockStrategy;
 import org.esbtools.eventhandler.lightblue.testing.LightblueClientConfigurations;
 import org.esbtools.eventhandler.lightblue.testing.LightblueClients;
@@ -196,6 +200,53 @@ public class LightblueNotificationRepositoryTest {
                 .containsExactly("processing", "processing", "processing", "processing");
     }
 
+    @Test
+    public void shouldRetrieveEntireNotificationsOldestFirstInTwoPhases() throws Exception {
+        config.setTwoPhaseRetrievalEnabled(true);
+
+        NotificationEntity entity1 = notificationEntityForStringInsert("1", fixedClock.instant());
+        NotificationEntity entity2 = notificationEntityForStringInsert("2", fixedClock.instant().plus(1, ChronoUnit.MINUTES));
+        NotificationEntity entity3 = notificationEntityForStringInsert("3", fixedClock.instant().plus(2, ChronoUnit.MINUTES));
+
+        insertNotificationEntities(entity3, entity1, entity2);
+
+        List<LightblueNotification> retrieved = repository.retrieveOldestNotificationsUpTo(2);
+
+        assertThat(retrieved.stream()
+                .map(notification -> notification
+                        .wrappedNotificationEntity()
+                        .getEntityDataForField("value"))
+                .collect(Collectors.toList()))
+                .containsExactly("1", "2");
+        assertThat(findNotificationEntitiesWhere(null).stream()
+                .filter(entity -> entity.getStatus() == NotificationEntity.Status.processing)
+                .count())
+                .isEqualTo(2L);
+    }
+
+    @Test
+    public void shouldNotRetrieveNotificationsLockedByOthersInTwoPhases() throws Exception {
+        config.setTwoPhaseRetrievalEnabled(true);
+
+        NotificationEntity lockedEntity = notificationEntityForStringInsert("locked");
+        lockedEntity.set_id("locked");
+        NotificationEntity unlockedEntity = notificationEntityForStringInsert("unlocked");
+        unlockedEntity.set_id("unlocked");
+
+        insertNotificationEntities(lockedEntity, unlockedEntity);
+
+        try (LockedResource<String> lock =
+                     lockStrategy.forceAcquire("ProcessingNotification{notificationId=locked}")) {
+            List<LightblueNotification> retrieved = repository.retrieveOldestNotificationsUpTo(2);
+
+            assertThat(retrieved).hasSize(1);
+            assertThat(retrieved.get(0).wrappedNotificationEntity().get_id())
+                    .isEqualTo("unlocked");
+            assertThat(retrieved.get(0).wrappedNotificationEntity().getEntityDataForField("value"))
+                    .isEqualTo("unlocked");
+        }
+    }
+
     @Test
     public void shouldRetrieveNonOverlappingSetsOfNotificationsIfCalledByMultipleThreads()
             throws LightblueException, InterruptedException, TimeoutException, ExecutionException {
@@ -264,6 +315,80 @@ public class LightblueNotificationRepositoryTest {
         }
     }
 
+    @Test
+    public void shouldNotDoubleProcessNotificationsAmongConcurrentOptimisticPollers()
+            throws Exception {
+        config.setOptimisticClaimingEnabled(true);
+
+        LockStrategy unusedLockStrategy = mock(LockStrategy.class);
+        SlowDataLightblueClient thread1Client = new SlowDataLightblueClient(client);
+        SlowDataLightblueClient thread2Client = new SlowDataLightblueClient(client);
+
+        LightblueNotificationRepository thread1Repository = new LightblueNotificationRepository(
+                thread1Client, unusedLockStrategy, config,
+                notificationFactoryByEntityName, fixedClock);
+
+        LightblueNotificationRepository thread2Repository = new LightblueNotificationRepository(
+                thread2Client, unusedLockStrategy, config,
+                notificationFactoryByEntityName, fixedClock);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+            NotificationEntity[] entities = randomNotificationEntities(20);
+
+            List<String> expectedValues = Arrays.stream(entities)
+                    .map(e -> e.getEntityDataForField("value"))
+                    .collect(Collectors.toList());
+
+            insertNotificationEntities(entities);
+
+            thread1Client.pauseBeforeRequests();
+            thread2Client.pauseBeforeRequests();
+
+            Future<List<LightblueNotification>> futureThread1Notifications =
+                    executor.submit(() -> thread1Repository.retrieveOldestNotificationsUpTo(20));
+            Future<List<LightblueNotification>> futureThread2Notifications =
+                    executor.submit(() -> thread2Repository.retrieveOldestNotificationsUpTo(20));
+
+            // Let both pollers find the same notifications before either tries to claim them.
+            thread1Client.waitUntilPausedRequestQueuedAtMost(Duration.ofSeconds(5));
+            thread1Client.flushPendingRequest();
+            thread2Client.waitUntilPausedRequestQueuedAtMost(Duration.ofSeconds(5));
+            thread2Client.flushPendingRequest();
+
+            thread1Client.waitUntilPausedRequestQueuedAtMost(Duration.ofSeconds(5));
+            thread2Client.waitUntilPausedRequestQueuedAtMost(Duration.ofSeconds(5));
+
+            thread1Client.unpause();
+            thread2Client.unpause();
+
+            List<LightblueNotification> thread1Notifications =
+                    futureThread1Notifications.get(10, TimeUnit.SECONDS);
+            List<LightblueNotification> thread2Notifications =
+                    futureThread2Notifications.get(10, TimeUnit.SECONDS);
+
+            List<String> retrievedValues = new ArrayList<>();
+
+            retrievedValues.addAll(thread1Notifications.stream()
+                    .map(e -> e.wrappedNotificationEntity().getEntityDataForField("value"))
+                    .collect(Collectors.toList()));
+
+            retrievedValues.addAll(thread2Notifications.stream()
+                    .map(e -> e.wrappedNotificationEntity().getEntityDataForField("value"))
+                    .collect(Collectors.toList()));
+
+            assertThat(retrievedValues).containsExactlyElementsIn(expectedValues);
+            assertThat(thread2Notifications).isEmpty();
+            verifyZeroInteractions(unusedLockStrategy);
+        } finally {
+            executor.shutdown();
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
     @Test
     public void shouldLeaveUnretrievedNotificationsAsUnprocessed() throws Exception {
         insertNotificationEntities(randomNotificationEntities(10));
@@ -0,0 +1,196 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler.lightblue;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.esbtools.eventhandler.DocumentEvent;
+import org.esbtools.eventhandler.KeyedDocumentEvent;
+import org.esbtools.eventhandler.lightblue.LightblueDocumentEventRepository.SharedIdentityEvents;
+import org.esbtools.eventhandler.lightblue.testing.InMemoryLockStrategy;
+import org.esbtools.eventhandler.lightblue.testing.TypeIdentity;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+@RunWith(JUnit4.class)
+public class SharedIdentityEventsTest {
+    static final Clock fixedClock = Clock.fixed(Instant.parse("2016-05-01T00:00:00Z"),
+            ZoneOffset.UTC);
+
+    static final Map<String, DocumentEventFactory> factories = Collections.singletonMap(
+            "Value", (entity, requester) -> entity.getParameterByKey("keyed").equals("true")
+                    ? new KeyedValueDocumentEvent(entity)
+                    : new ValueDocumentEvent(entity));
+
+    InMemoryLockStrategy lockStrategy = new InMemoryLockStrategy();
+
+    List<SharedIdentityEvents> results = new ArrayList<>();
+
+    @After
+    public void releaseLocks() throws Exception {
+        lockStrategy.releaseAll();
+    }
+
+    @Test
+    public void shouldSupersedeKeyedEventsWithTheSameKey() {
+        optimize(entity("1", "a", true), entity("2", "b", true), entity("3", "a", true));
+
+        assertThat(statusesById()).isEqualTo(ImmutableMap.of(
+                "1", DocumentEventEntity.Status.processing,
+                "2", DocumentEventEntity.Status.processing,
+                "3", DocumentEventEntity.Status.superseded));
+    }
+
+    @Test
+    public void shouldOptimizeEventsWithoutKeysAgainstKeyedEvents() {
+        optimize(entity("1", "a", true), entity("2", "a", false), entity("3", "b", true),
+                entity("4", "b", false));
+
+        assertThat(statusesById()).isEqualTo(ImmutableMap.of(
+                "1", DocumentEventEntity.Status.processing,
+                "2", DocumentEventEntity.Status.superseded,
+                "3", DocumentEventEntity.Status.processing,
+                "4", DocumentEventEntity.Status.superseded));
+    }
+
+    @Test
+    public void shouldOptimizeKeyedEventsAgainstEventsWithoutKeys() {
+        optimize(entity("1", "a", false), entity("2", "a", true), entity("3", "b", true));
+
+        assertThat(statusesById()).isEqualTo(ImmutableMap.of(
+                "1", DocumentEventEntity.Status.processing,
+                "2", DocumentEventEntity.Status.superseded,
+                "3", DocumentEventEntity.Status.processing));
+    }
+
+    @Test
+    public void shouldOptimizeManyKeyedEventsOfTheSameIdentity() {
+        DocumentEventEntity[] entities = new DocumentEventEntity[10000];
+
+        for (int i = 0; i < entities.length; i++) {
+            entities[i] = entity(Integer.toString(i), Integer.toString(i % 5000), true);
+        }
+
+        optimize(entities);
+
+        Map<String, DocumentEventEntity.Status> statuses = statusesById();
+        assertThat(statuses).hasSize(10000);
+        assertThat(statuses.values().stream()
+                .filter(DocumentEventEntity.Status.processing::equals)
+                .count()).isEqualTo(5000L);
+        assertThat(statuses.get("5000")).isEqualTo(DocumentEventEntity.Status.superseded);
+    }
+
+    private void optimize(DocumentEventEntity... entities) {
+        SharedIdentityEvents.parseAndOptimizeLockableDocumentEventEntities(
+                entities.length, entities, null, factories, lockStrategy, fixedClock)
+                .getLocks()
+                .forEach(lock -> results.add(lock.getResource()));
+    }
+
+    private Map<String, DocumentEventEntity.Status> statusesById() {
+        return results.stream()
+                .flatMap(events -> events.updates.values().stream())
+                .map(update -> update.event.wrappedDocumentEventEntity())
+                .collect(Collectors.toMap(DocumentEventEntity::get_id,
+                        DocumentEventEntity::getStatus));
+    }
+
+    private static DocumentEventEntity entity(String id, String value, boolean keyed) {
+        DocumentEventEntity entity = DocumentEventEntity.newlyCreated(null, "Value", 50,
+                ZonedDateTime.now(fixedClock),
+                new DocumentEventEntity.KeyAndValue("value", value),
+                new DocumentEventEntity.KeyAndValue("keyed", Boolean.toString(keyed)));
+        entity.set_id(id);
+        entity.setStatus(DocumentEventEntity.Status.unprocessed);
+        return entity;
+    }
+
+    /**
+     * All value events share an identity, but are only superseded by events with the same value.
+     */
+    static class ValueDocumentEvent implements LightblueDocumentEvent {
+        final String value;
+        final DocumentEventEntity entity;
+
+        ValueDocumentEvent(DocumentEventEntity entity) {
+            this.entity = entity;
+            this.value = entity.getParameterByKey("value");
+        }
+
+        @Override
+        public Future<?> lookupDocument() {
+            return Futures.immediateFuture(value);
+        }
+
+        @Override
+        public boolean isSupersededBy(DocumentEvent event) {
+            return event instanceof ValueDocumentEvent &&
+                    Objects.equals(((ValueDocumentEvent) event).value, value);
+        }
+
+        @Override
+        public boolean couldMergeWith(DocumentEvent event) {
+            return false;
+        }
+
+        @Override
+        public LightblueDocumentEvent merge(DocumentEvent event) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Identity identity() {
+            return new TypeIdentity(ValueDocumentEvent.class);
+        }
+
+        @Override
+        public DocumentEventEntity wrappedDocumentEventEntity() {
+            return entity;
+        }
+    }
+
+    static class KeyedValueDocumentEvent extends ValueDocumentEvent implements KeyedDocumentEvent {
+        KeyedValueDocumentEvent(DocumentEventEntity entity) {
+            super(entity);
+        }
+
+        @Override
+        public Object optimizationKey() {
+            return value;
+        }
+    }
+}
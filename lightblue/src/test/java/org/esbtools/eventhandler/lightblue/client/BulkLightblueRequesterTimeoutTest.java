@@ -0,0 +1,178 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.esbtools.eventhandler.lightblue.client;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.esbtools.eventhandler.TransformableFuture;
+
+import com.redhat.lightblue.client.LightblueClient;
+import com.redhat.lightblue.client.LightblueException;
+import com.redhat.lightblue.client.request.CRUDRequest;
+import com.redhat.lightblue.client.request.DataBulkRequest;
+import com.redhat.lightblue.client.response.LightblueBulkDataResponse;
+import com.redhat.lightblue.client.response.LightblueDataResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+@RunWith(JUnit4.class)
+public class BulkLightblueRequesterTimeoutTest {
+    LightblueClient client = mock(LightblueClient.class);
+
+    ExecutorService batchExecutor = Executors.newCachedThreadPool();
+
+    BulkLightblueRequester requester =
+            new BulkLightblueRequester(new ChunkedBulkExecutor(client), batchExecutor);
+
+    CountDownLatch bulkRequestStarted = new CountDownLatch(1);
+    CountDownLatch releaseBulkRequest = new CountDownLatch(1);
+    CountDownLatch bulkRequestInterrupted = new CountDownLatch(1);
+
+    @Before
+    public void blockBulkRequestsUntilReleased() throws Exception {
+        doAnswer(invocation -> {
+            bulkRequestStarted.countDown();
+
+            try {
+                releaseBulkRequest.await();
+            } catch (InterruptedException e) {
+                bulkRequestInterrupted.countDown();
+                throw new LightblueException("Interrupted", e);
+            }
+
+            return respondTo(invocation.getArgumentAt(0, DataBulkRequest.class).getRequests());
+        }).when(client).bulkData(any(DataBulkRequest.class));
+    }
+
+    @After
+    public void shutdownBatchExecutor() {
+        releaseBulkRequest.countDown();
+        batchExecutor.shutdownNow();
+    }
+
+    @Test(timeout = 5000)
+    public void shouldTimeOutWhileBulkRequestIsSlow() throws Exception {
+        TransformableFuture<LightblueDataResponses> future = requester.request(request("a"));
+
+        try {
+            future.get(50, TimeUnit.MILLISECONDS);
+            throw new AssertionError("Expected TimeoutException");
+        } catch (TimeoutException expected) {
+            assertThat(future.isDone()).isFalse();
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void shouldCompleteFutureInBackgroundAfterTimingOut() throws Exception {
+        CRUDRequest request = request("a");
+        TransformableFuture<LightblueDataResponses> future = requester.request(request);
+
+        try {
+            future.get(50, TimeUnit.MILLISECONDS);
+            throw new AssertionError("Expected TimeoutException");
+        } catch (TimeoutException expected) {
+            releaseBulkRequest.countDown();
+        }
+
+        assertThat(future.get(2, TimeUnit.SECONDS).forRequest(request).getText()).isEqualTo("a");
+    }
+
+    @Test(timeout = 5000)
+    public void shouldCompleteTransformsWithinTimeout() throws Exception {
+        releaseBulkRequest.countDown();
+        CRUDRequest request = request("a");
+
+        TransformableFuture<String> future = requester.request(request)
+                .transformSync(responses -> responses.forRequest(request).getText() + "!");
+
+        assertThat(future.get(2, TimeUnit.SECONDS)).isEqualTo("a!");
+    }
+
+    @Test(timeout = 5000)
+    public void shouldInterruptBulkRequestOnceEveryFutureInItIsCancelled() throws Exception {
+        TransformableFuture<LightblueDataResponses> first = requester.request(request("a"));
+        TransformableFuture<LightblueDataResponses> second = requester.request(request("b"));
+
+        try {
+            first.get(1, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException expected) {
+            // Batch is still performed in the background.
+        }
+
+        bulkRequestStarted.await();
+
+        first.cancel(true);
+        assertThat(bulkRequestInterrupted.await(100, TimeUnit.MILLISECONDS)).isFalse();
+
+        second.cancel(true);
+        assertThat(bulkRequestInterrupted.await(2, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test(timeout = 5000)
+    public void shouldNotInterruptBulkRequestIfCancelledWithoutMayInterruptIfRunning()
+            throws Exception {
+        TransformableFuture<LightblueDataResponses> future = requester.request(request("a"));
+
+        try {
+            future.get(1, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException expected) {
+            // Batch is still performed in the background.
+        }
+
+        bulkRequestStarted.await();
+
+        future.cancel(false);
+
+        assertThat(bulkRequestInterrupted.await(100, TimeUnit.MILLISECONDS)).isFalse();
+    }
+
+    private static CRUDRequest request(String body) {
+        CRUDRequest request = mock(CRUDRequest.class);
+        when(request.getBody()).thenReturn(body);
+        return request;
+    }
+
+    private static LightblueBulkDataResponse respondTo(List<CRUDRequest> requests) {
+        LightblueBulkDataResponse bulkResponse = mock(LightblueBulkDataResponse.class);
+
+        for (CRUDRequest request : requests) {
+            LightblueDataResponse response = mock(LightblueDataResponse.class);
+            String body = request.getBody();
+            when(response.getText()).thenReturn(body);
+            when(bulkResponse.getResponse(request)).thenReturn(response);
+        }
+
+        return bulkResponse;
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler.lightblue.client;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.esbtools.eventhandler.TransformableFuture;
+
+import com.redhat.lightblue.client.request.CRUDRequest;
+import com.redhat.lightblue.client.request.data.DataFindRequest;
+import com.redhat.lightblue.client.request.data.DataInsertRequest;
+import com.redhat.lightblue.client.response.LightblueDataResponse;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@RunWith(JUnit4.class)
+public class CachingLightblueRequesterTest {
+    MutableClock clock = new MutableClock();
+
+    LightblueResponseCache cache = new LightblueResponseCache(
+            Collections.singletonMap("company", Duration.ofMinutes(5)), 2, clock);
+
+    LightblueRequester requester = mock(LightblueRequester.class);
+
+    /** Every batch of requests passed to the wrapped requester. */
+    List<List<CRUDRequest>> requested = new ArrayList<>();
+
+    @Before
+    public void respondToRequests() {
+        when(requester.request(anyCollectionOf(CRUDRequest.class))).then(invocation -> {
+            Collection<CRUDRequest> requests = invocation.getArgumentAt(0, Collection.class);
+            requested.add(new ArrayList<>(requests));
+
+            Map<CRUDRequest, LightblueDataResponse> responses = new HashMap<>();
+            for (CRUDRequest request : requests) {
+                responses.put(request, mock(LightblueDataResponse.class));
+            }
+            return TransformableFuture.immediate(
+                    (LightblueDataResponses) responses::get);
+        });
+    }
+
+    @Test
+    public void shouldAnswerEquivalentFindsFromCacheAcrossRequesters() throws Exception {
+        CRUDRequest findAcme = find("company", "acme");
+        CRUDRequest findAcmeAgain = find("company", "acme");
+
+        LightblueDataResponse first = new CachingLightblueRequester(cache, requester)
+                .request(findAcme).get().forRequest(findAcme);
+        LightblueDataResponse second = new CachingLightblueRequester(cache, requester)
+                .request(findAcmeAgain).get().forRequest(findAcmeAgain);
+
+        assertThat(second).isSameAs(first);
+        assertThat(requested).hasSize(1);
+        assertThat(cache.hitCount()).isEqualTo(1);
+        assertThat(cache.missCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldOnlyRequestUncachedRequests() throws Exception {
+        CRUDRequest findAcme = find("company", "acme");
+        CRUDRequest findInitech = find("company", "initech");
+
+        new CachingLightblueRequester(cache, requester).request(findAcme).get();
+
+        CRUDRequest findAcmeAgain = find("company", "acme");
+        LightblueDataResponses responses = new CachingLightblueRequester(cache, requester)
+                .request(findAcmeAgain, findInitech).get();
+
+        assertThat(requested.get(1)).containsExactly(findInitech);
+        assertThat(responses.forRequest(findAcmeAgain)).isNotNull();
+        assertThat(responses.forRequest(findInitech)).isNotNull();
+    }
+
+    @Test
+    public void shouldNotRequestAnythingIfAllRequestsAreCached() throws Exception {
+        CRUDRequest findAcme = find("company", "acme");
+        new CachingLightblueRequester(cache, requester).request(findAcme).get();
+
+        LightblueRequester otherRequester = mock(LightblueRequester.class);
+        TransformableFuture<LightblueDataResponses> future =
+                new CachingLightblueRequester(cache, otherRequester).request(find("company", "acme"));
+
+        assertThat(future.isDone()).isTrue();
+        verify(otherRequester, never()).request(anyCollectionOf(CRUDRequest.class));
+    }
+
+    @Test
+    public void shouldNotCacheFindsOfEntitiesWithoutTimeToLive() throws Exception {
+        new CachingLightblueRequester(cache, requester).request(find("user", "bob")).get();
+        new CachingLightblueRequester(cache, requester).request(find("user", "bob")).get();
+
+        assertThat(requested).hasSize(2);
+        assertThat(cache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldNotCacheRequestsOtherThanFinds() throws Exception {
+        DataInsertRequest insert = mock(DataInsertRequest.class);
+        when(insert.getEntityName()).thenReturn("company");
+        when(insert.getBody()).thenReturn("{}");
+
+        new CachingLightblueRequester(cache, requester).request(insert).get();
+        new CachingLightblueRequester(cache, requester).request(insert).get();
+
+        assertThat(requested).hasSize(2);
+    }
+
+    @Test
+    public void shouldRequestAgainOnceTimeToLiveHasPassed() throws Exception {
+        new CachingLightblueRequester(cache, requester).request(find("company", "acme")).get();
+
+        clock.advance(Duration.ofMinutes(5));
+
+        new CachingLightblueRequester(cache, requester).request(find("company", "acme")).get();
+
+        assertThat(requested).hasSize(2);
+        assertThat(cache.missCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedResponsesBeyondMaximumSize() throws Exception {
+        CachingLightblueRequester cachingRequester = new CachingLightblueRequester(cache, requester);
+
+        cachingRequester.request(find("company", "acme")).get();
+        cachingRequester.request(find("company", "initech")).get();
+        cachingRequester.request(find("company", "acme")).get();
+        cachingRequester.request(find("company", "globex")).get();
+
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.evictionCount()).isEqualTo(1);
+
+        cachingRequester.request(find("company", "acme")).get();
+
+        assertThat(requested).hasSize(3);
+    }
+
+    private static DataFindRequest find(String entityName, String name) {
+        DataFindRequest find = mock(DataFindRequest.class);
+        when(find.getEntityName()).thenReturn(entityName);
+        when(find.getEntityVersion()).thenReturn("1.0.0");
+        when(find.getBody()).thenReturn("{\"query\":{\"field\":\"name\",\"op\":\"=\"," +
+                "\"rvalue\":\"" + name + "\"}}");
+        return find;
+    }
+
+    static class MutableClock extends Clock {
+        Instant instant = Instant.parse("2016-05-01T00:00:00Z");
+
+        void advance(Duration duration) {
+            instant = instant.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler.lightblue.client;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.redhat.lightblue.client.LightblueClient;
+import com.redhat.lightblue.client.LightblueException;
+import com.redhat.lightblue.client.request.CRUDRequest;
+import com.redhat.lightblue.client.request.DataBulkRequest;
+import com.redhat.lightblue.client.response.LightblueBulkDataResponse;
+import com.redhat.lightblue.client.response.LightblueDataResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(JUnit4.class)
+public class ChunkedBulkExecutorTest {
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    LightblueClient client = mock(LightblueClient.class);
+
+    /** Each bulk request performed, in the order they were performed. */
+    List<List<CRUDRequest>> bulkRequests = Collections.synchronizedList(new ArrayList<>());
+
+    /** Requests whose bulk request should fail as a whole. */
+    Set<CRUDRequest> failingRequests = Collections.synchronizedSet(new HashSet<>());
+
+    List<ChunkedBulkExecutor> bulkExecutors = new ArrayList<>();
+
+    @Before
+    public void respondToBulkRequests() throws Exception {
+        when(client.bulkData(any(DataBulkRequest.class))).then(invocation -> {
+            List<CRUDRequest> requests = invocation.getArgumentAt(0, DataBulkRequest.class)
+                    .getRequests();
+            bulkRequests.add(new ArrayList<>(requests));
+            return respondTo(requests);
+        });
+    }
+
+    @After
+    public void stopBulkExecutors() {
+        bulkExecutors.forEach(ChunkedBulkExecutor::stop);
+    }
+
+    @Test
+    public void shouldPerformAllRequestsInOneBulkRequestByDefault() throws Exception {
+        List<CRUDRequest> requests = requests(5, 10);
+
+        ChunkedBulkResponse response = new ChunkedBulkExecutor(client).execute(requests);
+
+        assertThat(response.chunkCount()).isEqualTo(1);
+        assertThat(bulkRequests).containsExactly(requests);
+    }
+
+    @Test
+    public void shouldSplitRequestsIntoChunksOfAtMostMaxRequests() throws Exception {
+        List<CRUDRequest> requests = requests(5, 10);
+
+        ChunkedBulkResponse response = bulkExecutor(2, Integer.MAX_VALUE).execute(requests);
+
+        assertThat(response.chunkCount()).isEqualTo(3);
+        assertThat(bulkRequests).containsExactly(
+                requests.subList(0, 2), requests.subList(2, 4), requests.subList(4, 5));
+    }
+
+    @Test
+    public void shouldSplitRequestsIntoChunksOfAtMostMaxBodyLength() throws Exception {
+        List<CRUDRequest> requests = requests(5, 10);
+
+        ChunkedBulkResponse response = bulkExecutor(100, 25).execute(requests);
+
+        assertThat(response.chunkCount()).isEqualTo(3);
+        assertThat(bulkRequests).containsExactly(
+                requests.subList(0, 2), requests.subList(2, 4), requests.subList(4, 5));
+    }
+
+    @Test
+    public void shouldPerformRequestsLongerThanMaxBodyLengthInTheirOwnChunk() throws Exception {
+        List<CRUDRequest> requests = requests(3, 50);
+
+        ChunkedBulkResponse response = bulkExecutor(100, 25).execute(requests);
+
+        assertThat(response.chunkCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldReturnResponsesInTheOrderOfTheirRequests() throws Exception {
+        List<CRUDRequest> requests = requests(7, 10);
+
+        ChunkedBulkResponse response = bulkExecutor(2, Integer.MAX_VALUE).execute(requests);
+
+        List<LightblueDataResponse> responses = response.getResponses();
+        assertThat(responses).hasSize(7);
+
+        for (int i = 0; i < requests.size(); i++) {
+            assertThat(responses.get(i).getText()).isEqualTo(requests.get(i).getBody());
+            assertThat(response.getResponse(requests.get(i))).isSameAs(responses.get(i));
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void shouldPerformChunksConcurrently() throws Exception {
+        CyclicBarrier allChunksInFlight = new CyclicBarrier(3);
+
+        doAnswer(invocation -> {
+            allChunksInFlight.await(2, TimeUnit.SECONDS);
+            return respondTo(invocation.getArgumentAt(0, DataBulkRequest.class).getRequests());
+        }).when(client).bulkData(any(DataBulkRequest.class));
+
+        ChunkedBulkResponse response = bulkExecutor(1, Integer.MAX_VALUE).execute(requests(3, 10));
+
+        assertThat(response.getResponses()).hasSize(3);
+    }
+
+    @Test
+    public void shouldOnlyFailRequestsInChunksWhichFailed() throws Exception {
+        List<CRUDRequest> requests = requests(4, 10);
+        failingRequests.add(requests.get(2));
+
+        ChunkedBulkResponse response = bulkExecutor(2, Integer.MAX_VALUE).execute(requests);
+
+        assertThat(response.getResponse(requests.get(0)).getText())
+                .isEqualTo(requests.get(0).getBody());
+        assertThat(response.getResponse(requests.get(1)).getText())
+                .isEqualTo(requests.get(1).getBody());
+
+        expectedException.expect(LightblueException.class);
+
+        response.getResponse(requests.get(3));
+    }
+
+    @Test
+    public void shouldThrowIfEveryChunkFailed() throws Exception {
+        List<CRUDRequest> requests = requests(4, 10);
+        failingRequests.add(requests.get(0));
+        failingRequests.add(requests.get(2));
+
+        expectedException.expect(LightblueException.class);
+
+        bulkExecutor(2, Integer.MAX_VALUE).execute(requests);
+    }
+
+    private ChunkedBulkExecutor bulkExecutor(int maxRequestsPerChunk, int maxBodyLengthPerChunk) {
+        ChunkedBulkExecutor bulkExecutor = new ChunkedBulkExecutor(client, maxRequestsPerChunk,
+                maxBodyLengthPerChunk, 2);
+        bulkExecutors.add(bulkExecutor);
+        return bulkExecutor;
+    }
+
+    private LightblueBulkDataResponse respondTo(List<CRUDRequest> requests)
+            throws LightblueException {
+        if (requests.stream().anyMatch(failingRequests::contains)) {
+            throw new LightblueException("Chunk failed");
+        }
+
+        LightblueBulkDataResponse bulkResponse = mock(LightblueBulkDataResponse.class);
+        List<LightblueDataResponse> responses = new ArrayList<>();
+
+        for (CRUDRequest request : requests) {
+            LightblueDataResponse response = mock(LightblueDataResponse.class);
+            String body = request.getBody();
+            when(response.getText()).thenReturn(body);
+            when(bulkResponse.getResponse(request)).thenReturn(response);
+            responses.add(response);
+        }
+
+        when(bulkResponse.getResponses()).thenReturn(responses);
+        return bulkResponse;
+    }
+
+    /**
+     * Requests with bodies like "request0", padded to be {@code bodyLength} characters long.
+     */
+    private static List<CRUDRequest> requests(int count, int bodyLength) {
+        List<CRUDRequest> requests = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            CRUDRequest request = mock(CRUDRequest.class);
+            char[] padding = new char[Math.max(0, bodyLength - ("request" + i).length())];
+            Arrays.fill(padding, ' ');
+            when(request.getBody()).thenReturn("request" + i + new String(padding));
+            requests.add(request);
+        }
+
+        return requests;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler.lightblue.client;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.redhat.lightblue.client.Projection;
+import com.redhat.lightblue.client.request.CRUDRequest;
+import com.redhat.lightblue.client.response.DefaultLightblueDataResponse;
+import com.redhat.lightblue.client.response.LightblueBulkDataResponse;
+import com.redhat.lightblue.client.response.LightblueDataResponse;
+import com.redhat.lightblue.client.util.JSON;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class CoalescedRequestsTest {
+    static final int FUSED_IDS = 50;
+
+    @Test
+    public void shouldFilterFusedFindResponseToEachRequestsOwnDocumentsAndMetadata()
+            throws Exception {
+        List<FindByIdRequest> findsById = new ArrayList<>();
+
+        for (int i = 0; i < FUSED_IDS; i++) {
+            findsById.add(findById("user" + i));
+        }
+        FindByIdRequest findNobody = findById("nobody");
+        findsById.add(findNobody);
+
+        CoalescedRequests coalesced = new CoalescedRequests(findsById);
+        assertThat(coalesced.requestsToSend()).hasSize(1);
+
+        // Respond with documents in reverse order, with per document metadata.
+        ObjectNode fusedJson = JsonNodeFactory.instance.objectNode();
+        fusedJson.put("status", "COMPLETE");
+        fusedJson.put("modifiedCount", 0);
+        fusedJson.put("matchCount", FUSED_IDS);
+        ArrayNode processed = fusedJson.putArray("processed");
+        ArrayNode resultMetadata = fusedJson.putArray("resultMetadata");
+
+        for (int i = FUSED_IDS - 1; i >= 0; i--) {
+            processed.addObject().put("username", "user" + i).put("number", i);
+            resultMetadata.addObject().put("documentVersion", "version" + i);
+        }
+
+        LightblueDataResponse fusedResponse = new DefaultLightblueDataResponse(
+                fusedJson.toString(), JSON.getDefaultObjectMapper());
+        ChunkedBulkResponse bulkResponse =
+                respondWith(coalesced.requestsToSend().get(0), fusedResponse);
+
+        for (int i = 0; i < FUSED_IDS; i++) {
+            LightblueDataResponse response = coalesced.responseFor(findsById.get(i), bulkResponse);
+            JsonNode json = response.getJson();
+
+            assertThat(json.get("status").asText()).isEqualTo("COMPLETE");
+            assertThat(json.get("modifiedCount").asInt()).isEqualTo(0);
+            assertThat(json.get("matchCount").asInt()).isEqualTo(1);
+            assertThat(response.parseMatchCount()).isEqualTo(1);
+            assertThat(json.get("processed").size()).isEqualTo(1);
+            assertThat(json.get("processed").get(0).get("username").asText())
+                    .isEqualTo("user" + i);
+            assertThat(json.get("processed").get(0).get("number").asInt()).isEqualTo(i);
+            assertThat(json.get("resultMetadata").size()).isEqualTo(1);
+            assertThat(json.get("resultMetadata").get(0).get("documentVersion").asText())
+                    .isEqualTo("version" + i);
+        }
+
+        JsonNode nobody = coalesced.responseFor(findNobody, bulkResponse).getJson();
+
+        assertThat(nobody.get("matchCount").asInt()).isEqualTo(0);
+        assertThat(nobody.get("processed").size()).isEqualTo(0);
+        assertThat(nobody.get("resultMetadata").size()).isEqualTo(0);
+
+        // The fused response itself is left as it was.
+        assertThat(fusedResponse.getJson().get("processed").size()).isEqualTo(FUSED_IDS);
+        assertThat(fusedResponse.getJson().get("resultMetadata").size()).isEqualTo(FUSED_IDS);
+    }
+
+    private static FindByIdRequest findById(String username) {
+        return new FindByIdRequest("user", "1.0.0", "username", username,
+                Projection.includeFieldRecursively("*"));
+    }
+
+    private static ChunkedBulkResponse respondWith(CRUDRequest request,
+            LightblueDataResponse response) throws Exception {
+        LightblueBulkDataResponse bulkDataResponse = mock(LightblueBulkDataResponse.class);
+        when(bulkDataResponse.getResponse(request)).thenReturn(response);
+
+        List<CRUDRequest> requests = new ArrayList<>();
+        requests.add(request);
+
+        ChunkedBulkResponse bulkResponse = new ChunkedBulkResponse();
+        bulkResponse.addChunk(requests, bulkDataResponse);
+        return bulkResponse;
+    }
+}
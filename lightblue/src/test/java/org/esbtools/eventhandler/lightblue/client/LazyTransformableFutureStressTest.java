@@ -0,0 +1,220 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler.lightblue.client;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.esbtools.eventhandler.TransformableFuture;
+import org.esbtools.eventhandler.lightblue.client.BulkLightblueRequester.LazyTransformableFuture;
+
+import com.redhat.lightblue.client.LightblueClient;
+import com.redhat.lightblue.client.request.CRUDRequest;
+import com.redhat.lightblue.client.request.DataBulkRequest;
+import com.redhat.lightblue.client.response.LightblueBulkDataResponse;
+import com.redhat.lightblue.client.response.LightblueDataResponse;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Races listeners, completion, cancellation, and resolution of lazy futures across threads, many
+ * times over, to shake out lost or duplicated callbacks.
+ */
+@RunWith(JUnit4.class)
+public class LazyTransformableFutureStressTest {
+    static final int THREADS = 8;
+    static final int ITERATIONS = 500;
+    static final int LISTENERS_PER_THREAD = 20;
+
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS + 1);
+
+    @After
+    public void shutdownExecutor() {
+        executor.shutdownNow();
+    }
+
+    @Test(timeout = 60000)
+    public void shouldNotifyEveryListenerExactlyOnceWhenAddedConcurrentlyWithCompletion()
+            throws Exception {
+        for (int i = 0; i < ITERATIONS; i++) {
+            int result = i;
+            LazyTransformableFuture<Integer> future = new LazyTransformableFuture<>(() -> {});
+            AtomicInteger callbacks = new AtomicInteger();
+            AtomicInteger transforms = new AtomicInteger();
+            List<TransformableFuture<Integer>> transformed = new ArrayList<>();
+            CyclicBarrier start = new CyclicBarrier(THREADS + 1);
+            List<Future<List<TransformableFuture<Integer>>>> adders = new ArrayList<>();
+
+            for (int t = 0; t < THREADS; t++) {
+                adders.add(executor.submit(() -> {
+                    List<TransformableFuture<Integer>> added = new ArrayList<>();
+                    start.await();
+                    for (int l = 0; l < LISTENERS_PER_THREAD; l++) {
+                        future.whenDoneOrCancelled(callbacks::incrementAndGet);
+                        added.add(future.transformSync(value -> {
+                            transforms.incrementAndGet();
+                            return value + 1;
+                        }));
+                    }
+                    return added;
+                }));
+            }
+
+            Future<?> completion = executor.submit(() -> {
+                start.await();
+                future.complete(result);
+                return null;
+            });
+
+            completion.get(5, TimeUnit.SECONDS);
+            for (Future<List<TransformableFuture<Integer>>> adder : adders) {
+                transformed.addAll(adder.get(5, TimeUnit.SECONDS));
+            }
+
+            assertThat(callbacks.get()).isEqualTo(THREADS * LISTENERS_PER_THREAD);
+            assertThat(transforms.get()).isEqualTo(THREADS * LISTENERS_PER_THREAD);
+            for (TransformableFuture<Integer> next : transformed) {
+                assertThat(next.isDone()).isTrue();
+                assertThat(next.get()).isEqualTo(result + 1);
+            }
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void shouldSettleExactlyOnceWhenCompletedAndCancelledConcurrently() throws Exception {
+        for (int i = 0; i < ITERATIONS; i++) {
+            LazyTransformableFuture<Integer> future = new LazyTransformableFuture<>(() -> {});
+            AtomicInteger callbacks = new AtomicInteger();
+            future.whenDoneOrCancelled(callbacks::incrementAndGet);
+            CyclicBarrier start = new CyclicBarrier(3);
+
+            Future<Boolean> cancelled = executor.submit(() -> {
+                start.await();
+                return future.cancel(false);
+            });
+            Future<?> completed = executor.submit(() -> {
+                start.await();
+                future.complete(1);
+                return null;
+            });
+            Future<?> failed = executor.submit(() -> {
+                start.await();
+                future.completeExceptionally(new Exception("failed"));
+                return null;
+            });
+
+            boolean wasCancelled = cancelled.get(5, TimeUnit.SECONDS);
+            completed.get(5, TimeUnit.SECONDS);
+            failed.get(5, TimeUnit.SECONDS);
+
+            assertThat(callbacks.get()).isEqualTo(1);
+            assertThat(future.isCancelled()).isEqualTo(wasCancelled);
+
+            try {
+                Integer result = future.get();
+                assertThat(result).isEqualTo(1);
+            } catch (CancellationException e) {
+                assertThat(wasCancelled).isTrue();
+            } catch (ExecutionException e) {
+                assertThat(e.getCause().getMessage()).isEqualTo("failed");
+            }
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void shouldReturnTheSameResultToConcurrentGets() throws Exception {
+        for (int i = 0; i < ITERATIONS; i++) {
+            AtomicReference<LazyTransformableFuture<Object>> future = new AtomicReference<>();
+            AtomicInteger completions = new AtomicInteger();
+            future.set(new LazyTransformableFuture<>(
+                    () -> future.get().complete(new Object[]{completions.incrementAndGet()})));
+            CyclicBarrier start = new CyclicBarrier(THREADS);
+            List<Future<Object>> gets = new ArrayList<>();
+
+            for (int t = 0; t < THREADS; t++) {
+                gets.add(executor.submit(() -> {
+                    start.await();
+                    return future.get().get();
+                }));
+            }
+
+            Object first = gets.get(0).get(5, TimeUnit.SECONDS);
+            for (Future<Object> get : gets) {
+                assertThat(get.get(5, TimeUnit.SECONDS)).isSameAs(first);
+            }
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void shouldWaitForBatchInProgressOnAnotherThreadInsteadOfFailing() throws Exception {
+        LightblueClient client = mock(LightblueClient.class);
+        when(client.bulkData(any(DataBulkRequest.class))).then(invocation -> {
+            // Give other threads a chance to try and resolve while this batch is in flight.
+            Thread.sleep(50);
+            LightblueBulkDataResponse bulkResponse = mock(LightblueBulkDataResponse.class);
+            for (CRUDRequest request :
+                    invocation.getArgumentAt(0, DataBulkRequest.class).getRequests()) {
+                when(bulkResponse.getResponse(request))
+                        .thenReturn(mock(LightblueDataResponse.class));
+            }
+            return bulkResponse;
+        });
+
+        BulkLightblueRequester requester = new BulkLightblueRequester(client);
+        CRUDRequest request = mock(CRUDRequest.class);
+        TransformableFuture<LightblueDataResponse> future = requester.request(request)
+                .transformSync(responses -> responses.forRequest(request));
+
+        CyclicBarrier start = new CyclicBarrier(THREADS);
+        List<Future<LightblueDataResponse>> gets = new ArrayList<>();
+
+        for (int t = 0; t < THREADS; t++) {
+            Callable<LightblueDataResponse> get = () -> {
+                start.await();
+                return future.get();
+            };
+            gets.add(executor.submit(get));
+        }
+
+        for (Future<LightblueDataResponse> get : gets) {
+            assertThat(get.get(5, TimeUnit.SECONDS)).isNotNull();
+        }
+
+        verify(client, times(1)).bulkData(any(DataBulkRequest.class));
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler.lightblue.client;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.esbtools.eventhandler.lightblue.DocumentEventEntity;
+
+import com.redhat.lightblue.client.request.data.DataUpdateRequest;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class UpdateRequestsTest {
+    static final ZonedDateTime NOW = ZonedDateTime.of(2016, 1, 1, 12, 0, 0, 0, ZoneId.of("UTC"));
+
+    @Test
+    public void shouldUpdateDocumentEventsSharingStatusAndProcessedDateTogether() {
+        List<DocumentEventEntity> entities = Arrays.asList(
+                entity("1", DocumentEventEntity.Status.published, NOW),
+                entity("2", DocumentEventEntity.Status.published, NOW),
+                entity("3", DocumentEventEntity.Status.failed, NOW),
+                entity("4", DocumentEventEntity.Status.published, NOW),
+                entity("5", DocumentEventEntity.Status.published, NOW.plusSeconds(1)));
+
+        List<DataUpdateRequest> requests =
+                new ArrayList<>(UpdateRequests.documentEventsStatusAndProcessedDate(entities));
+
+        assertThat(requests).hasSize(3);
+        assertThat(requests.get(0).getBody()).contains("$in");
+        assertThat(requests.get(0).getBody()).contains("\"1\"");
+        assertThat(requests.get(0).getBody()).contains("\"2\"");
+        assertThat(requests.get(0).getBody()).contains("\"4\"");
+        assertThat(requests.get(1).getBody()).contains("\"3\"");
+        assertThat(requests.get(2).getBody()).contains("\"5\"");
+    }
+
+    @Test
+    public void shouldSplitDocumentEventUpdatesPastMaxIdsPerUpdate() {
+        List<DocumentEventEntity> entities = Arrays.asList(
+                entity("1", DocumentEventEntity.Status.published, NOW),
+                entity("2", DocumentEventEntity.Status.published, NOW),
+                entity("3", DocumentEventEntity.Status.published, NOW),
+                entity("4", DocumentEventEntity.Status.published, NOW),
+                entity("5", DocumentEventEntity.Status.published, NOW));
+
+        List<DataUpdateRequest> requests =
+                new ArrayList<>(UpdateRequests.documentEventsStatusAndProcessedDate(entities, 2));
+
+        assertThat(requests).hasSize(3);
+        assertThat(requests.get(2).getBody()).contains("\"5\"");
+        assertThat(requests.get(2).getBody()).doesNotContain("$in");
+    }
+
+    @Test
+    public void shouldSkipDocumentEventsWithoutIds() {
+        List<DocumentEventEntity> entities = Arrays.asList(
+                entity(null, DocumentEventEntity.Status.published, NOW),
+                entity("2", DocumentEventEntity.Status.published, NOW));
+
+        List<DataUpdateRequest> requests =
+                new ArrayList<>(UpdateRequests.documentEventsStatusAndProcessedDate(entities));
+
+        assertThat(requests).hasSize(1);
+        assertThat(requests.get(0).getBody()).contains("\"2\"");
+    }
+
+    private static DocumentEventEntity entity(String id, DocumentEventEntity.Status status,
+            ZonedDateTime processedDate) {
+        DocumentEventEntity entity = new DocumentEventEntity();
+        entity.set_id(id);
+        entity.setStatus(status);
+        entity.setProcessedDate(processedDate);
+        return entity;
+    }
+}
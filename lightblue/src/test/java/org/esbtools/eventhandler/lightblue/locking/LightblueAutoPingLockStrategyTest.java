@@ -18,6 +18,7 @@
 
 package org.esbtools.eventhandler.lightblue.locking;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -35,9 +36,12 @@ import org.junit.runners.JUnit4;
 import java.io.IOException;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
 
 @RunWith(JUnit4.class)
 public class LightblueAutoPingLockStrategyTest {
@@ -65,6 +69,8 @@ public class LightblueAutoPingLockStrategyTest {
     @After
     public void shutdownExecutorAndReleaseLocks() {
         executor.shutdown();
+        lockStrategy2SecondPing.stop();
+        lockStrategy100MsPing500msTtl.stop();
 
         lockedResources.forEach((lockedResource) -> {
             try {
@@ -183,4 +189,175 @@ public class LightblueAutoPingLockStrategyTest {
                     inMemoryLocking.waitUntilNextPingAtMost(Duration.ofSeconds(1)));
         }
     }
+
+    @Test
+    public void shouldPingManyLocksWithABoundedNumberOfThreads() throws Exception {
+        long pingThreadsBefore = countAutoPingThreads();
+
+        for (int i = 0; i < 50; i++) {
+            lockedResources.add(lockStrategy100MsPing500msTtl.tryAcquire("resource" + i));
+        }
+
+        // Sleep past TTL.
+        Thread.sleep(1000);
+
+        for (int i = 0; i < 50; i++) {
+            assertFalse("The lock expired!", inMemoryLocking.acquire("resource" + i));
+        }
+
+        assertTrue(countAutoPingThreads() - pingThreadsBefore <=
+                LightblueAutoPingLockStrategy.DEFAULT_AUTO_PING_THREADS);
+    }
+
+    @Test
+    public void shouldNotAcquireLocksOnceStopped() throws Exception {
+        lockStrategy100MsPing500msTtl.stop();
+
+        try {
+            lockedResources.add(lockStrategy100MsPing500msTtl.tryAcquire("resourceAbc"));
+            fail("Acquired lock which could not be pinged.");
+        } catch (LockNotAvailableException expected) {
+            assertTrue("Lock was not released.", inMemoryLocking.acquire("resourceAbc"));
+        }
+    }
+
+    @Test
+    public void shouldAcquireAllAvailableLocksInOrder() throws Exception {
+        assertTrue(inMemoryLocking.acquire("resource2"));
+
+        LockedResources<Lockable> locks = lockStrategy100MsPing500msTtl.tryAcquireAll(
+                Arrays.asList(lockable("resource1"), lockable("resource2"), lockable("resource3")));
+        lockedResources.addAll(locks.getLocks());
+
+        List<String> acquiredIds = locks.getLocks().stream()
+                .map(lock -> lock.getResource().getResourceId())
+                .collect(Collectors.toList());
+
+        assertEquals(Arrays.asList("resource1", "resource3"), acquiredIds);
+        assertFalse(inMemoryLocking.acquire("resource1"));
+        assertFalse(inMemoryLocking.acquire("resource3"));
+    }
+
+    @Test
+    public void shouldReportOnlyLostLocksWhenEnsuringAllAcquired() throws Exception {
+        LockedResources<Lockable> locks = lockStrategy100MsPing500msTtl.tryAcquireAll(
+                Arrays.asList(lockable("resource1"), lockable("resource2"), lockable("resource3")));
+        lockedResources.addAll(locks.getLocks());
+
+        InMemoryLocking.releaseResource("resource2");
+
+        try {
+            locks.ensureAllAcquiredOrThrow("should throw");
+            fail("Expected lost lock");
+        } catch (LostLockException e) {
+            assertEquals(1, e.lostLocks().size());
+            assertEquals("resource2",
+                    ((Lockable) e.lostLocks().get(0).getResource()).getResourceId());
+        }
+    }
+
+    @Test
+    public void shouldReleaseAllLocksAcquiredTogether() throws Exception {
+        LockedResources<Lockable> locks = lockStrategy100MsPing500msTtl.tryAcquireAll(
+                Arrays.asList(lockable("resource1"), lockable("resource2")));
+        lockedResources.addAll(locks.getLocks());
+
+        locks.close();
+
+        assertTrue(inMemoryLocking.acquire("resource1"));
+        assertTrue(inMemoryLocking.acquire("resource2"));
+    }
+
+    @Test
+    public void shouldNotAcquireLocksInBulkOnAutoPingThreads() throws Exception {
+        List<String> acquiringThreads = Collections.synchronizedList(new ArrayList<>());
+        List<Lockable> lockables = new ArrayList<>();
+
+        for (int i = 0; i < 10; i++) {
+            String resourceId = "resource" + i;
+            lockables.add(() -> {
+                acquiringThreads.add(Thread.currentThread().getName());
+                return resourceId;
+            });
+        }
+
+        lockedResources.addAll(lockStrategy100MsPing500msTtl.tryAcquireAll(lockables).getLocks());
+
+        assertEquals(10, acquiringThreads.size());
+        assertTrue(acquiringThreads.stream()
+                .noneMatch(name -> name.startsWith("lightblue-lock-auto-ping-")));
+    }
+
+    @Test
+    public void shouldNotPingToEnsureLockIsAcquiredIfRecentlyRenewed() throws Exception {
+        LightblueAutoPingLockStrategy strategy = new LightblueAutoPingLockStrategy(
+                inMemoryLocking, Duration.ofSeconds(2), Duration.ofSeconds(10),
+                Duration.ofSeconds(5));
+
+        try {
+            LockedResource<String> lock = strategy.tryAcquire("resourceAbc");
+            lockedResources.add(lock);
+
+            int pingsBefore = inMemoryLocking.getPingCount();
+
+            lock.ensureAcquiredOrThrow("should not be lost");
+            lock.ensureAcquiredOrThrow("should not be lost");
+
+            assertEquals(pingsBefore, inMemoryLocking.getPingCount());
+        } finally {
+            strategy.stop();
+        }
+    }
+
+    @Test
+    public void shouldPingToEnsureLockIsAcquiredIfRenewalIsWithinSafetyMargin() throws Exception {
+        LightblueAutoPingLockStrategy strategy = new LightblueAutoPingLockStrategy(
+                inMemoryLocking, Duration.ofSeconds(2), Duration.ofSeconds(10),
+                Duration.ofSeconds(10));
+
+        try {
+            LockedResource<String> lock = strategy.tryAcquire("resourceAbc");
+            lockedResources.add(lock);
+
+            int pingsBefore = inMemoryLocking.getPingCount();
+
+            lock.ensureAcquiredOrThrow("should not be lost");
+
+            assertEquals(pingsBefore + 1, inMemoryLocking.getPingCount());
+        } finally {
+            strategy.stop();
+        }
+    }
+
+    @Test(expected = LostLockException.class)
+    public void shouldNotTrustRecentRenewalOnceBackgroundPingFindsLockLost() throws Exception {
+        LightblueAutoPingLockStrategy strategy = new LightblueAutoPingLockStrategy(
+                inMemoryLocking, Duration.ofMillis(100), Duration.ofSeconds(10),
+                Duration.ofSeconds(1));
+
+        try {
+            LockedResource<String> lock = strategy.tryAcquire("resourceAbc");
+            lockedResources.add(lock);
+
+            InMemoryLocking.releaseAll();
+
+            assertTrue(inMemoryLocking.waitUntilNextPingAtMost(Duration.ofSeconds(1)));
+            // Give the ping task a moment to process the failed ping.
+            Thread.sleep(100);
+
+            lock.ensureAcquiredOrThrow("should throw");
+        } finally {
+            strategy.stop();
+        }
+    }
+
+    private static Lockable lockable(String resourceId) {
+        return () -> resourceId;
+    }
+
+    private static long countAutoPingThreads() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(t -> t.getName().startsWith("lightblue-lock-auto-ping-"))
+                .count();
+    }
 }
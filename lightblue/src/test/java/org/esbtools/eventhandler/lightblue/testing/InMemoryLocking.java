@@ -40,6 +40,7 @@ public class InMemoryLocking extends Locking {
 
     private final List<Ttl> ttls = Collections.synchronizedList(new ArrayList<>());
     private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(5);
+    private final AtomicInteger pingCount = new AtomicInteger(0);
     private volatile CountDownLatch nextPingLatch;
 
     public InMemoryLocking() {
@@ -82,6 +83,8 @@ public class InMemoryLocking extends Locking {
 
     @Override
     public boolean ping(String callerId, String resourceId) throws LightblueException {
+        pingCount.incrementAndGet();
+
         if (nextPingLatch != null) {
             nextPingLatch.countDown();
         }
@@ -97,6 +100,10 @@ public class InMemoryLocking extends Locking {
         return true;
     }
 
+    public int getPingCount() {
+        return pingCount.get();
+    }
+
     /**
      * @return false if timed out.
      */